@@ -0,0 +1,55 @@
+#!/bin/sh
+# Builds an AppCDS archive for the backend from a training run of the API routes.
+#
+# 1. Start the server with -XX:DumpLoadedClassList to record every class loaded while serving
+# 2. Exercise the read and write routes so Jetty, Spark, SQLite and JSON classes are all loaded
+# 3. Dump the recorded classes into a shared archive used by the runtime image (-XX:SharedArchiveFile)
+#
+# Usage: cds-train.sh <app dir>   (expects java-api.jar and lib/ inside it)
+set -e
+
+APP_DIR=${1:-/app}
+PORT=4567
+BASE=http://localhost:$PORT
+cd "$APP_DIR"
+
+# Explicit classpath - the dump and runtime classpaths must match exactly for the archive to be used
+CLASSPATH=java-api.jar
+for jar in lib/*.jar; do
+    CLASSPATH="$CLASSPATH:$jar"
+done
+echo "$CLASSPATH" > classpath.txt
+
+java -XX:DumpLoadedClassList=classes.lst -cp "$CLASSPATH" com.topbloc.codechallenge.Main > training.log 2>&1 &
+SERVER_PID=$!
+
+# Wait for the server to come up
+for i in $(seq 1 60); do
+    if curl -sf "$BASE/version" > /dev/null; then
+        break
+    fi
+    sleep 1
+done
+
+# Training run - a scratch database is created by /reset and removed afterwards
+curl -sf "$BASE/reset" > /dev/null
+for path in /items /inventory /inventory/out-of-stock /inventory/overstocked /inventory/low-stock /inventory/1 \
+            /distributors /distributors/1/items /items/1/offerings "/items/1/restock-price?quantity=10" \
+            /export/items /export/distributor_prices; do
+    curl -sf "$BASE$path" > /dev/null
+done
+curl -sf -X POST -H "Content-Type: application/json" -d '{"name": "Training Item"}' "$BASE/items" > /dev/null
+curl -sf -X PUT -H "Content-Type: application/json" -d '{"itemId": 1, "stock": 20, "capacity": 25}' "$BASE/inventory" > /dev/null
+curl -sf -X PUT -H "Content-Type: application/json" -d '{"cost": 0.8}' "$BASE/distributors/1/items/1/price" > /dev/null
+curl -s -X OPTIONS "$BASE/inventory" > /dev/null
+
+kill "$SERVER_PID"
+wait "$SERVER_PID" || true
+cat training.log
+# The scratch database runs in WAL mode and the server is killed without a checkpoint: its -wal/-shm files,
+# and the seed snapshot and job files written by the training run, must not ship in the image
+rm -f challenge.db challenge.db-wal challenge.db-shm training.log
+rm -rf snapshots jobs
+
+java -Xshare:dump -XX:SharedClassListFile=classes.lst -XX:SharedArchiveFile=app.jsa -cp "$CLASSPATH"
+rm -f classes.lst
@@ -1,23 +1,45 @@
 package com.topbloc.codechallenge;
 
+import com.topbloc.codechallenge.config.Settings;
+import com.topbloc.codechallenge.db.DatabaseMaintenance;
 import com.topbloc.codechallenge.db.DatabaseManager;
+import com.topbloc.codechallenge.db.SnapshotStore;
+import com.topbloc.codechallenge.http.JdkHttpTransport;
+import com.topbloc.codechallenge.http.SparkTransport;
+import com.topbloc.codechallenge.http.Transport;
+import com.topbloc.codechallenge.replication.Replication;
+import com.topbloc.codechallenge.routes.AdmissionControl;
 import com.topbloc.codechallenge.routes.Routes;
+import com.topbloc.codechallenge.service.DistributorCompactor;
 
-import static spark.Spark.*;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Main {
+    // Flipped by the first successful response so time-to-first-request is reported exactly once
+    private static final AtomicBoolean firstRequestServed = new AtomicBoolean(false);
+
     public static void main(String[] args) {
         DatabaseManager.connect();
+        Replication.initialize();
+        // Purges the rows of deleted distributors while no request is running
+        DistributorCompactor.start();
+        // ANALYZE, optimize, WAL checkpoints, log retention and vacuuming, run while no request is running
+        DatabaseMaintenance.start(() -> AdmissionControl.isIdle(Settings.getLong("db.maintenance.idle_ms", 5000)),
+                Replication::isFollower);
+
+        // HTTP server: "spark" (Jetty) or "jdk" (built-in HttpServer); override the port to run several nodes on one host
+        Transport http = createTransport(Settings.get("http.transport", "spark"), Settings.getInt("server.port", 4567));
         
         // CORS configuration - allow frontend to access the API
-        before((req, res) -> {
+        http.before((req, res) -> {
             res.header("Access-Control-Allow-Origin", "*");
             res.header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
             res.header("Access-Control-Allow-Headers", "Content-Type, Authorization, X-Requested-With");
         });
         
         // Handle preflight OPTIONS requests
-        options("/*",
+        http.options("/*",
         (req, res) -> {
             res.header("Access-Control-Allow-Headers", "Content-Type, Authorization, X-Requested-With");
             res.header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
@@ -25,18 +47,43 @@ public class Main {
         });
 
         // Don't change - if required you can reset your database by hitting this endpoint at localhost:4567/reset
-        get("/reset", (req, res) -> {
-            DatabaseManager.resetDatabase();
+        // Restores the seed snapshot after the first reset of the process (see SnapshotStore)
+        http.get("/reset", (req, res) -> {
+            SnapshotStore.reset();
             return "OK";
         });
 
         //TODO: Add your routes here. a couple of examples are below
-        get("/items", (req, res) -> DatabaseManager.getItems());
-        get("/version", (req, res) -> "TopBloc Code Challenge v1.0");
+        http.get("/items", (req, res) -> DatabaseManager.getItems());
+        http.get("/version", (req, res) -> "TopBloc Code Challenge v1.0");
         
         // Initialize all routes
-        Routes.initializeAll();
-        
+        Routes.initializeAll(http);
+
+        // Startup timing - measured from JVM launch so class loading and CDS effects are included
+        http.after((req, res) -> {
+            if (res.status() < 400 && firstRequestServed.compareAndSet(false, true)) {
+                System.out.println("First successful request (" + req.requestMethod() + " " + req.pathInfo()
+                        + ") served " + jvmUptimeMillis() + " ms after JVM start");
+            }
+        });
+
+        http.start();
+        System.out.println("Server ready (" + http.name() + " transport) " + jvmUptimeMillis() + " ms after JVM start");
+    }
+
+    public static Transport createTransport(String name, int port) {
+        switch (name) {
+            case "spark":
+                return new SparkTransport(port);
+            case "jdk":
+                return new JdkHttpTransport(port);
+            default:
+                throw new IllegalArgumentException("Unknown http.transport '" + name + "', expected spark or jdk");
+        }
+    }
 
+    private static long jvmUptimeMillis() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
     }
 }
\ No newline at end of file
@@ -0,0 +1,187 @@
+package com.topbloc.codechallenge.alerts;
+
+import com.topbloc.codechallenge.config.Settings;
+import com.topbloc.codechallenge.db.DatabaseManager;
+import com.topbloc.codechallenge.service.InventoryStatistics;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Stock alerts, evaluated on the inventory write path.
+ *
+ * Each inventory insert or update passes the item's previous and new stock/capacity to evaluate(), which
+ * checks them against every registered AlertRule. Only the changed row is looked at, so detection costs
+ * O(rules) per write instead of a table scan per poll. A rule whose result flips produces an event:
+ * - "entered": the condition now holds (e.g. the item just became low on stock)
+ * - "recovered": the condition no longer holds
+ *
+ * Events are inserted into the alert_events table in the writer's transaction, which makes the table a
+ * durable, replicated queue that clients read by id (GET /alerts?after=). After commit they are also
+ * pushed to live subscribers (GET /alerts/stream). On a follower the rows arrive through replication and
+ * are pushed after each replicated batch that added any. When the database contents are replaced the ids
+ * start over, so the live subscribers are reset and resume from the beginning.
+ *
+ * Default rules: out_of_stock (stock = 0), low_stock (stock below "alerts.low_stock_ratio" of capacity,
+ * by default InventoryStatistics.LOW_STOCK_RATIO like the low stock views) and overstocked (stock above
+ * capacity). More can be added with register().
+ */
+public class AlertEngine {
+    public static final String ENTERED = "entered";
+    public static final String RECOVERED = "recovered";
+
+    private static final List<AlertRule> rules = new CopyOnWriteArrayList<>();
+    private static final List<AlertSubscriber> subscribers = new CopyOnWriteArrayList<>();
+    private static final int maxSubscribers = Settings.getInt("alerts.max_subscribers", 32);
+    private static final int subscriberBuffer = Settings.getInt("alerts.subscriber_buffer", 1000);
+    private static final AtomicLong evaluations = new AtomicLong();
+    private static final AtomicLong emitted = new AtomicLong();
+    private static final AtomicLong overflows = new AtomicLong();
+    // Highest event id pushed to subscribers (or present when the engine started)
+    private static final AtomicLong lastPublishedId = new AtomicLong();
+
+    static {
+        double lowStockRatio = Double.parseDouble(Settings.get("alerts.low_stock_ratio",
+                String.valueOf(InventoryStatistics.LOW_STOCK_RATIO)));
+        register(new AlertRule("out_of_stock", "Stock is zero",
+                (stock, capacity) -> stock == 0));
+        register(new AlertRule("low_stock", "Stock is below " + Math.round(lowStockRatio * 100) + "% of capacity",
+                (stock, capacity) -> capacity != 0 && (double) stock / capacity < lowStockRatio));
+        register(new AlertRule("overstocked", "Stock exceeds capacity",
+                (stock, capacity) -> stock > capacity));
+        lastPublishedId.set(maxEventId());
+        DatabaseManager.onDataChanged(AlertEngine::dataReplaced, AlertEngine::publishReplicated, "alert_events");
+    }
+
+    public static void register(AlertRule rule) {
+        rules.add(rule);
+    }
+
+    public static JSONArray getRules() {
+        JSONArray json = new JSONArray();
+        for (AlertRule rule : rules) {
+            json.add(rule.toJson());
+        }
+        return json;
+    }
+
+    // Record the alert transitions caused by one inventory write; must run inside the writer's transaction.
+    // previous is {stock, capacity} before the write, or null for a new inventory row.
+    public static List<JSONObject> evaluate(int itemId, int[] previous, int stock, int capacity) throws SQLException {
+        evaluations.incrementAndGet();
+        List<JSONObject> events = new ArrayList<>();
+        long ts = System.currentTimeMillis();
+        for (AlertRule rule : rules) {
+            boolean wasActive = previous != null && rule.matches(previous[0], previous[1]);
+            boolean isActive = rule.matches(stock, capacity);
+            if (wasActive == isActive) {
+                continue;
+            }
+            String transition = isActive ? ENTERED : RECOVERED;
+            long id = DatabaseManager.executeInsert("INSERT INTO alert_events "
+                    + "(ts, item, alert, transition, stock, capacity) VALUES (?, ?, ?, ?, ?, ?)",
+                    ts, itemId, rule.getName(), transition, stock, capacity);
+            JSONObject event = new JSONObject();
+            event.put("id", id);
+            event.put("ts", ts);
+            event.put("item", itemId);
+            event.put("alert", rule.getName());
+            event.put("transition", transition);
+            event.put("stock", stock);
+            event.put("capacity", capacity);
+            events.add(event);
+        }
+        return events;
+    }
+
+    // Push committed events to the live subscribers; called after commit with the write lock still held,
+    // so every subscriber receives events in id order
+    public static void publish(List<JSONObject> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        emitted.addAndGet(events.size());
+        lastPublishedId.accumulateAndGet(((Number) events.get(events.size() - 1).get("id")).longValue(), Math::max);
+        for (AlertSubscriber subscriber : subscribers) {
+            for (JSONObject event : events) {
+                subscriber.offer(event);
+            }
+            if (subscriber.isOverflowed()) {
+                overflows.incrementAndGet();
+                subscribers.remove(subscriber);
+            }
+        }
+    }
+
+    // Push the rows a replicated batch added to alert_events; writes applied from the replication log skip evaluate()
+    private static synchronized void publishReplicated() {
+        try {
+            JSONArray events;
+            do {
+                events = getEvents(lastPublishedId.get(), 500);
+                List<JSONObject> batch = new ArrayList<>();
+                for (Object event : events) {
+                    batch.add((JSONObject) event);
+                }
+                publish(batch);
+            } while (events.size() == 500);
+        } catch (SQLException e) {
+            System.err.println("Error publishing replicated alert events: " + e.getMessage());
+        }
+    }
+
+    // The table was replaced and its ids start over: streams resuming after an old id would skip the new events
+    private static synchronized void dataReplaced() {
+        for (AlertSubscriber subscriber : subscribers) {
+            subscriber.reset();
+            subscribers.remove(subscriber);
+        }
+        lastPublishedId.set(maxEventId());
+    }
+
+    private static long maxEventId() {
+        try {
+            JSONObject row = DatabaseManager.queryRowForJson("SELECT COALESCE(max(id), 0) AS id FROM alert_events");
+            return row == null ? 0 : ((Number) row.get("id")).longValue();
+        } catch (SQLException e) {
+            System.err.println("Error reading the last alert event id: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    // Register a push-channel client, or return null when the subscriber limit is reached
+    public static synchronized AlertSubscriber subscribe() {
+        if (subscribers.size() >= maxSubscribers) {
+            return null;
+        }
+        AlertSubscriber subscriber = new AlertSubscriber(subscriberBuffer);
+        subscribers.add(subscriber);
+        return subscriber;
+    }
+
+    public static void unsubscribe(AlertSubscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    // Events with an id greater than after, oldest first
+    public static JSONArray getEvents(long after, int limit) throws SQLException {
+        return DatabaseManager.queryForJson("SELECT id, ts, item, alert, transition, stock, capacity "
+                + "FROM alert_events WHERE id > ? ORDER BY id LIMIT ?", after, limit);
+    }
+
+    public static JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        stats.put("rules", rules.size());
+        stats.put("subscribers", subscribers.size());
+        stats.put("maxSubscribers", maxSubscribers);
+        stats.put("evaluations", evaluations.get());
+        stats.put("emitted", emitted.get());
+        stats.put("subscriberOverflows", overflows.get());
+        return stats;
+    }
+}
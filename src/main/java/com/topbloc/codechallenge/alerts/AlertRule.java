@@ -0,0 +1,39 @@
+package com.topbloc.codechallenge.alerts;
+
+import org.json.simple.JSONObject;
+
+/*
+ * A named stock condition that AlertEngine watches, e.g. "low_stock" = stock below 35% of capacity.
+ * An alert is active while the condition holds; AlertEngine reports when it starts and stops holding.
+ */
+public class AlertRule {
+
+    public interface Condition {
+        boolean matches(int stock, int capacity);
+    }
+
+    private final String name;
+    private final String description;
+    private final Condition condition;
+
+    public AlertRule(String name, String description, Condition condition) {
+        this.name = name;
+        this.description = description;
+        this.condition = condition;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean matches(int stock, int capacity) {
+        return condition.matches(stock, capacity);
+    }
+
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("name", name);
+        json.put("description", description);
+        return json;
+    }
+}
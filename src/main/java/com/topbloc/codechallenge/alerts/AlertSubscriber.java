@@ -0,0 +1,54 @@
+package com.topbloc.codechallenge.alerts;
+
+import org.json.simple.JSONObject;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Buffer of alert events for one push-channel client.
+ *
+ * Publishing never blocks the write path: when a slow client's buffer is full the subscriber is marked
+ * as overflowed and its stream is closed. The client reconnects with its last event id and catches up
+ * from the alert_events table.
+ *
+ * When the database contents are replaced (e.g. /reset) the event ids start over, so the subscriber is reset:
+ * its stream tells the client to resume from the beginning and closes.
+ */
+public class AlertSubscriber {
+    // Queued by reset() to wake the stream up
+    private static final JSONObject RESET = new JSONObject();
+
+    private final BlockingQueue<JSONObject> queue;
+    private volatile boolean overflowed;
+    private volatile boolean reset;
+
+    AlertSubscriber(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    void offer(JSONObject event) {
+        if (!queue.offer(event)) {
+            overflowed = true;
+        }
+    }
+
+    void reset() {
+        reset = true;
+        queue.offer(RESET);
+    }
+
+    // Next event, or null if none arrived within the timeout
+    public JSONObject poll(long timeoutMillis) throws InterruptedException {
+        return queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    public boolean isReset() {
+        return reset;
+    }
+}
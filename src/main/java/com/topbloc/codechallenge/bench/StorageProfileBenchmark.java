@@ -0,0 +1,131 @@
+package com.topbloc.codechallenge.bench;
+
+import com.topbloc.codechallenge.db.StorageProfile;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+/*
+ * Benchmark comparing the SQLite storage profiles against the driver defaults.
+ *
+ * A database with the challenge schema is generated once, copied for every profile, and then used for:
+ * - scan: the items JOIN inventory query behind GET /inventory
+ * - lookup: random single-item lookups behind GET /inventory/:id
+ * - write: single-row autocommit stock updates behind PUT /inventory
+ *
+ * Usage: java -cp "target/java-api.jar:target/lib/*" com.topbloc.codechallenge.bench.StorageProfileBenchmark [rows]
+ */
+public class StorageProfileBenchmark {
+    private static final int SCANS = 20;
+    private static final int LOOKUPS = 20000;
+    private static final int WRITES = 2000;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        File template = File.createTempFile("profile-bench-", ".db");
+        generate(template, rows);
+
+        System.out.printf("%-14s %12s %12s %12s%n", "profile", "scan ms", "lookup us", "write us");
+        String[] profiles = {"driver-default", StorageProfile.BALANCED, StorageProfile.READ_HEAVY, StorageProfile.WRITE_HEAVY};
+        for (String name : profiles) {
+            File copy = File.createTempFile("profile-bench-" + name + "-", ".db");
+            Files.copy(template.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + copy.getAbsolutePath())) {
+                if (!name.equals("driver-default")) {
+                    StorageProfile.preset(name).apply(conn);
+                }
+                double scanMs = scan(conn) / 1e6 / SCANS;
+                double lookupUs = lookups(conn, rows) / 1e3 / LOOKUPS;
+                double writeUs = writes(conn, rows) / 1e3 / WRITES;
+                System.out.printf("%-14s %12.2f %12.2f %12.2f%n", name, scanMs, lookupUs, writeUs);
+            }
+            deleteWithSidecars(copy);
+        }
+        deleteWithSidecars(template);
+    }
+
+    private static void generate(File file, int rows) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath())) {
+            Statement stmt = conn.createStatement();
+            stmt.execute("CREATE TABLE items (id integer PRIMARY KEY, name text NOT NULL UNIQUE)");
+            stmt.execute("CREATE TABLE inventory (id integer PRIMARY KEY, item integer NOT NULL UNIQUE references items(id) ON DELETE CASCADE, "
+                    + "stock integer NOT NULL, capacity integer NOT NULL)");
+            conn.setAutoCommit(false);
+            Random random = new Random(42);
+            PreparedStatement items = conn.prepareStatement("INSERT INTO items (id, name) VALUES (?, ?)");
+            PreparedStatement inventory = conn.prepareStatement("INSERT INTO inventory (item, stock, capacity) VALUES (?, ?, ?)");
+            for (int id = 1; id <= rows; id++) {
+                items.setInt(1, id);
+                items.setString(2, "Item " + id);
+                items.addBatch();
+                int capacity = 10 + random.nextInt(90);
+                inventory.setInt(1, id);
+                inventory.setInt(2, random.nextInt(capacity + 10));
+                inventory.setInt(3, capacity);
+                inventory.addBatch();
+            }
+            items.executeBatch();
+            inventory.executeBatch();
+            conn.commit();
+        }
+    }
+
+    private static long scan(Connection conn) throws SQLException {
+        String sql = "SELECT i.id, i.name, inv.stock, inv.capacity FROM items i INNER JOIN inventory inv ON i.id = inv.item ORDER BY i.id";
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        long start = System.nanoTime();
+        long checksum = 0;
+        for (int n = 0; n < SCANS; n++) {
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    checksum += rs.getInt(3);
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (checksum == -1) {
+            System.out.println(checksum);
+        }
+        return elapsed;
+    }
+
+    private static long lookups(Connection conn, int rows) throws SQLException {
+        String sql = "SELECT i.id, i.name, inv.stock, inv.capacity FROM items i INNER JOIN inventory inv ON i.id = inv.item WHERE i.id = ?";
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        Random random = new Random(7);
+        long start = System.nanoTime();
+        for (int n = 0; n < LOOKUPS; n++) {
+            stmt.setInt(1, 1 + random.nextInt(rows));
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long writes(Connection conn, int rows) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement("UPDATE inventory SET stock = ? WHERE item = ?");
+        Random random = new Random(11);
+        long start = System.nanoTime();
+        for (int n = 0; n < WRITES; n++) {
+            stmt.setInt(1, random.nextInt(100));
+            stmt.setInt(2, 1 + random.nextInt(rows));
+            stmt.executeUpdate();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void deleteWithSidecars(File file) {
+        file.delete();
+        new File(file.getPath() + "-wal").delete();
+        new File(file.getPath() + "-shm").delete();
+    }
+}
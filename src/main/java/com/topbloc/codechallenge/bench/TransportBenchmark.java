@@ -0,0 +1,118 @@
+package com.topbloc.codechallenge.bench;
+
+import com.topbloc.codechallenge.db.DatabaseManager;
+import com.topbloc.codechallenge.db.SnapshotStore;
+import com.topbloc.codechallenge.http.JdkHttpTransport;
+import com.topbloc.codechallenge.http.SparkTransport;
+import com.topbloc.codechallenge.http.Transport;
+import com.topbloc.codechallenge.routes.Routes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Benchmark comparing the HTTP transports (Spark/Jetty and the JDK HttpServer).
+ *
+ * Both transports are started in this JVM with the full route table on the local challenge.db (seeded if
+ * it does not exist yet) plus a /bench/ping route registered after all the others, and measured over
+ * keep-alive connections:
+ * - ping: sequential requests to /bench/ping from one client; the mean latency is the transport's own
+ *   cost (parsing, routing through the whole table, writing the response) since the handler does nothing
+ * - lookup: concurrent GET /inventory/:id requests for the measured duration, reported as requests/s
+ *
+ * Usage: java -cp "target/java-api.jar:target/lib/*" com.topbloc.codechallenge.bench.TransportBenchmark [clients] [seconds]
+ */
+public class TransportBenchmark {
+    private static final int PINGS = 20000;
+    private static final int SPARK_PORT = 4601;
+    private static final int JDK_PORT = 4602;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        DatabaseManager.connect();
+        if (DatabaseManager.getItems() == null) {
+            SnapshotStore.rebuild();
+        }
+        int items = DatabaseManager.getItems().size();
+
+        Transport[] transports = {new SparkTransport(SPARK_PORT), new JdkHttpTransport(JDK_PORT)};
+        int[] ports = {SPARK_PORT, JDK_PORT};
+        for (Transport transport : transports) {
+            Routes.initializeAll(transport);
+            transport.get("/bench/ping", (req, res) -> "pong");
+            transport.start();
+        }
+
+        // HttpURLConnection keeps at most http.maxConnections idle connections per server
+        System.setProperty("http.maxConnections", String.valueOf(clients));
+        System.out.printf("%-10s %12s %14s%n", "transport", "ping us", "lookup req/s");
+        for (int i = 0; i < transports.length; i++) {
+            String base = "http://localhost:" + ports[i];
+            // Warm up connections and JIT before measuring
+            ping(base, PINGS / 4);
+            lookups(base, items, clients, 1);
+
+            double pingUs = ping(base, PINGS) / 1e3 / PINGS;
+            double lookupsPerSecond = (double) lookups(base, items, clients, seconds) / seconds;
+            System.out.printf("%-10s %12.1f %14.0f%n", transports[i].name(), pingUs, lookupsPerSecond);
+        }
+        System.exit(0);
+    }
+
+    // Nanoseconds for count sequential pings
+    private static long ping(String base, int count) throws IOException {
+        URL url = new URL(base + "/bench/ping");
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            request(url);
+        }
+        return System.nanoTime() - start;
+    }
+
+    // Successful requests completed by the given number of concurrent clients within the duration
+    private static long lookups(String base, int items, int clients, int seconds) throws InterruptedException {
+        AtomicLong completed = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            Random random = new Random(c);
+            Thread thread = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < deadline) {
+                        URL url = new URL(base + "/inventory/" + (1 + random.nextInt(Math.max(1, items))));
+                        if (request(url) == 200) {
+                            completed.incrementAndGet();
+                        }
+                    }
+                } catch (Exception e) {
+                    System.err.println("Lookup client failed: " + e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return completed.get();
+    }
+
+    // GET the url and read the whole body, so the connection goes back to the keep-alive pool
+    private static int request(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        int status = connection.getResponseCode();
+        try (InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (body != null) {
+                body.readAllBytes();
+            }
+        }
+        return status;
+    }
+}
@@ -0,0 +1,132 @@
+package com.topbloc.codechallenge.cache;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Bounded LRU cache for query results (JSON arrays) keyed by an entity ID.
+ *
+ * The cache is bounded by the estimated memory footprint of its entries rather than by entry count,
+ * so a few large catalogs cannot push the heap past the configured budget. Entry size is estimated
+ * from the serialized JSON length (2 bytes per char) plus a fixed per-entry overhead.
+ *
+ * Loads race with invalidations: a reader may query the database, then a writer commits and invalidates,
+ * then the reader stores its now-stale result. To prevent that, callers take generation() before querying
+ * and store with putIfCurrent(), which drops the value if any invalidation happened in between.
+ *
+ * Rows are copied in and out, so a caller changing the array it was given cannot change what later callers get.
+ */
+public class ResultCache<K> {
+    private static final long ENTRY_OVERHEAD_BYTES = 96;
+
+    private final String name;
+    private final long maxBytes;
+    private final LinkedHashMap<K, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public ResultCache(String name, long maxBytes) {
+        this.name = name;
+        this.maxBytes = maxBytes;
+    }
+
+    // Get a cached result, or null on a miss
+    public synchronized JSONArray get(K key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return copyOf(entry.value);
+    }
+
+    // Generation to pass to putIfCurrent() - take it before running the query
+    public synchronized long generation() {
+        return generation;
+    }
+
+    // Store a result unless the cache was invalidated since the given generation was taken
+    public void putIfCurrent(K key, JSONArray value, long loadedAtGeneration) {
+        long size = ENTRY_OVERHEAD_BYTES + 2L * value.toJSONString().length();
+        synchronized (this) {
+            if (loadedAtGeneration != generation || size > maxBytes) {
+                return;
+            }
+            Entry previous = entries.put(key, new Entry(copyOf(value), size));
+            if (previous != null) {
+                currentBytes -= previous.size;
+            }
+            currentBytes += size;
+            evictToBudget();
+        }
+    }
+
+    public synchronized void invalidate(K key) {
+        generation++;
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            currentBytes -= removed.size;
+            invalidations++;
+        }
+    }
+
+    public synchronized void clear() {
+        generation++;
+        invalidations += entries.size();
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    public synchronized JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        long lookups = hits + misses;
+        stats.put("name", name);
+        stats.put("entries", entries.size());
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRate", lookups == 0 ? 0.0 : (double) hits / lookups);
+        stats.put("evictions", evictions);
+        stats.put("invalidations", invalidations);
+        stats.put("estimatedBytes", currentBytes);
+        stats.put("maxBytes", maxBytes);
+        return stats;
+    }
+
+    // Copy of the array and its rows; the values themselves (numbers, strings) are immutable
+    private static JSONArray copyOf(JSONArray rows) {
+        JSONArray copy = new JSONArray();
+        for (Object row : rows) {
+            copy.add(row instanceof JSONObject ? new JSONObject((JSONObject) row) : row);
+        }
+        return copy;
+    }
+
+    // Drop least recently used entries until the footprint fits the budget
+    private void evictToBudget() {
+        Iterator<Map.Entry<K, Entry>> it = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            currentBytes -= it.next().getValue().size;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private static class Entry {
+        final JSONArray value;
+        final long size;
+
+        Entry(JSONArray value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.topbloc.codechallenge.cache;
+
+import com.topbloc.codechallenge.db.DatabaseManager;
+import org.json.simple.JSONAware;
+import org.json.simple.JSONObject;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/*
+ * Coalesces identical concurrent read requests into a single service call.
+ *
+ * The first request for a key runs the call; requests with the same key that arrive while it is running
+ * wait for that call and receive the same result. The key is combined with DatabaseManager's commit
+ * generation, so a request that arrives after a write never joins a query that started before it.
+ *
+ * The result is serialized once by the request that ran the call, and every request gets the same string,
+ * so no request can see another one's changes to a shared JSON object.
+ */
+public class SingleFlight {
+    private static final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private static final AtomicLong executions = new AtomicLong();
+    private static final AtomicLong collapsed = new AtomicLong();
+
+    // Run or join the call for a key; returns its JSON, or null when the call returned null
+    public static String run(String key, Supplier<? extends JSONAware> call) {
+        return join(key, () -> {
+            JSONAware result = call.get();
+            return result == null ? null : result.toJSONString();
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T join(String key, Supplier<T> call) {
+        String flightKey = key + "@" + DatabaseManager.getCommitGeneration();
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(flightKey, flight);
+        if (existing != null) {
+            collapsed.incrementAndGet();
+            try {
+                return (T) existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        executions.incrementAndGet();
+        try {
+            T result = call.get();
+            flight.complete(result);
+            return result;
+        } catch (Throwable e) {
+            // Errors too (e.g. OutOfMemoryError): a flight that never completes would block its waiters forever
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(flightKey, flight);
+        }
+    }
+
+    public static JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        stats.put("executions", executions.get());
+        stats.put("collapsed", collapsed.get());
+        stats.put("inFlight", inFlight.size());
+        return stats;
+    }
+}
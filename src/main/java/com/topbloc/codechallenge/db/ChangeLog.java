@@ -0,0 +1,37 @@
+package com.topbloc.codechallenge.db;
+
+import java.sql.SQLException;
+
+/*
+ * Row-level change tracking for the exportable tables, used for delta exports (GET /export/:table?since=).
+ *
+ * Service-layer mutations record the primary key of every row they insert, update or delete in the
+ * change_log table, in the same transaction as the change itself. Versions are change_log's integer
+ * primary key, so they increase with every recorded change and replicas assign the same versions.
+ *
+ * When change_log is created it gets a baseline row whose version is derived from the clock
+ * (SchemaExtensions), so versions keep increasing across /reset. The retention maintenance task
+ * (DatabaseMaintenance) deletes the oldest rows and moves the baseline up to the newest version it deleted.
+ * A "since" older than the baseline cannot be answered from the log and requires a full export.
+ */
+public class ChangeLog {
+    public static final String INSERT = "insert";
+    public static final String UPDATE = "update";
+    public static final String DELETE = "delete";
+
+    // Record a change to one row; must run in the mutation's transaction
+    public static void record(String table, long rowId, String op) throws SQLException {
+        DatabaseManager.executeUpdate("INSERT INTO change_log (table_name, row_id, op) VALUES (?, ?, ?)",
+                table, rowId, op);
+    }
+
+    // Record a change to every row matching the condition; for deletes, call it before the DELETE runs
+    public static void recordWhere(String table, String op, String condition, Object... params) throws SQLException {
+        Object[] allParams = new Object[params.length + 2];
+        allParams[0] = table;
+        allParams[1] = op;
+        System.arraycopy(params, 0, allParams, 2, params.length);
+        DatabaseManager.executeUpdate("INSERT INTO change_log (table_name, row_id, op) "
+                + "SELECT ?, id, ? FROM " + table + " WHERE " + condition, allParams);
+    }
+}
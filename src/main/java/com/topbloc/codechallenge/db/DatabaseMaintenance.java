@@ -0,0 +1,356 @@
+package com.topbloc.codechallenge.db;
+
+import com.topbloc.codechallenge.config.Settings;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/*
+ * Background maintenance of challenge.db, run only while the server is idle.
+ *
+ * Tasks, each on its own interval ("db.maintenance.<task>.interval_ms", 0 disables a task):
+ * - checkpoint: PRAGMA wal_checkpoint(TRUNCATE), copies the WAL into the database file and truncates it
+ * - optimize: PRAGMA optimize, re-analyzes the tables whose statistics SQLite considers stale
+ * - analyze: full ANALYZE, refreshes sqlite_stat1 so the planner can pick the range indexes
+ * - retention: deletes the oldest change_log rows and alert events beyond "db.maintenance.retention.change_log_rows"
+ *   and "db.maintenance.retention.alert_events_rows", a few thousand rows per write-lock hold. The change log's
+ *   baseline row moves up to the newest pruned version, so a delta export from a pruned version is answered
+ *   with "run a full export" (410) instead of a partial delta.
+ * - incremental_vacuum: returns free pages to the file system in steps of "db.maintenance.incremental_vacuum.pages"
+ *   pages, one write-lock hold per step, until the freelist is empty or a request arrives
+ * - vacuum: full VACUUM, off by default. It also switches the file to auto_vacuum=INCREMENTAL so
+ *   incremental_vacuum can work afterwards; POST /maintenance/vacuum always does, and with
+ *   "db.maintenance.auto_vacuum_incremental" (off by default) a file not yet converted is converted while idle.
+ *   The conversion rewrites the whole file under the write lock, and /reset recreates the file unconverted.
+ *
+ * Every check ("db.maintenance.check_ms") runs the due tasks in that order as long as the idle check passed
+ * to start() holds. Each run records its duration and the page count, free pages and WAL size before and
+ * after, reported by GET /metrics/maintenance. runNow() runs a task immediately (POST /maintenance/:task).
+ *
+ * Tasks run on the primary connection under the database write lock, so they never overlap a write
+ * transaction. They are local to this node's file and are not replicated, except retention: its deletes go
+ * through DatabaseManager.executeUpdate so the read mirror and followers drop the same rows, and followers
+ * (see start()) do not schedule it themselves.
+ */
+public class DatabaseMaintenance {
+    public static final String CHECKPOINT = "checkpoint";
+    public static final String OPTIMIZE = "optimize";
+    public static final String ANALYZE = "analyze";
+    public static final String RETENTION = "retention";
+    public static final String INCREMENTAL_VACUUM = "incremental_vacuum";
+    public static final String VACUUM = "vacuum";
+    private static final String[] TASKS = {CHECKPOINT, OPTIMIZE, ANALYZE, RETENTION, INCREMENTAL_VACUUM, VACUUM};
+    // The one-time conversion to incremental auto-vacuum is attempted at most once a minute (e.g. after a busy failure)
+    private static final long CONVERSION_RETRY_MILLIS = 60_000;
+    // Rows deleted per write-lock hold by the retention task
+    private static final int RETENTION_STEP_ROWS = 5_000;
+
+    private static final boolean enabled = Settings.getBoolean("db.maintenance.enabled", true);
+    private static final long checkMillis = Settings.getLong("db.maintenance.check_ms", 1000);
+    private static final int vacuumStepPages = Settings.getInt("db.maintenance.incremental_vacuum.pages", 256);
+    private static final boolean convertToIncremental = Settings.getBoolean("db.maintenance.auto_vacuum_incremental", false);
+    private static final long changeLogRows = Math.max(1, Settings.getLong("db.maintenance.retention.change_log_rows", 1_000_000));
+    private static final long alertEventRows = Math.max(1, Settings.getLong("db.maintenance.retention.alert_events_rows", 100_000));
+
+    private static final Map<String, Task> tasks = new LinkedHashMap<>();
+    private static ScheduledExecutorService scheduler;
+    private static BooleanSupplier idle = () -> true;
+    private static BooleanSupplier follower = () -> false;
+
+    static {
+        tasks.put(CHECKPOINT, new Task(CHECKPOINT, Settings.getLong("db.maintenance.checkpoint.interval_ms", 60_000)));
+        tasks.put(OPTIMIZE, new Task(OPTIMIZE, Settings.getLong("db.maintenance.optimize.interval_ms", 600_000)));
+        tasks.put(ANALYZE, new Task(ANALYZE, Settings.getLong("db.maintenance.analyze.interval_ms", 3_600_000)));
+        tasks.put(RETENTION, new Task(RETENTION, Settings.getLong("db.maintenance.retention.interval_ms", 3_600_000)));
+        tasks.put(INCREMENTAL_VACUUM, new Task(INCREMENTAL_VACUUM, Settings.getLong("db.maintenance.incremental_vacuum.interval_ms", 300_000)));
+        tasks.put(VACUUM, new Task(VACUUM, Settings.getLong("db.maintenance.vacuum.interval_ms", 0)));
+    }
+
+    // Last run and counters of one task (guarded by the DatabaseMaintenance class lock)
+    private static class Task {
+        final String name;
+        final long intervalMillis;
+        long lastRunAt;
+        long runs;
+        long failures;
+        JSONObject lastRun;
+
+        Task(String name, long intervalMillis) {
+            this.name = name;
+            this.intervalMillis = intervalMillis;
+            // Intervals count from startup, so a restart does not run everything at once
+            this.lastRunAt = System.currentTimeMillis();
+        }
+
+        boolean isDue(long now) {
+            return intervalMillis > 0 && now - lastRunAt >= intervalMillis;
+        }
+    }
+
+    // Start the scheduler; isIdle tells whether requests are running (e.g. AdmissionControl.isIdle()) and
+    // isFollower whether this node replays a leader's writes, in which case retention arrives replicated
+    public static synchronized void start(BooleanSupplier isIdle, BooleanSupplier isFollower) {
+        if (!enabled || scheduler != null) {
+            return;
+        }
+        idle = isIdle;
+        follower = isFollower;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "db-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(DatabaseMaintenance::runDueTasks, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static void runDueTasks() {
+        for (String name : TASKS) {
+            if (!idle.getAsBoolean()) {
+                return;
+            }
+            if (name.equals(RETENTION) && follower.getAsBoolean()) {
+                continue;
+            }
+            Task task = tasks.get(name);
+            boolean due;
+            boolean retryConversion;
+            synchronized (DatabaseMaintenance.class) {
+                long now = System.currentTimeMillis();
+                due = task.isDue(now);
+                retryConversion = now - task.lastRunAt >= CONVERSION_RETRY_MILLIS;
+            }
+            try {
+                if (name.equals(VACUUM) && !due && retryConversion) {
+                    due = convertToIncremental && !isIncrementalAutoVacuum();
+                }
+                if (due) {
+                    run(task, true);
+                }
+            } catch (SQLException e) {
+                System.err.println("Error checking database maintenance task " + name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Run a task now regardless of its interval and of load; returns its run record, or null for an unknown task
+    public static JSONObject runNow(String name) {
+        Task task = tasks.get(name);
+        return task == null ? null : run(task, false);
+    }
+
+    private static JSONObject run(Task task, boolean onlyWhileIdle) {
+        JSONObject record = new JSONObject();
+        record.put("task", task.name);
+        record.put("startedAt", System.currentTimeMillis());
+        long start = System.nanoTime();
+        try {
+            record.put("before", fileStats());
+            switch (task.name) {
+                case CHECKPOINT:
+                    record.put("checkpoint", checkpoint());
+                    break;
+                case OPTIMIZE:
+                    execute("PRAGMA optimize");
+                    break;
+                case ANALYZE:
+                    execute("ANALYZE");
+                    break;
+                case RETENTION:
+                    record.put("pruned", retention(onlyWhileIdle));
+                    break;
+                case INCREMENTAL_VACUUM:
+                    record.put("steps", incrementalVacuum(onlyWhileIdle));
+                    break;
+                default:
+                    // An explicit run converts even when the idle-time conversion is off
+                    vacuum(convertToIncremental || !onlyWhileIdle);
+                    break;
+            }
+            record.put("after", fileStats());
+        } catch (SQLException e) {
+            record.put("error", e.getMessage());
+            System.err.println("Database maintenance task " + task.name + " failed: " + e.getMessage());
+        }
+        record.put("durationMillis", (System.nanoTime() - start) / 1_000_000);
+
+        synchronized (DatabaseMaintenance.class) {
+            task.lastRunAt = System.currentTimeMillis();
+            task.runs++;
+            if (record.containsKey("error")) {
+                task.failures++;
+            }
+            task.lastRun = record;
+        }
+        return record;
+    }
+
+    // {busy, log frames, checkpointed frames} as reported by SQLite
+    private static JSONObject checkpoint() throws SQLException {
+        return DatabaseManager.withWriteLock(conn -> {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("PRAGMA wal_checkpoint(TRUNCATE)")) {
+                JSONObject result = new JSONObject();
+                if (rs.next()) {
+                    result.put("busy", rs.getInt(1));
+                    result.put("logFrames", rs.getInt(2));
+                    result.put("checkpointedFrames", rs.getInt(3));
+                }
+                return result;
+            }
+        });
+    }
+
+    // Rows deleted from each table; stops early when the server gets busy and continues on the next run
+    private static JSONObject retention(boolean onlyWhileIdle) throws SQLException {
+        JSONObject pruned = new JSONObject();
+        pruned.put("changeLog", prune("change_log", "version", changeLogRows, true, onlyWhileIdle));
+        pruned.put("alertEvents", prune("alert_events", "id", alertEventRows, false, onlyWhileIdle));
+        return pruned;
+    }
+
+    // Delete the oldest rows of a table beyond the newest keepRows, by ascending key, one step per transaction.
+    // With baseline (change_log), the baseline row is not counted as a change and each step replaces it by one
+    // at the newest deleted version.
+    private static long prune(String table, String key, long keepRows, boolean baseline, boolean onlyWhileIdle)
+            throws SQLException {
+        String rows = baseline ? "(SELECT " + key + " FROM " + table + " WHERE table_name <> '*')" : table;
+        long deleted = 0;
+        while (!onlyWhileIdle || idle.getAsBoolean()) {
+            // Newest key of the step: the oldest RETENTION_STEP_ROWS rows not among the newest keepRows
+            Long upTo = DatabaseManager.withWriteLock(conn -> {
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT max(" + key + ") FROM (SELECT " + key + " FROM " + rows
+                                + " WHERE " + key + " <= (SELECT " + key + " FROM " + rows
+                                + " ORDER BY " + key + " DESC LIMIT 1 OFFSET ?) ORDER BY " + key + " LIMIT ?)")) {
+                    stmt.setLong(1, keepRows);
+                    stmt.setInt(2, RETENTION_STEP_ROWS);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        long value = rs.next() ? rs.getLong(1) : 0;
+                        return rs.wasNull() ? null : value;
+                    }
+                }
+            });
+            if (upTo == null) {
+                break;
+            }
+            deleted += DatabaseManager.inTransaction(conn -> {
+                int count = DatabaseManager.executeUpdate("DELETE FROM " + table + " WHERE " + key + " <= ?", upTo);
+                if (baseline) {
+                    // The old baseline is always the oldest row, so it was among the deleted ones
+                    DatabaseManager.executeUpdate("INSERT INTO change_log (version, table_name, row_id, op) "
+                            + "VALUES (?, '*', 0, 'baseline')", upTo);
+                    count--;
+                }
+                return count;
+            });
+        }
+        return deleted;
+    }
+
+    // Free pages in small steps so writers wait at most one step; stops early when the server gets busy
+    private static int incrementalVacuum(boolean onlyWhileIdle) throws SQLException {
+        if (!isIncrementalAutoVacuum()) {
+            return 0;
+        }
+        int steps = 0;
+        while (pragmaLong("freelist_count") > 0 && (!onlyWhileIdle || idle.getAsBoolean())) {
+            // The JDBC driver steps a PRAGMA statement once and SQLite frees one page per step, so a step runs
+            // the one-page form repeatedly, in one transaction
+            DatabaseManager.inTransaction(conn -> {
+                try (Statement stmt = conn.createStatement()) {
+                    for (int page = 0; page < vacuumStepPages; page++) {
+                        stmt.execute("PRAGMA incremental_vacuum(1)");
+                    }
+                }
+                return null;
+            });
+            steps++;
+        }
+        return steps;
+    }
+
+    // Full VACUUM; also switches the file to auto_vacuum=INCREMENTAL, which only takes effect through a VACUUM
+    private static void vacuum(boolean convert) throws SQLException {
+        DatabaseManager.withWriteLock(conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                if (convert) {
+                    stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
+                }
+                stmt.execute("VACUUM");
+            }
+            return null;
+        });
+    }
+
+    private static void execute(String sql) throws SQLException {
+        DatabaseManager.withWriteLock(conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(sql);
+            }
+            return null;
+        });
+    }
+
+    private static boolean isIncrementalAutoVacuum() throws SQLException {
+        return pragmaLong("auto_vacuum") == 2;
+    }
+
+    private static long pragmaLong(String pragma) throws SQLException {
+        return DatabaseManager.withWriteLock(conn -> pragmaLong(conn, pragma));
+    }
+
+    private static long pragmaLong(Connection conn, String pragma) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA " + pragma)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    // Page count, free pages and WAL size of the database file
+    private static JSONObject fileStats() throws SQLException {
+        return DatabaseManager.withWriteLock(conn -> {
+            JSONObject stats = new JSONObject();
+            long pageSize = pragmaLong(conn, "page_size");
+            stats.put("pageSize", pageSize);
+            stats.put("pageCount", pragmaLong(conn, "page_count"));
+            stats.put("freelistCount", pragmaLong(conn, "freelist_count"));
+            stats.put("walBytes", new File(DatabaseManager.getDatabaseFile().getPath() + "-wal").length());
+            stats.put("fileBytes", DatabaseManager.getDatabaseFile().length());
+            return stats;
+        });
+    }
+
+    public static JSONObject getStats() throws SQLException {
+        JSONObject stats = new JSONObject();
+        stats.put("enabled", enabled);
+        stats.put("running", scheduler != null);
+        stats.put("autoVacuum", pragmaLong("auto_vacuum"));
+        stats.put("current", fileStats());
+        JSONArray taskStats = new JSONArray();
+        synchronized (DatabaseMaintenance.class) {
+            for (Task task : tasks.values()) {
+                JSONObject json = new JSONObject();
+                json.put("task", task.name);
+                json.put("intervalMillis", task.intervalMillis);
+                json.put("runs", task.runs);
+                json.put("failures", task.failures);
+                json.put("lastRun", task.lastRun);
+                taskStats.add(json);
+            }
+        }
+        stats.put("tasks", taskStats);
+        return stats;
+    }
+}
@@ -3,9 +3,20 @@ package com.topbloc.codechallenge.db;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
+import com.topbloc.codechallenge.config.Settings;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.SQLiteErrorCode;
+
 import java.io.File;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -17,13 +28,27 @@ import java.util.stream.IntStream;
  * -Database schema and reset functionality
  * -Initial test data insertion
  * -Helper methods to convert querys to JSON
+ * -A single write path (executeUpdate / transactions) that publishes committed mutations to listeners
+ * -An optional in-memory read mirror serving all read queries (db.read_mirror=true)
+ * -Backend-only tables and indexes on top of the challenge schema (see SchemaExtensions)
  */
 
 public class DatabaseManager {
     private static final String jdbcPrefix = "jdbc:sqlite:";
-    private static final String dbName = "challenge.db";
+    private static final String dbName = Settings.get("db.path", "challenge.db");
     private static String connectionString;
     private static Connection conn;
+    private static final StorageProfile storageProfile = StorageProfile.fromSettings();
+    private static final List<DataReplacedListener> dataReplacedListeners = new CopyOnWriteArrayList<>();
+    private static final List<MutationListener> mutationListeners = new CopyOnWriteArrayList<>();
+
+    // Serializes writers on the shared connection; held for a whole transaction
+    private static final ReentrantLock writeLock = new ReentrantLock();
+    // Mutations of the open transaction, published on commit (guarded by writeLock)
+    private static final List<Mutation> pendingMutations = new ArrayList<>();
+    private static ReadMirror readMirror;
+    // Bumped on every published commit and data replacement, so readers can tell their results apart
+    private static final AtomicLong commitGeneration = new AtomicLong();
     
     public static Connection getConnection() {
         return conn;
@@ -36,13 +61,316 @@ public class DatabaseManager {
 
     public static void connect() {
         try {
-            Connection connection = DriverManager.getConnection(connectionString);
+            Connection connection = openConnection();
             System.out.println("Connection to SQLite has been established.");
+            System.out.println("Storage profile " + storageProfile.describe(connection));
             conn = connection;
+            SchemaExtensions.apply(connection, false);
+            if (readMirror == null && Settings.getBoolean("db.read_mirror", false)) {
+                ReadMirror mirror = new ReadMirror(new File(dbName).getAbsolutePath());
+                mirror.load();
+                readMirror = mirror;
+                addMutationListener(mirror);
+            }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
         }
     }
+
+    // Open a new connection to the database file with the configured storage profile applied
+    public static Connection openConnection() throws SQLException {
+        Connection connection = DriverManager.getConnection(connectionString);
+        storageProfile.apply(connection);
+        return connection;
+    }
+
+    public static File getDatabaseFile() {
+        return new File(dbName).getAbsoluteFile();
+    }
+
+    public static StorageProfile getStorageProfile() {
+        return storageProfile;
+    }
+
+    // Register a callback for when the database contents are replaced wholesale (e.g. /reset),
+    // so in-memory state derived from the tables can be dropped or rebuilt. With tables given, replicated
+    // writes only run it when they touch one of them; without, every replicated write does.
+    public static void onDataReplaced(Runnable listener, String... tables) {
+        onDataChanged(listener, listener, tables);
+    }
+
+    // Like onDataReplaced(), with a separate callback for replicated writes to the tables, for state that follows
+    // them incrementally (e.g. pushing the rows they added) rather than being rebuilt
+    public static void onDataChanged(Runnable replaced, Runnable replicated, String... tables) {
+        dataReplacedListeners.add(new DataReplacedListener(replaced, replicated, new HashSet<>(Arrays.asList(tables))));
+    }
+
+    private static class DataReplacedListener {
+        final Runnable listener;
+        final Runnable replicated;
+        final Set<String> tables;
+
+        DataReplacedListener(Runnable listener, Runnable replicated, Set<String> tables) {
+            this.listener = listener;
+            this.replicated = replicated;
+            this.tables = tables;
+        }
+
+        // A null table (statement not recognized) is treated as touching every table
+        boolean dependsOn(Set<String> changed) {
+            return tables.isEmpty() || changed.contains(null) || changed.stream().anyMatch(tables::contains);
+        }
+    }
+
+    public static void notifyDataReplaced() {
+        // The mirror has to be current before listeners rebuild their state from it
+        if (readMirror != null) {
+            try {
+                readMirror.load();
+            } catch (SQLException e) {
+                System.err.println("Error reloading read mirror: " + e.getMessage());
+            }
+        }
+        runDataReplacedListeners();
+    }
+
+    // Writes applied from a replication log bypass the service layer, so derived state of the changed tables
+    // is rebuilt the same way as after a reset. The read mirror already saw them through executeUpdate().
+    public static void notifyReplicatedWrites(Set<String> changedTables) {
+        commitGeneration.incrementAndGet();
+        for (DataReplacedListener entry : dataReplacedListeners) {
+            if (entry.dependsOn(changedTables)) {
+                entry.replicated.run();
+            }
+        }
+    }
+
+    private static void runDataReplacedListeners() {
+        commitGeneration.incrementAndGet();
+        for (DataReplacedListener entry : dataReplacedListeners) {
+            entry.listener.run();
+        }
+    }
+
+    public static long getCommitGeneration() {
+        return commitGeneration.get();
+    }
+
+    public static void addMutationListener(MutationListener listener) {
+        mutationListeners.add(listener);
+    }
+
+    // Run a write statement on the primary connection and record it for the mutation listeners.
+    // Outside a transaction the statement is published immediately, inside one it is published on commit().
+    public static int executeUpdate(String sql, Object... params) throws SQLException {
+        writeLock.lock();
+        try {
+            Mutation mutation = new Mutation(sql, params);
+            int affectedRows;
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                mutation.bind(stmt);
+                affectedRows = stmt.executeUpdate();
+            }
+            if (affectedRows > 0) {
+                pendingMutations.add(mutation);
+            }
+            if (conn.getAutoCommit()) {
+                publishPendingMutations();
+            }
+            return affectedRows;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Run an INSERT and return the rowid it generated, or -1 if no row was inserted
+    public static long executeInsert(String sql, Object... params) throws SQLException {
+        writeLock.lock();
+        try {
+            if (executeUpdate(sql, params) == 0) {
+                return -1;
+            }
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT last_insert_rowid()")) {
+                return rs.next() ? rs.getLong(1) : -1;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Start a transaction; the caller must finish it with exactly one commit() or rollback()
+    public static void beginTransaction() throws SQLException {
+        writeLock.lock();
+        try {
+            conn.setAutoCommit(false);
+        } catch (SQLException e) {
+            writeLock.unlock();
+            throw e;
+        }
+    }
+
+    // If the commit itself fails the transaction stays open, so the caller's rollback() still applies
+    public static void commit() throws SQLException {
+        conn.commit();
+        try {
+            publishPendingMutations();
+        } finally {
+            endTransaction();
+        }
+    }
+
+    public static void rollback() throws SQLException {
+        try {
+            conn.rollback();
+        } finally {
+            pendingMutations.clear();
+            endTransaction();
+        }
+    }
+
+    private static void endTransaction() {
+        try {
+            conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            System.err.println("Error restoring auto-commit: " + e.getMessage());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Called with writeLock held, so listeners see batches in commit order
+    private static void publishPendingMutations() {
+        if (pendingMutations.isEmpty()) {
+            return;
+        }
+        List<Mutation> committed = new ArrayList<>(pendingMutations);
+        pendingMutations.clear();
+        commitGeneration.incrementAndGet();
+        for (MutationListener listener : mutationListeners) {
+            try {
+                listener.onCommit(committed);
+            } catch (RuntimeException e) {
+                System.err.println("Error in mutation listener: " + e.getMessage());
+            }
+        }
+    }
+
+    // Run work in a transaction: committed if the callback returns, rolled back if it throws
+    public static <T> T inTransaction(SqlCallback<T> callback) throws SQLException {
+        beginTransaction();
+        T result;
+        try {
+            result = callback.run(conn);
+            commit();
+        } catch (SQLException | RuntimeException e) {
+            rollback();
+            throw e;
+        }
+        return result;
+    }
+
+    // Run work on the primary connection with writers excluded, e.g. to capture a point-in-time copy
+    public static <T> T withWriteLock(SqlCallback<T> callback) throws SQLException {
+        writeLock.lock();
+        try {
+            return callback.run(conn);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Copy the database into the given file with SQLite's online backup API
+    public static void backupTo(File target) throws SQLException {
+        withWriteLock(c -> {
+            check(c.unwrap(SQLiteConnection.class).getDatabase().backup("main", target.getAbsolutePath(), null),
+                    "backup to " + target);
+            return null;
+        });
+    }
+
+    // Replace the database contents with the given backup file, then notify the data-replaced listeners
+    public static void restoreFrom(File source) throws SQLException {
+        restoreFrom(source, c -> null);
+    }
+
+    // Same, running afterRestore on the primary connection (still under the write lock) before listeners are notified
+    public static void restoreFrom(File source, SqlCallback<?> afterRestore) throws SQLException {
+        withWriteLock(c -> {
+            // The driver's "restore from" statement ignores failures, e.g. SQLITE_BUSY while a statement is still
+            // open on the connection, so the backup API result is checked here
+            check(c.unwrap(SQLiteConnection.class).getDatabase().restore("main", source.getAbsolutePath(), null),
+                    "restore from " + source);
+            afterRestore.run(c);
+            notifyDataReplaced();
+            return null;
+        });
+    }
+
+    private static void check(int resultCode, String operation) throws SQLException {
+        if (resultCode != SQLiteErrorCode.SQLITE_OK.code) {
+            throw new SQLException(operation + " failed: " + SQLiteErrorCode.getErrorCode(resultCode), null, resultCode);
+        }
+    }
+
+    // Run read-only work on the read mirror when enabled, otherwise on the primary connection
+    public static <T> T withReadConnection(SqlCallback<T> callback) throws SQLException {
+        ReadMirror mirror = readMirror;
+        if (mirror != null) {
+            return mirror.read(callback);
+        }
+        return callback.run(conn);
+    }
+
+    // Run a read query and convert all rows to JSON
+    public static JSONArray queryForJson(String sql, Object... params) throws SQLException {
+        return withReadConnection(c -> {
+            try (PreparedStatement stmt = c.prepareStatement(sql)) {
+                bindParams(stmt, params);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return convertResultSetToJson(rs);
+                }
+            }
+        });
+    }
+
+    // Run a read query and convert its first row to JSON, or return null if there is none
+    public static JSONObject queryRowForJson(String sql, Object... params) throws SQLException {
+        JSONArray rows = queryForJson(sql, params);
+        return rows.isEmpty() ? null : (JSONObject) rows.get(0);
+    }
+
+    // Query the primary connection and return the first row, or null; for writers checking the rows they are
+    // about to change. The statement is closed before returning: a statement left open keeps a read
+    // transaction open on the shared connection, which blocks checkpoints and restores. Runs under the write
+    // lock so it never sees the connection /reset is closing and reopening.
+    public static JSONObject queryPrimaryRow(String sql, Object... params) throws SQLException {
+        return withWriteLock(c -> {
+            try (PreparedStatement stmt = c.prepareStatement(sql)) {
+                bindParams(stmt, params);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    JSONArray rows = convertResultSetToJson(rs);
+                    return rows.isEmpty() ? null : (JSONObject) rows.get(0);
+                }
+            }
+        });
+    }
+
+    public static void bindParams(PreparedStatement stmt, Object... params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            stmt.setObject(i + 1, params[i]);
+        }
+    }
+
+    public static JSONObject getReadMirrorStats() {
+        ReadMirror mirror = readMirror;
+        if (mirror == null) {
+            JSONObject stats = new JSONObject();
+            stats.put("enabled", false);
+            return stats;
+        }
+        return mirror.getStats();
+    }
     // Schema function to reset the database if needed - do not change
     public static void resetDatabase() {
         try {
@@ -156,8 +484,7 @@ public class DatabaseManager {
     public static JSONArray getItems() {
         String sql = "SELECT * FROM items";
         try {
-            ResultSet set = conn.createStatement().executeQuery(sql);
-            return convertResultSetToJson(set);
+            return queryForJson(sql);
         } catch (SQLException e) {
             System.out.println(e.getMessage());
             return null;
@@ -0,0 +1,51 @@
+package com.topbloc.codechallenge.db;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * A single committed write: the parameterized SQL statement and its bound values.
+ * Mutations are recorded by DatabaseManager.executeUpdate() and handed to MutationListeners
+ * in commit order, so they can be replayed against another copy of the database.
+ */
+public class Mutation {
+    private static final Pattern TARGET = Pattern.compile(
+            "^\\s*(?:INSERT(?:\\s+OR\\s+\\w+)?\\s+INTO|REPLACE\\s+INTO|UPDATE(?:\\s+OR\\s+\\w+)?|DELETE\\s+FROM)\\s+(\\w+)",
+            Pattern.CASE_INSENSITIVE);
+
+    private final String sql;
+    private final Object[] params;
+
+    public Mutation(String sql, Object[] params) {
+        this.sql = sql;
+        this.params = params == null ? new Object[0] : params.clone();
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public Object[] getParams() {
+        return params.clone();
+    }
+
+    // The table the statement writes to, or null when it is not a plain INSERT, UPDATE or DELETE
+    public String getTable() {
+        Matcher matcher = TARGET.matcher(sql);
+        return matcher.find() ? matcher.group(1).toLowerCase(Locale.ROOT) : null;
+    }
+
+    // Bind the recorded values to a statement prepared from getSql()
+    public void bind(PreparedStatement stmt) throws SQLException {
+        DatabaseManager.bindParams(stmt, params);
+    }
+
+    @Override
+    public String toString() {
+        return sql + " " + Arrays.toString(params);
+    }
+}
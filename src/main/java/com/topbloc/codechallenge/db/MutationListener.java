@@ -0,0 +1,12 @@
+package com.topbloc.codechallenge.db;
+
+import java.util.List;
+
+/*
+ * Receives the mutations of every committed transaction (or autocommit statement), in commit order.
+ * Called while DatabaseManager's write lock is held, so implementations must be quick and must not write
+ * through DatabaseManager themselves.
+ */
+public interface MutationListener {
+    void onCommit(List<Mutation> mutations);
+}
@@ -0,0 +1,129 @@
+package com.topbloc.codechallenge.db;
+
+import org.json.simple.JSONObject;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * In-memory copy of the database that serves read queries.
+ *
+ * The mirror is loaded from the database file with SQLite's online backup API ("restore from") and then
+ * kept current by replaying each committed batch of mutations inside one transaction. Readers hold the
+ * read lock for the duration of their query, so they see either all of a batch or none of it, and never
+ * contend with the writer for locks on challenge.db.
+ *
+ * If a replay fails the mirror has diverged from the file, so it is reloaded from the file.
+ */
+public class ReadMirror implements MutationListener {
+    private final String dbPath;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Connection mirror;
+    private long loadedAt;
+    private long lastLoadMillis;
+    private long loads;
+    private long appliedBatches;
+    private long appliedMutations;
+    private long replayFailures;
+
+    public ReadMirror(String dbPath) {
+        this.dbPath = dbPath;
+    }
+
+    // (Re)load the mirror from the database file
+    public void load() throws SQLException {
+        lock.writeLock().lock();
+        try {
+            long start = System.nanoTime();
+            Connection fresh = DriverManager.getConnection("jdbc:sqlite::memory:");
+            try (Statement stmt = fresh.createStatement()) {
+                stmt.executeUpdate("restore from " + dbPath);
+                stmt.execute("PRAGMA foreign_keys = ON");
+            }
+            closeQuietly(mirror);
+            mirror = fresh;
+            loads++;
+            loadedAt = System.currentTimeMillis();
+            lastLoadMillis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("Read mirror loaded from " + dbPath + " in " + lastLoadMillis + " ms");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public <T> T read(SqlCallback<T> callback) throws SQLException {
+        lock.readLock().lock();
+        try {
+            return callback.run(mirror);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void onCommit(List<Mutation> mutations) {
+        lock.writeLock().lock();
+        try {
+            mirror.setAutoCommit(false);
+            try {
+                for (Mutation mutation : mutations) {
+                    try (PreparedStatement stmt = mirror.prepareStatement(mutation.getSql())) {
+                        mutation.bind(stmt);
+                        stmt.executeUpdate();
+                    }
+                }
+                mirror.commit();
+                appliedBatches++;
+                appliedMutations += mutations.size();
+            } catch (SQLException e) {
+                mirror.rollback();
+                throw e;
+            } finally {
+                mirror.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            replayFailures++;
+            System.err.println("Read mirror replay failed, reloading from file: " + e.getMessage());
+            try {
+                load();
+            } catch (SQLException reloadError) {
+                System.err.println("Error reloading read mirror: " + reloadError.getMessage());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public JSONObject getStats() {
+        lock.readLock().lock();
+        try {
+            JSONObject stats = new JSONObject();
+            stats.put("enabled", true);
+            stats.put("loads", loads);
+            stats.put("loadedAt", loadedAt);
+            stats.put("lastLoadMillis", lastLoadMillis);
+            stats.put("appliedBatches", appliedBatches);
+            stats.put("appliedMutations", appliedMutations);
+            stats.put("replayFailures", replayFailures);
+            return stats;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing read mirror connection: " + e.getMessage());
+        }
+    }
+}
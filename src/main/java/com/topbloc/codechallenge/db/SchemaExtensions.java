@@ -0,0 +1,126 @@
+package com.topbloc.codechallenge.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/*
+ * Auxiliary tables and indexes that live next to the challenge schema.
+ *
+ * The challenge schema in DatabaseManager.applySchema() must not change, so everything the backend adds
+ * on top of it is created here with IF NOT EXISTS statements. apply() runs on every connect and after
+ * /reset, so existing database files are upgraded in place.
+ *
+ * Objects:
+ * - items_fts: FTS5 index over items.name (external content, rowid = items.id) with 1, 2 and 3 character
+ *   prefix indexes for typeahead. Kept in sync by InventoryService.addNewItem().
+ * - stock_history: append-only log of inventory stock writes, indexed by (item, ts)
+ * - stock_rollups: min/max/last stock per item and minute, hour or day bucket (step in ms), clustered by
+ *   (item, step, bucket) so a range read is one index seek. Both are written by StockHistoryService.
+ * - alert_events: durable queue of alert transitions written by AlertEngine, read by id
+ * - change_log: versioned row changes of the exportable tables (see ChangeLog), indexed by (table, version)
+ * - distributor_tombstones: soft-deleted distributors whose rows the DistributorCompactor has not purged yet
+ * - inventory_stock, distributor_prices_distributor_cost: indexes for stock ranges and for cost ranges or
+ *   cost order within one catalog (filter= / sort= on the list endpoints, see RowFilter)
+ * - active_distributors, active_distributor_prices: views without tombstoned distributors and their prices;
+ *   every read of the distributor tables goes through them
+ */
+public class SchemaExtensions {
+
+    private static final String[] statements = {
+            "CREATE VIRTUAL TABLE IF NOT EXISTS items_fts USING fts5("
+                    + "name, content='items', content_rowid='id', "
+                    + "tokenize='unicode61 remove_diacritics 2', prefix='1 2 3')",
+            "CREATE TABLE IF NOT EXISTS stock_history ("
+                    + "item integer NOT NULL, ts integer NOT NULL, stock integer NOT NULL, capacity integer NOT NULL)",
+            "CREATE INDEX IF NOT EXISTS stock_history_item_ts ON stock_history (item, ts)",
+            "CREATE TABLE IF NOT EXISTS stock_rollups ("
+                    + "item integer NOT NULL, step integer NOT NULL, bucket integer NOT NULL, "
+                    + "min_stock integer NOT NULL, max_stock integer NOT NULL, last_stock integer NOT NULL, "
+                    + "samples integer NOT NULL, PRIMARY KEY (item, step, bucket)) WITHOUT ROWID",
+            "CREATE TABLE IF NOT EXISTS alert_events ("
+                    + "id integer PRIMARY KEY, ts integer NOT NULL, item integer NOT NULL, alert text NOT NULL, "
+                    + "transition text NOT NULL, stock integer NOT NULL, capacity integer NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS change_log ("
+                    + "version integer PRIMARY KEY, table_name text NOT NULL, row_id integer NOT NULL, op text NOT NULL)",
+            "CREATE INDEX IF NOT EXISTS change_log_table_version ON change_log (table_name, version)",
+            "CREATE TABLE IF NOT EXISTS distributor_tombstones ("
+                    + "distributor integer PRIMARY KEY, deleted_at integer NOT NULL)"
+    };
+
+    // Indexes and views on the challenge tables, created once those tables exist (on /reset they are created after connect)
+    private static final String[] challengeObjects = {
+            "CREATE INDEX IF NOT EXISTS inventory_stock ON inventory (stock)",
+            "CREATE INDEX IF NOT EXISTS distributor_prices_distributor_cost ON distributor_prices (distributor, cost)",
+            "CREATE VIEW IF NOT EXISTS active_distributors AS SELECT * FROM distributors "
+                    + "WHERE id NOT IN (SELECT distributor FROM distributor_tombstones)",
+            "CREATE VIEW IF NOT EXISTS active_distributor_prices AS SELECT * FROM distributor_prices "
+                    + "WHERE distributor NOT IN (SELECT distributor FROM distributor_tombstones)"
+    };
+
+    // Create missing objects; the search index is rebuilt when it was just created or when forced
+    public static void apply(Connection conn, boolean forceRebuild) {
+        try {
+            boolean searchIndexExisted = tableExists(conn, "items_fts");
+            boolean changeLogExisted = tableExists(conn, "change_log");
+            try (Statement stmt = conn.createStatement()) {
+                for (String sql : statements) {
+                    stmt.execute(sql);
+                }
+            }
+            if (!changeLogExisted) {
+                insertChangeLogBaseline(conn);
+            }
+            if (tableExists(conn, "inventory") && tableExists(conn, "distributor_prices")) {
+                try (Statement stmt = conn.createStatement()) {
+                    for (String sql : challengeObjects) {
+                        stmt.execute(sql);
+                    }
+                }
+            }
+            if ((forceRebuild || !searchIndexExisted) && tableExists(conn, "items")) {
+                rebuildSearchIndex(conn);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error applying schema extensions: " + e.getMessage());
+        }
+    }
+
+    // Re-index every item name, e.g. after rows were bulk loaded without going through addNewItem()
+    public static void rebuildSearchIndex(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("INSERT INTO items_fts(items_fts) VALUES('rebuild')");
+        }
+    }
+
+    // Drop the change log and start it again at a baseline above lastVersion, e.g. after the rows were replaced
+    // by an older snapshot whose log does not describe how they got there
+    public static void restartChangeLog(Connection conn, long lastVersion) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DELETE FROM change_log");
+        }
+        insertChangeLogBaseline(conn, lastVersion + 1);
+    }
+
+    // Start versions above any version a previous database file could have handed out (1000 per millisecond)
+    private static void insertChangeLogBaseline(Connection conn) throws SQLException {
+        insertChangeLogBaseline(conn, 0);
+    }
+
+    private static void insertChangeLogBaseline(Connection conn, long minVersion) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO change_log (version, table_name, row_id, op) VALUES (?, '*', 0, 'baseline')")) {
+            stmt.setLong(1, Math.max(System.currentTimeMillis() * 1000, minVersion));
+            stmt.executeUpdate();
+        }
+    }
+
+    private static boolean tableExists(Connection conn, String name) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1 FROM sqlite_master WHERE name = '" + name + "'")) {
+            return rs.next();
+        }
+    }
+}
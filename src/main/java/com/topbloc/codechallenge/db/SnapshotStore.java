@@ -0,0 +1,187 @@
+package com.topbloc.codechallenge.db;
+
+import com.topbloc.codechallenge.config.Settings;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.regex.Pattern;
+
+/*
+ * Named snapshots of the whole database, kept as SQLite files in "db.snapshots.dir".
+ *
+ * - take(): copies the live database with SQLite's online backup API under the write lock, into a temporary
+ *   file that is then renamed, so a snapshot file is always complete
+ * - restore(): copies a snapshot back into the primary connection with the backup API ("restore from"). The
+ *   connection stays open, so in-flight readers finish (on the read mirror they wait for its reload)
+ *   instead of failing on a closed connection as they do during DatabaseManager.resetDatabase()
+ * - reset(): what GET /reset runs. The first reset of the process rebuilds and reseeds the file; the result
+ *   is kept as the reserved "_seed" snapshot and every later reset restores it (db.reset.from_snapshot)
+ *
+ * A restored database keeps the snapshot's rows but not its change log: the log restarts at a new baseline
+ * above every version handed out before, so delta exports older than the restore need a full export.
+ * Restores are reported like a reset (DatabaseManager.notifyDataReplaced()), which rebuilds in-memory state
+ * and starts a new replication epoch.
+ */
+public class SnapshotStore {
+    private static final String SEED = "_seed";
+    private static final String SUFFIX = ".db";
+    // Letters, digits, '-', '_' and '.', not starting with '_' or '.' (reserved for the seed and temporary files)
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9][A-Za-z0-9_.-]{0,63}");
+
+    private static final File directory = new File(Settings.get("db.snapshots.dir", "snapshots")).getAbsoluteFile();
+    private static final boolean resetFromSnapshot = Settings.getBoolean("db.reset.from_snapshot", true);
+    // Set once this process has reseeded the database and captured the seed snapshot
+    private static boolean seedCaptured;
+
+    public static boolean isValidName(String name) {
+        return name != null && NAME.matcher(name).matches();
+    }
+
+    // Snapshot the current database under the given name, replacing an existing snapshot of that name
+    public static JSONObject take(String name) throws SQLException, IOException {
+        long start = System.nanoTime();
+        File file = write(name);
+        JSONObject result = describe(name, file);
+        result.put("durationMillis", (System.nanoTime() - start) / 1_000_000);
+        return result;
+    }
+
+    // Replace the database contents with the named snapshot; returns null if there is no such snapshot
+    public static JSONObject restore(String name) throws SQLException {
+        File file = fileOf(name);
+        if (!file.isFile()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        replaceWith(file);
+        JSONObject result = describe(name, file);
+        result.put("durationMillis", (System.nanoTime() - start) / 1_000_000);
+        return result;
+    }
+
+    public static boolean delete(String name) throws IOException {
+        deleteSidecars(name);
+        return Files.deleteIfExists(fileOf(name).toPath());
+    }
+
+    // Named snapshots, newest first
+    public static JSONArray list() {
+        JSONArray snapshots = new JSONArray();
+        File[] files = directory.listFiles((dir, fileName) -> fileName.endsWith(SUFFIX)
+                && isValidName(fileName.substring(0, fileName.length() - SUFFIX.length())));
+        if (files == null) {
+            return snapshots;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+        for (File file : files) {
+            String fileName = file.getName();
+            snapshots.add(describe(fileName.substring(0, fileName.length() - SUFFIX.length()), file));
+        }
+        return snapshots;
+    }
+
+    // GET /reset: restore the seed snapshot, or rebuild and reseed the database the first time
+    public static synchronized void reset() throws SQLException, IOException {
+        if (resetFromSnapshot && seedCaptured && fileOf(SEED).isFile()) {
+            replaceWith(fileOf(SEED));
+            return;
+        }
+        // Under the write lock, like replaceWith(): no write can run on the closed or half-built connection,
+        // and none can slip in between the rebuild and the seed capture
+        try {
+            DatabaseManager.withWriteLock(conn -> {
+                try {
+                    rebuild();
+                    if (resetFromSnapshot) {
+                        write(SEED);
+                        seedCaptured = true;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return null;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Rebuild and reseed the database file with DatabaseManager.resetDatabase(), which is left as the challenge
+    // wrote it: the old file's WAL sidecars are deleted first so they cannot be replayed into the new file, and the
+    // schema extensions and the data-replaced listeners run afterwards
+    public static void rebuild() throws IOException {
+        String path = DatabaseManager.getDatabaseFile().getPath();
+        Files.deleteIfExists(new File(path + "-wal").toPath());
+        Files.deleteIfExists(new File(path + "-shm").toPath());
+        DatabaseManager.resetDatabase();
+        SchemaExtensions.apply(DatabaseManager.getConnection(), true);
+        DatabaseManager.notifyDataReplaced();
+    }
+
+    private static File write(String name) throws SQLException, IOException {
+        Files.createDirectories(directory.toPath());
+        File target = fileOf(name);
+        File temporary = new File(directory, "." + name + SUFFIX + ".tmp");
+        try {
+            DatabaseManager.backupTo(temporary);
+            // A WAL left next to a replaced snapshot (by a restore that opened it) must not be applied to the new file
+            deleteSidecars(name);
+            Files.move(temporary.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+        return target;
+    }
+
+    // Replace the database contents with a database file, e.g. a snapshot or a generated dataset
+    public static void replaceWith(File file) throws SQLException {
+        DatabaseManager.withWriteLock(conn -> {
+            long lastVersion = maxVersion(conn);
+            DatabaseManager.restoreFrom(file, c -> {
+                // The snapshot may predate objects added to SchemaExtensions since it was taken
+                SchemaExtensions.apply(c, false);
+                return DatabaseManager.inTransaction(t -> {
+                    SchemaExtensions.restartChangeLog(t, lastVersion);
+                    return null;
+                });
+            });
+            return null;
+        });
+    }
+
+    private static long maxVersion(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT max(version) FROM change_log");
+             ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static void deleteSidecars(String name) throws IOException {
+        Files.deleteIfExists(new File(directory, name + SUFFIX + "-wal").toPath());
+        Files.deleteIfExists(new File(directory, name + SUFFIX + "-shm").toPath());
+    }
+
+    private static File fileOf(String name) {
+        return new File(directory, name + SUFFIX);
+    }
+
+    private static JSONObject describe(String name, File file) {
+        JSONObject snapshot = new JSONObject();
+        snapshot.put("name", name);
+        snapshot.put("bytes", file.length());
+        snapshot.put("createdAt", file.lastModified());
+        return snapshot;
+    }
+}
@@ -0,0 +1,11 @@
+package com.topbloc.codechallenge.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/*
+ * Work to run against a connection handed out by DatabaseManager, e.g. withReadConnection()
+ */
+public interface SqlCallback<T> {
+    T run(Connection conn) throws SQLException;
+}
@@ -0,0 +1,116 @@
+package com.topbloc.codechallenge.db;
+
+import com.topbloc.codechallenge.config.Settings;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/*
+ * SQLite storage tuning applied to every connection opened by DatabaseManager.
+ *
+ * A profile is a set of PRAGMA values. Three presets are provided:
+ * - balanced (default): WAL journal, synchronous=NORMAL, 32 MiB page cache, 128 MiB mmap
+ * - read-heavy: WAL journal, synchronous=NORMAL, 64 MiB page cache, 256 MiB mmap so hot pages are
+ *   read straight from the mapping instead of through read() syscalls
+ * - write-heavy: WAL journal, synchronous=NORMAL, 16 MiB page cache, 64 MiB mmap and a longer busy timeout
+ *
+ * The preset is selected with the "sqlite.profile" setting (SQLITE_PROFILE) and any single PRAGMA can be
+ * overridden, e.g. -Dsqlite.mmap_size=0 or SQLITE_CACHE_SIZE=-8192.
+ * Run StorageProfileBenchmark to compare the presets against a generated database.
+ */
+public class StorageProfile {
+    public static final String BALANCED = "balanced";
+    public static final String READ_HEAVY = "read-heavy";
+    public static final String WRITE_HEAVY = "write-heavy";
+
+    private final String name;
+    private final String journalMode;
+    private final String synchronous;
+    private final int cacheSize;
+    private final long mmapSize;
+    private final String tempStore;
+    private final int busyTimeout;
+    private final boolean foreignKeys;
+
+    public StorageProfile(String name, String journalMode, String synchronous, int cacheSize, long mmapSize,
+                          String tempStore, int busyTimeout, boolean foreignKeys) {
+        this.name = name;
+        this.journalMode = journalMode;
+        this.synchronous = synchronous;
+        this.cacheSize = cacheSize;
+        this.mmapSize = mmapSize;
+        this.tempStore = tempStore;
+        this.busyTimeout = busyTimeout;
+        this.foreignKeys = foreignKeys;
+    }
+
+    // Look up a preset by name, falling back to balanced for unknown names
+    public static StorageProfile preset(String name) {
+        if (READ_HEAVY.equalsIgnoreCase(name)) {
+            return new StorageProfile(READ_HEAVY, "WAL", "NORMAL", -65536, 268435456L, "MEMORY", 5000, true);
+        }
+        if (WRITE_HEAVY.equalsIgnoreCase(name)) {
+            return new StorageProfile(WRITE_HEAVY, "WAL", "NORMAL", -16384, 67108864L, "MEMORY", 10000, true);
+        }
+        if (name != null && !BALANCED.equalsIgnoreCase(name)) {
+            System.err.println("Unknown storage profile '" + name + "', using " + BALANCED);
+        }
+        return new StorageProfile(BALANCED, "WAL", "NORMAL", -32768, 134217728L, "MEMORY", 5000, true);
+    }
+
+    // Build the configured profile: the selected preset with per-PRAGMA overrides applied
+    public static StorageProfile fromSettings() {
+        StorageProfile base = preset(Settings.get("sqlite.profile", BALANCED));
+        return new StorageProfile(
+                base.name,
+                Settings.get("sqlite.journal_mode", base.journalMode),
+                Settings.get("sqlite.synchronous", base.synchronous),
+                Settings.getInt("sqlite.cache_size", base.cacheSize),
+                Settings.getLong("sqlite.mmap_size", base.mmapSize),
+                Settings.get("sqlite.temp_store", base.tempStore),
+                Settings.getInt("sqlite.busy_timeout", base.busyTimeout),
+                Settings.getBoolean("sqlite.foreign_keys", base.foreignKeys));
+    }
+
+    // Apply every PRAGMA of this profile to the given connection
+    public void apply(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            // busy_timeout first so the journal mode switch can wait for other connections
+            stmt.execute("PRAGMA busy_timeout = " + busyTimeout);
+            stmt.execute("PRAGMA journal_mode = " + requireWord(journalMode));
+            stmt.execute("PRAGMA synchronous = " + requireWord(synchronous));
+            stmt.execute("PRAGMA cache_size = " + cacheSize);
+            stmt.execute("PRAGMA mmap_size = " + mmapSize);
+            stmt.execute("PRAGMA temp_store = " + requireWord(tempStore));
+            stmt.execute("PRAGMA foreign_keys = " + (foreignKeys ? "ON" : "OFF"));
+        }
+    }
+
+    // Read back the effective values, e.g. mmap_size is capped by the SQLite build
+    public String describe(Connection conn) throws SQLException {
+        StringBuilder sb = new StringBuilder(name).append(":");
+        String[] pragmas = {"journal_mode", "synchronous", "cache_size", "mmap_size", "temp_store", "busy_timeout", "foreign_keys"};
+        try (Statement stmt = conn.createStatement()) {
+            for (String pragma : pragmas) {
+                try (ResultSet rs = stmt.executeQuery("PRAGMA " + pragma)) {
+                    sb.append(" ").append(pragma).append("=").append(rs.next() ? rs.getString(1) : "?");
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // PRAGMA values cannot be bound as parameters, so only plain words are accepted
+    private static String requireWord(String value) {
+        if (!value.matches("[A-Za-z0-9_]+")) {
+            throw new IllegalArgumentException("Invalid PRAGMA value: " + value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,9 @@
+package com.topbloc.codechallenge.http;
+
+/*
+ * Code that runs before or after every matched route, e.g. CORS headers. A before filter ends the request
+ * by throwing HaltException.
+ */
+public interface Filter {
+    void handle(Request req, Response res) throws Exception;
+}
@@ -0,0 +1,25 @@
+package com.topbloc.codechallenge.http;
+
+/*
+ * Ends the request immediately with the given status and body, from a route handler or a before filter.
+ */
+public class HaltException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+    private final String body;
+
+    public HaltException(int status, String body) {
+        super(null, null, false, false);
+        this.status = status;
+        this.body = body;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getBody() {
+        return body;
+    }
+}
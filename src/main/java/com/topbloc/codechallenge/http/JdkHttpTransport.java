@@ -0,0 +1,377 @@
+package com.topbloc.codechallenge.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.topbloc.codechallenge.config.Settings;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Transport on the JDK's built-in HTTP server (com.sun.net.httpserver), without Jetty or the servlet API.
+ *
+ * All requests go through one handler that runs the before filters, matches the route table in registration
+ * order, and writes the handler's result with an exact Content-Length (or chunked when the handler streams
+ * through outputStream(), whose headers go out with the first write or flush).
+ *
+ * Settings:
+ * - http.jdk.threads: fixed size of the request executor (default 64)
+ * - http.jdk.backlog: TCP accept backlog, 0 for the system default
+ * - http.jdk.tcp_nodelay: disable Nagle's algorithm on connections (default true)
+ * - http.keep_alive: keep connections open between requests (default true); when off every response
+ *   carries "Connection: close"
+ * - http.keep_alive.idle_seconds / http.keep_alive.max_idle: how long and how many idle keep-alive
+ *   connections are kept (the server's sun.net.httpserver.idleInterval / maxIdleConnections)
+ */
+public class JdkHttpTransport implements Transport {
+    private static final String NOT_FOUND = "<html><body><h2>404 Not found</h2></body></html>";
+    private static final String INTERNAL_ERROR = "<html><body><h2>500 Internal Server Error</h2></body></html>";
+    private static final String DEFAULT_TYPE = "text/html; charset=utf-8";
+
+    private final HttpServer server;
+    private final boolean keepAlive;
+    private final List<RouteEntry> routes = new CopyOnWriteArrayList<>();
+    private final List<Filter> beforeFilters = new CopyOnWriteArrayList<>();
+    private final List<Filter> afterFilters = new CopyOnWriteArrayList<>();
+
+    public JdkHttpTransport(int port) {
+        keepAlive = Boolean.parseBoolean(Settings.get("http.keep_alive", "true"));
+        // Read once by the server implementation, so they must be set before the first server is created
+        System.setProperty("sun.net.httpserver.idleInterval", Settings.get("http.keep_alive.idle_seconds", "30"));
+        System.setProperty("sun.net.httpserver.maxIdleConnections", Settings.get("http.keep_alive.max_idle", "200"));
+        // Headers and body go out in separate writes; without TCP_NODELAY the body waits for the client's delayed ACK
+        System.setProperty("sun.net.httpserver.nodelay", Settings.get("http.jdk.tcp_nodelay", "true"));
+
+        try {
+            server = HttpServer.create(new InetSocketAddress(port), Settings.getInt("http.jdk.backlog", 0));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not bind port " + port, e);
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Settings.getInt("http.jdk.threads", 64), runnable -> {
+            Thread thread = new Thread(runnable, "http-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::dispatch);
+    }
+
+    @Override
+    public void get(String path, Route route) {
+        routes.add(new RouteEntry("GET", path, route));
+    }
+
+    @Override
+    public void post(String path, Route route) {
+        routes.add(new RouteEntry("POST", path, route));
+    }
+
+    @Override
+    public void put(String path, Route route) {
+        routes.add(new RouteEntry("PUT", path, route));
+    }
+
+    @Override
+    public void delete(String path, Route route) {
+        routes.add(new RouteEntry("DELETE", path, route));
+    }
+
+    @Override
+    public void options(String path, Route route) {
+        routes.add(new RouteEntry("OPTIONS", path, route));
+    }
+
+    @Override
+    public void before(Filter filter) {
+        beforeFilters.add(filter);
+    }
+
+    @Override
+    public void after(Filter filter) {
+        afterFilters.add(filter);
+    }
+
+    @Override
+    public void start() {
+        server.start();
+    }
+
+    @Override
+    public String name() {
+        return "jdk";
+    }
+
+    private void dispatch(HttpExchange exchange) {
+        JdkRequest req = new JdkRequest(exchange);
+        JdkResponse res = new JdkResponse(exchange);
+        try {
+            try {
+                for (Filter filter : beforeFilters) {
+                    filter.handle(req, res);
+                }
+                Object body = null;
+                RouteEntry route = match(req);
+                if (route != null) {
+                    body = route.route.handle(req, res);
+                }
+                if (body == null) {
+                    res.status(404);
+                    res.send(NOT_FOUND);
+                    return;
+                }
+                for (Filter filter : afterFilters) {
+                    filter.handle(req, res);
+                }
+                res.send(body);
+            } catch (HaltException e) {
+                res.status(e.getStatus());
+                res.send(e.getBody() != null ? e.getBody() : "");
+            }
+        } catch (Exception e) {
+            System.err.println("Error handling " + req.requestMethod() + " " + req.pathInfo() + ": " + e);
+            if (!res.isCommitted()) {
+                try {
+                    res.status(500);
+                    res.type(DEFAULT_TYPE);
+                    res.send(INTERNAL_ERROR);
+                } catch (IOException ignored) {
+                    // Client is gone
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // First route in registration order whose method and path match; binds its path parameters
+    private RouteEntry match(JdkRequest req) {
+        String[] segments = split(req.pathInfo());
+        for (RouteEntry route : routes) {
+            if (route.method.equals(req.requestMethod()) && route.matches(segments, req.pathParams)) {
+                return route;
+            }
+            req.pathParams.clear();
+        }
+        return null;
+    }
+
+    private static String[] split(String path) {
+        String trimmed = path.startsWith("/") ? path.substring(1) : path;
+        return trimmed.isEmpty() ? new String[0] : trimmed.split("/", -1);
+    }
+
+    private static class RouteEntry {
+        final String method;
+        final String[] segments;
+        final Route route;
+
+        RouteEntry(String method, String path, Route route) {
+            this.method = method;
+            this.segments = split(path);
+            this.route = route;
+        }
+
+        boolean matches(String[] path, Map<String, String> params) {
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i].equals("*")) {
+                    return true;
+                }
+                if (i >= path.length) {
+                    return false;
+                }
+                if (segments[i].startsWith(":")) {
+                    params.put(segments[i], path[i]);
+                } else if (!segments[i].equals(path[i])) {
+                    return false;
+                }
+            }
+            return segments.length == path.length;
+        }
+    }
+
+    private static class JdkRequest implements Request {
+        private final HttpExchange exchange;
+        private final Map<String, String> pathParams = new HashMap<>();
+        private Map<String, List<String>> queryParams;
+        private String body;
+
+        JdkRequest(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public String requestMethod() {
+            return exchange.getRequestMethod();
+        }
+
+        @Override
+        public String pathInfo() {
+            return exchange.getRequestURI().getPath();
+        }
+
+        @Override
+        public String params(String name) {
+            return pathParams.get(name.startsWith(":") ? name : ":" + name);
+        }
+
+        @Override
+        public String queryParams(String name) {
+            List<String> values = parseQuery().get(name);
+            return values != null ? values.get(0) : null;
+        }
+
+        @Override
+        public String[] queryParamsValues(String name) {
+            List<String> values = parseQuery().get(name);
+            return values != null ? values.toArray(new String[0]) : null;
+        }
+
+        @Override
+        public String headers(String name) {
+            return exchange.getRequestHeaders().getFirst(name);
+        }
+
+        @Override
+        public String body() {
+            if (body == null) {
+                try {
+                    body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return body;
+        }
+
+        @Override
+        public InputStream bodyStream() {
+            return exchange.getRequestBody();
+        }
+
+        private Map<String, List<String>> parseQuery() {
+            if (queryParams == null) {
+                queryParams = new HashMap<>();
+                String query = exchange.getRequestURI().getRawQuery();
+                if (query != null) {
+                    for (String pair : query.split("&")) {
+                        if (pair.isEmpty()) {
+                            continue;
+                        }
+                        int eq = pair.indexOf('=');
+                        String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+                        String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+                        queryParams.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+                    }
+                }
+            }
+            return queryParams;
+        }
+    }
+
+    private class JdkResponse implements Response {
+        private final HttpExchange exchange;
+        private int status = 200;
+        private String type = DEFAULT_TYPE;
+        private boolean committed;
+        private OutputStream stream;
+
+        JdkResponse(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public void status(int status) {
+            this.status = status;
+        }
+
+        @Override
+        public int status() {
+            return status;
+        }
+
+        @Override
+        public void type(String contentType) {
+            this.type = contentType;
+        }
+
+        @Override
+        public void header(String name, String value) {
+            exchange.getResponseHeaders().set(name, value);
+        }
+
+        // The headers are sent on the first write or flush, so a handler can still set the type after taking the stream
+        @Override
+        public OutputStream outputStream() throws IOException {
+            if (stream == null) {
+                stream = new FilterOutputStream(exchange.getResponseBody()) {
+                    @Override
+                    public void write(int b) throws IOException {
+                        commitStream();
+                        out.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        commitStream();
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        commitStream();
+                        out.flush();
+                    }
+                };
+            }
+            return stream;
+        }
+
+        private void commitStream() throws IOException {
+            if (!committed) {
+                sendHeaders(0);
+            }
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return committed;
+        }
+
+        // Write a complete body with its exact length; a no-op when the handler already streamed its body
+        void send(Object body) throws IOException {
+            if (committed) {
+                return;
+            }
+            byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+            sendHeaders(bytes.length == 0 ? -1 : bytes.length);
+            if (bytes.length > 0) {
+                exchange.getResponseBody().write(bytes);
+            }
+        }
+
+        // length: exact body length, 0 for a chunked (streamed) body, -1 for no body
+        private void sendHeaders(long length) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", type);
+            if (!keepAlive) {
+                exchange.getResponseHeaders().set("Connection", "close");
+            }
+            committed = true;
+            exchange.sendResponseHeaders(status, length);
+        }
+    }
+}
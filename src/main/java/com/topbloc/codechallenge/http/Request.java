@@ -0,0 +1,32 @@
+package com.topbloc.codechallenge.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ * Incoming request as seen by route handlers, independent of the HTTP server behind it.
+ * Method names follow Spark's Request so handlers read the same on every transport.
+ */
+public interface Request {
+    // HTTP method, e.g. "GET"
+    String requestMethod();
+
+    // Request path without the query string, e.g. "/inventory/3"
+    String pathInfo();
+
+    // Value of a path parameter of the matched route, e.g. params(":id")
+    String params(String name);
+
+    // First value of a query parameter, or null
+    String queryParams(String name);
+
+    // All values of a repeated query parameter, or null
+    String[] queryParamsValues(String name);
+
+    // Value of a request header, or null
+    String headers(String name);
+
+    String body();
+    // Request body as a stream, for uploads that are copied elsewhere without buffering; do not combine with body()
+    InputStream bodyStream() throws IOException;
+}
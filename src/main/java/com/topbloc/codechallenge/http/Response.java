@@ -0,0 +1,25 @@
+package com.topbloc.codechallenge.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ * Outgoing response as seen by route handlers, independent of the HTTP server behind it.
+ * Status, type and headers must be set before the first write to outputStream().
+ */
+public interface Response {
+    void status(int status);
+
+    int status();
+
+    // Content-Type of the response
+    void type(String contentType);
+
+    void header(String name, String value);
+
+    // Stream for bodies that are written while they are produced (exports, event streams)
+    OutputStream outputStream() throws IOException;
+
+    // Whether the status and headers have already been sent
+    boolean isCommitted();
+}
@@ -0,0 +1,9 @@
+package com.topbloc.codechallenge.http;
+
+/*
+ * Handler of one HTTP route. The returned object is written as the response body (its toString(), e.g. the
+ * JSON of a JSONArray); handlers that stream through Response.outputStream() return "".
+ */
+public interface Route {
+    Object handle(Request req, Response res) throws Exception;
+}
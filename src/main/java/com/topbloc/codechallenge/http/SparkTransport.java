@@ -0,0 +1,175 @@
+package com.topbloc.codechallenge.http;
+
+import spark.Spark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/*
+ * Transport on Spark 2.5 (embedded Jetty with its default thread pool and connector settings).
+ *
+ * Handlers and filters are adapted to Spark's static API; a HaltException is turned into Spark's halt(),
+ * so halting behaves exactly as before the transport abstraction. Spark is a process-wide singleton, so
+ * only one SparkTransport can exist per JVM.
+ */
+public class SparkTransport implements Transport {
+
+    public SparkTransport(int port) {
+        // Must be set before any route is mapped
+        Spark.port(port);
+    }
+
+    @Override
+    public void get(String path, Route route) {
+        Spark.get(path, adapt(route));
+    }
+
+    @Override
+    public void post(String path, Route route) {
+        Spark.post(path, adapt(route));
+    }
+
+    @Override
+    public void put(String path, Route route) {
+        Spark.put(path, adapt(route));
+    }
+
+    @Override
+    public void delete(String path, Route route) {
+        Spark.delete(path, adapt(route));
+    }
+
+    @Override
+    public void options(String path, Route route) {
+        Spark.options(path, adapt(route));
+    }
+
+    @Override
+    public void before(Filter filter) {
+        Spark.before(adaptFilter(filter));
+    }
+
+    @Override
+    public void after(Filter filter) {
+        Spark.after(adaptFilter(filter));
+    }
+
+    @Override
+    public void start() {
+        Spark.awaitInitialization();
+    }
+
+    @Override
+    public String name() {
+        return "spark";
+    }
+
+    private static spark.Route adapt(Route route) {
+        return (req, res) -> {
+            try {
+                return route.handle(new SparkRequest(req), new SparkResponse(res));
+            } catch (HaltException e) {
+                Spark.halt(e.getStatus(), e.getBody());
+                return null;
+            }
+        };
+    }
+
+    private static spark.Filter adaptFilter(Filter filter) {
+        return (req, res) -> {
+            try {
+                filter.handle(new SparkRequest(req), new SparkResponse(res));
+            } catch (HaltException e) {
+                Spark.halt(e.getStatus(), e.getBody());
+            }
+        };
+    }
+
+    private static class SparkRequest implements Request {
+        private final spark.Request req;
+
+        SparkRequest(spark.Request req) {
+            this.req = req;
+        }
+
+        @Override
+        public String requestMethod() {
+            return req.requestMethod();
+        }
+
+        @Override
+        public String pathInfo() {
+            return req.pathInfo();
+        }
+
+        @Override
+        public String params(String name) {
+            return req.params(name);
+        }
+
+        @Override
+        public String queryParams(String name) {
+            return req.queryParams(name);
+        }
+
+        @Override
+        public String[] queryParamsValues(String name) {
+            return req.queryParamsValues(name);
+        }
+
+        @Override
+        public String headers(String name) {
+            return req.headers(name);
+        }
+
+        @Override
+        public String body() {
+            return req.body();
+        }
+
+        @Override
+        public InputStream bodyStream() throws IOException {
+            return req.raw().getInputStream();
+        }
+    }
+
+    private static class SparkResponse implements Response {
+        private final spark.Response res;
+
+        SparkResponse(spark.Response res) {
+            this.res = res;
+        }
+
+        @Override
+        public void status(int status) {
+            res.status(status);
+        }
+
+        @Override
+        public int status() {
+            // Spark 2.5's res.status() getter is not usable in after filters, read the servlet status directly
+            return res.raw().getStatus();
+        }
+
+        @Override
+        public void type(String contentType) {
+            res.type(contentType);
+        }
+
+        @Override
+        public void header(String name, String value) {
+            res.header(name, value);
+        }
+
+        @Override
+        public OutputStream outputStream() throws IOException {
+            return res.raw().getOutputStream();
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return res.raw().isCommitted();
+        }
+    }
+}
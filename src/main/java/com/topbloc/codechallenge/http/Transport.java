@@ -0,0 +1,39 @@
+package com.topbloc.codechallenge.http;
+
+/*
+ * HTTP server that the route classes register their handlers with.
+ *
+ * Implementations:
+ * - SparkTransport ("spark", default): Spark 2.5 on its embedded Jetty
+ * - JdkHttpTransport ("jdk"): the JDK's built-in com.sun.net.httpserver server with a configurable
+ *   executor and keep-alive
+ *
+ * The port is given to the constructor, since Spark needs it before the first route is registered.
+ *
+ * Paths use Spark's syntax: "/inventory/:id" binds the segment to params(":id") and "/*" matches any path.
+ * Routes are matched in registration order, so fixed paths must be registered before parameterized ones
+ * (e.g. /inventory/summary before /inventory/:id).
+ */
+public interface Transport {
+
+    void get(String path, Route route);
+
+    void post(String path, Route route);
+
+    void put(String path, Route route);
+
+    void delete(String path, Route route);
+
+    void options(String path, Route route);
+
+    // Runs before every request
+    void before(Filter filter);
+
+    // Runs after every successfully handled route
+    void after(Filter filter);
+
+    // Start serving requests once all routes are registered, and wait until the server accepts connections
+    void start();
+
+    String name();
+}
@@ -0,0 +1,160 @@
+package com.topbloc.codechallenge.jobs;
+
+import org.json.simple.JSONObject;
+
+import java.io.File;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * One asynchronous job: its state, progress and result file.
+ *
+ * The work reports progress with setTotal() and advance(). advance() also throws CancelledException once
+ * the job was cancelled, so cancellation takes effect at the next row. Throughput is rows per second since
+ * the job started, and the ETA assumes the remaining rows go at the same rate.
+ */
+public class Job {
+    public enum State { QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED }
+
+    // Thrown from advance() and checkCancelled() to stop the work of a cancelled job
+    public static class CancelledException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        CancelledException() {
+            super("Job cancelled");
+        }
+    }
+
+    private final String id;
+    private final String type;
+    private final String description;
+    private final long submittedAt = System.currentTimeMillis();
+    private final AtomicLong processed = new AtomicLong();
+    // Details the work reports with its result, e.g. the export version
+    private final JSONObject details = new JSONObject();
+    private volatile long total = -1;
+    private volatile State state = State.QUEUED;
+    private volatile boolean cancelRequested;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile String error;
+    private volatile File input;
+    private volatile File result;
+    private volatile String resultName;
+    private volatile String resultType;
+    Future<?> future;
+
+    Job(String id, String type, String description) {
+        this.id = id;
+        this.type = type;
+        this.description = description;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isFinished() {
+        return state == State.SUCCEEDED || state == State.FAILED || state == State.CANCELLED;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    // Expected number of rows, or -1 while unknown; may be refined while the job runs
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    public void advance(long rows) {
+        processed.addAndGet(rows);
+        checkCancelled();
+    }
+
+    public void checkCancelled() {
+        if (cancelRequested) {
+            throw new CancelledException();
+        }
+    }
+
+    public synchronized void putDetail(String key, Object value) {
+        details.put(key, value);
+    }
+
+    // The file the work writes its result to; it is served by GET /jobs/:id/result once the job succeeded
+    public void setResult(File file, String downloadName, String contentType) {
+        this.result = file;
+        this.resultName = downloadName;
+        this.resultType = contentType;
+    }
+
+    // An uploaded file the work reads; deleted when the job finishes or is cancelled before it starts
+    public void setInput(File file) {
+        this.input = file;
+    }
+
+    File getInput() {
+        return input;
+    }
+
+    public File getResult() {
+        return result;
+    }
+
+    public String getResultName() {
+        return resultName;
+    }
+
+    public String getResultType() {
+        return resultType;
+    }
+
+    void requestCancel() {
+        cancelRequested = true;
+    }
+
+    void started() {
+        startedAt = System.currentTimeMillis();
+        state = State.RUNNING;
+    }
+
+    void finished(State finalState, String failure) {
+        error = failure;
+        finishedAt = System.currentTimeMillis();
+        state = finalState;
+    }
+
+    public synchronized JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("id", id);
+        json.put("type", type);
+        json.put("description", description);
+        json.put("state", state.name().toLowerCase());
+        json.put("submittedAt", submittedAt);
+        json.put("startedAt", startedAt == 0 ? null : startedAt);
+        json.put("finishedAt", finishedAt == 0 ? null : finishedAt);
+        long rows = processed.get();
+        json.put("processed", rows);
+        json.put("total", total < 0 ? null : total);
+        json.put("percent", total > 0 ? Math.min(100.0, Math.round(rows * 1000.0 / total) / 10.0) : null);
+
+        long elapsed = startedAt == 0 ? 0 : (finishedAt == 0 ? System.currentTimeMillis() : finishedAt) - startedAt;
+        double rowsPerSecond = elapsed > 0 ? rows * 1000.0 / elapsed : 0;
+        json.put("elapsedMillis", elapsed);
+        json.put("rowsPerSecond", Math.round(rowsPerSecond));
+        json.put("etaMillis", state == State.RUNNING && total > rows && rowsPerSecond > 0
+                ? Math.round((total - rows) * 1000 / rowsPerSecond) : null);
+        json.put("error", error);
+        if (state == State.SUCCEEDED && result != null) {
+            json.put("resultBytes", result.length());
+            json.put("download", "/jobs/" + id + "/result");
+        }
+        json.putAll(details);
+        return json;
+    }
+}
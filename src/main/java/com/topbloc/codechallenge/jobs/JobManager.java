@@ -0,0 +1,191 @@
+package com.topbloc.codechallenge.jobs;
+
+import com.topbloc.codechallenge.config.Settings;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Runs long exports and imports as asynchronous jobs, off the HTTP threads.
+ *
+ * - Jobs run on their own bounded pool ("jobs.threads" threads, "jobs.queue" waiting jobs); a submit beyond
+ *   that is rejected instead of queueing without limit, and the pool threads run at minimum priority
+ * - Each job writes its result into "jobs.dir"; the file stays on disk until the job is deleted or
+ *   "jobs.retain_ms" after it finished, when expired jobs are dropped on the next submit or listing
+ * - Cancelling a queued job removes it from the queue; a running job stops at its next progress report
+ *   (see Job.advance()) and its partial result is deleted
+ */
+public class JobManager {
+    // The work of a job: writes its result and reports progress on the job
+    public interface Work {
+        void run(Job job) throws Exception;
+    }
+
+    private static final File directory = new File(Settings.get("jobs.dir", "jobs")).getAbsoluteFile();
+    private static final long retainMillis = Settings.getLong("jobs.retain_ms", 3_600_000);
+    private static final int threads = Settings.getInt("jobs.threads", 2);
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Settings.getInt("jobs.queue", 16)), runnable -> {
+                Thread thread = new Thread(runnable, "job-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+
+    // Submission order (guarded by the JobManager class lock)
+    private static final Map<String, Job> jobs = new LinkedHashMap<>();
+    private static long submitted;
+    private static long succeeded;
+    private static long failed;
+    private static long cancelled;
+    private static long rejected;
+
+    // Queue the work; returns null when the queue is full
+    public static synchronized Job submit(String type, String description, Work work) {
+        purgeExpired();
+        Job job = new Job(UUID.randomUUID().toString(), type, description);
+        try {
+            job.future = executor.submit(() -> run(job, work));
+        } catch (RejectedExecutionException e) {
+            rejected++;
+            return null;
+        }
+        jobs.put(job.getId(), job);
+        submitted++;
+        return job;
+    }
+
+    // A new file in the jobs directory for a job's input or result
+    public static File newFile(String prefix, String suffix) throws IOException {
+        Files.createDirectories(directory.toPath());
+        return File.createTempFile(prefix, suffix, directory);
+    }
+
+    private static void run(Job job, Work work) {
+        job.started();
+        Job.State state;
+        String error = null;
+        try {
+            work.run(job);
+            job.checkCancelled();
+            state = Job.State.SUCCEEDED;
+        } catch (Job.CancelledException e) {
+            state = Job.State.CANCELLED;
+        } catch (Exception e) {
+            state = Job.State.FAILED;
+            error = e.getMessage() != null ? e.getMessage() : e.toString();
+            System.err.println("Job " + job.getId() + " failed: " + error);
+        }
+        delete(job, job.getInput());
+        if (state != Job.State.SUCCEEDED) {
+            delete(job, job.getResult());
+        }
+        synchronized (JobManager.class) {
+            job.finished(state, error);
+            if (state == Job.State.SUCCEEDED) {
+                succeeded++;
+            } else if (state == Job.State.FAILED) {
+                failed++;
+            } else {
+                cancelled++;
+            }
+        }
+    }
+
+    public static synchronized Job get(String id) {
+        return jobs.get(id);
+    }
+
+    public static synchronized JSONArray list() {
+        purgeExpired();
+        JSONArray list = new JSONArray();
+        for (Job job : jobs.values()) {
+            list.add(job.toJson());
+        }
+        return list;
+    }
+
+    // Cancel a queued or running job, or delete a finished one with its result; returns false for an unknown job
+    public static boolean cancelOrDelete(String id) {
+        Job job;
+        synchronized (JobManager.class) {
+            job = jobs.get(id);
+            if (job == null) {
+                return false;
+            }
+            if (job.isFinished()) {
+                jobs.remove(id);
+                delete(job, job.getResult());
+                return true;
+            }
+            job.requestCancel();
+            // Still queued: it never starts, so it is finished here
+            if (executor.remove((Runnable) job.future)) {
+                job.finished(Job.State.CANCELLED, null);
+                delete(job, job.getInput());
+                cancelled++;
+            }
+        }
+        return true;
+    }
+
+    // Drop jobs that finished more than retainMillis ago, with their result files
+    private static void purgeExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Job> iterator = jobs.values().iterator();
+        while (iterator.hasNext()) {
+            Job job = iterator.next();
+            if (job.isFinished() && now - job.getFinishedAt() > retainMillis) {
+                iterator.remove();
+                delete(job, job.getResult());
+            }
+        }
+    }
+
+    private static void delete(Job job, File file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            System.err.println("Error deleting file of job " + job.getId() + ": " + e.getMessage());
+        }
+    }
+
+    public static synchronized JSONObject getStats() {
+        int running = 0;
+        int queued = 0;
+        for (Job job : jobs.values()) {
+            if (job.getState() == Job.State.RUNNING) {
+                running++;
+            } else if (job.getState() == Job.State.QUEUED) {
+                queued++;
+            }
+        }
+        JSONObject stats = new JSONObject();
+        stats.put("threads", threads);
+        stats.put("running", running);
+        stats.put("queued", queued);
+        stats.put("retained", jobs.size());
+        stats.put("submitted", submitted);
+        stats.put("succeeded", succeeded);
+        stats.put("failed", failed);
+        stats.put("cancelled", cancelled);
+        stats.put("rejected", rejected);
+        return stats;
+    }
+}
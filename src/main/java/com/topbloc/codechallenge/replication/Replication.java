@@ -0,0 +1,98 @@
+package com.topbloc.codechallenge.replication;
+
+import com.topbloc.codechallenge.config.Settings;
+import com.topbloc.codechallenge.db.DatabaseManager;
+import org.json.simple.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+
+/*
+ * Entry point for leader/follower replication of the inventory database.
+ *
+ * The role is chosen with the "replication.role" setting:
+ * - standalone (default): no replication
+ * - leader: accepts writes and keeps a ReplicationLog of committed mutation batches for followers
+ * - follower: rejects writes, bootstraps from the leader's snapshot and applies its log
+ *   (requires "replication.leader_url")
+ */
+public class Replication {
+    public static final String STANDALONE = "standalone";
+    public static final String LEADER = "leader";
+    public static final String FOLLOWER = "follower";
+
+    private static String role = STANDALONE;
+    private static ReplicationLog log;
+    private static ReplicationFollower follower;
+
+    public static void initialize() {
+        role = Settings.get("replication.role", STANDALONE).toLowerCase();
+        if (LEADER.equals(role)) {
+            log = new ReplicationLog(Settings.getInt("replication.log.retain_batches", 10000));
+            DatabaseManager.addMutationListener(log);
+            DatabaseManager.onDataReplaced(log::newEpoch);
+            System.out.println("Replication: leader");
+        } else if (FOLLOWER.equals(role)) {
+            String leaderUrl = Settings.get("replication.leader_url", null);
+            if (leaderUrl == null) {
+                throw new IllegalStateException("replication.leader_url is required for the follower role");
+            }
+            follower = new ReplicationFollower(leaderUrl, Settings.getLong("replication.poll_ms", 200));
+            follower.start();
+            System.out.println("Replication: follower of " + leaderUrl);
+        } else {
+            role = STANDALONE;
+        }
+    }
+
+    public static boolean isLeader() {
+        return log != null;
+    }
+
+    public static boolean isFollower() {
+        return follower != null;
+    }
+
+    public static String getLeaderUrl() {
+        return Settings.get("replication.leader_url", null);
+    }
+
+    public static ReplicationLog getLog() {
+        return log;
+    }
+
+    // Copy the database together with the log position it corresponds to
+    public static Snapshot takeSnapshot() throws SQLException, IOException {
+        File file = File.createTempFile("replication-snapshot-", ".db");
+        return DatabaseManager.withWriteLock(c -> {
+            // No commits can happen while the write lock is held, so the file matches epoch/head exactly
+            DatabaseManager.backupTo(file);
+            return new Snapshot(file, log.getEpoch(), log.getHeadSeq());
+        });
+    }
+
+    public static JSONObject getStatus() {
+        JSONObject status = new JSONObject();
+        status.put("role", role);
+        if (log != null) {
+            status.put("leader", log.getStats());
+        }
+        if (follower != null) {
+            status.put("follower", follower.getStats());
+        }
+        return status;
+    }
+
+    public static class Snapshot {
+        public final File file;
+        public final String epoch;
+        public final long seq;
+
+        Snapshot(File file, String epoch, long seq) {
+            this.file = file;
+            this.epoch = epoch;
+            this.seq = seq;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.topbloc.codechallenge.replication;
+
+import com.topbloc.codechallenge.db.DatabaseManager;
+import com.topbloc.codechallenge.db.Mutation;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.io.File;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+ * Background thread that keeps the local database in step with the leader.
+ *
+ * On startup (and whenever the leader reports that the follower's position is no longer in its log) the
+ * follower downloads a snapshot of the leader's database and restores it locally. From then on it polls
+ * the leader's log and applies each batch in its own transaction through DatabaseManager, so local
+ * mutation listeners such as the read mirror see the same commits as on the leader.
+ */
+public class ReplicationFollower implements Runnable {
+    private static final int BATCH_LIMIT = 500;
+
+    private final String leaderUrl;
+    private final long pollMillis;
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+
+    private volatile String epoch;
+    private volatile long appliedSeq;
+    private volatile long leaderHeadSeq;
+    private volatile long lastPollAt;
+    private volatile long lastAppliedAt;
+    private volatile long lastBatchDelayMillis;
+    private volatile long appliedBatches;
+    private volatile long bootstraps;
+    private volatile String lastError;
+
+    public ReplicationFollower(String leaderUrl, long pollMillis) {
+        this.leaderUrl = leaderUrl.endsWith("/") ? leaderUrl.substring(0, leaderUrl.length() - 1) : leaderUrl;
+        this.pollMillis = pollMillis;
+    }
+
+    public void start() {
+        Thread thread = new Thread(this, "replication-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                if (epoch == null) {
+                    bootstrap();
+                }
+                boolean caughtUp = poll();
+                lastError = null;
+                if (caughtUp) {
+                    Thread.sleep(pollMillis);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                lastError = e.getMessage();
+                System.err.println("Replication error: " + e.getMessage());
+                try {
+                    Thread.sleep(Math.max(pollMillis, 1000));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    // Replace the local database with a snapshot of the leader's
+    private void bootstrap() throws Exception {
+        File snapshot = File.createTempFile("replica-", ".db");
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(leaderUrl + "/replication/snapshot")).GET().build();
+            HttpResponse<java.nio.file.Path> response = client.send(request, HttpResponse.BodyHandlers.ofFile(snapshot.toPath()));
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Snapshot request failed with status " + response.statusCode());
+            }
+            String snapshotEpoch = response.headers().firstValue("X-Replication-Epoch").orElseThrow();
+            long snapshotSeq = Long.parseLong(response.headers().firstValue("X-Replication-Seq").orElseThrow());
+
+            DatabaseManager.restoreFrom(snapshot);
+            epoch = snapshotEpoch;
+            appliedSeq = snapshotSeq;
+            leaderHeadSeq = snapshotSeq;
+            bootstraps++;
+            System.out.println("Replica bootstrapped from " + leaderUrl + " at epoch " + epoch + ", seq " + appliedSeq);
+        } finally {
+            Files.deleteIfExists(snapshot.toPath());
+        }
+    }
+
+    // Fetch and apply the next batches; returns true when the follower has caught up with the leader
+    private boolean poll() throws Exception {
+        String url = leaderUrl + "/replication/log?epoch=" + epoch + "&after=" + appliedSeq + "&limit=" + BATCH_LIMIT;
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(url)).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        lastPollAt = System.currentTimeMillis();
+        if (response.statusCode() == 410) {
+            // Our position is gone from the leader's log (new epoch or truncated) - start over from a snapshot
+            System.out.println("Replica position no longer available on leader, re-bootstrapping");
+            epoch = null;
+            return false;
+        }
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Log request failed with status " + response.statusCode());
+        }
+
+        JSONObject body = (JSONObject) JSONValue.parse(response.body());
+        leaderHeadSeq = ((Number) body.get("head")).longValue();
+        JSONArray batches = (JSONArray) body.get("batches");
+        Set<String> changedTables = new HashSet<>();
+        for (Object entry : batches) {
+            apply((JSONObject) entry, changedTables);
+        }
+        if (!batches.isEmpty()) {
+            DatabaseManager.notifyReplicatedWrites(changedTables);
+        }
+        return appliedSeq >= leaderHeadSeq;
+    }
+
+    private void apply(JSONObject batch, Set<String> changedTables) throws SQLException {
+        DatabaseManager.beginTransaction();
+        try {
+            for (Object entry : (JSONArray) batch.get("mutations")) {
+                JSONObject mutation = (JSONObject) entry;
+                Mutation applied = new Mutation((String) mutation.get("sql"), ((JSONArray) mutation.get("params")).toArray());
+                DatabaseManager.executeUpdate(applied.getSql(), applied.getParams());
+                changedTables.add(applied.getTable());
+            }
+            DatabaseManager.commit();
+        } catch (SQLException e) {
+            DatabaseManager.rollback();
+            throw e;
+        }
+        appliedSeq = ((Number) batch.get("seq")).longValue();
+        appliedBatches++;
+        lastAppliedAt = System.currentTimeMillis();
+        lastBatchDelayMillis = lastAppliedAt - ((Number) batch.get("committedAt")).longValue();
+    }
+
+    public JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        long now = System.currentTimeMillis();
+        stats.put("leaderUrl", leaderUrl);
+        stats.put("epoch", epoch);
+        stats.put("appliedSeq", appliedSeq);
+        stats.put("leaderHeadSeq", leaderHeadSeq);
+        stats.put("lagBatches", Math.max(0, leaderHeadSeq - appliedSeq));
+        stats.put("lastBatchDelayMillis", lastBatchDelayMillis);
+        stats.put("millisSinceLastPoll", lastPollAt == 0 ? null : now - lastPollAt);
+        stats.put("millisSinceLastApply", lastAppliedAt == 0 ? null : now - lastAppliedAt);
+        stats.put("appliedBatches", appliedBatches);
+        stats.put("bootstraps", bootstraps);
+        stats.put("lastError", lastError);
+        return stats;
+    }
+}
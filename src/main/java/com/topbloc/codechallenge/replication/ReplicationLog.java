@@ -0,0 +1,122 @@
+package com.topbloc.codechallenge.replication;
+
+import com.topbloc.codechallenge.db.Mutation;
+import com.topbloc.codechallenge.db.MutationListener;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/*
+ * Ordered log of committed mutation batches kept by the leader and read by followers.
+ *
+ * Every committed batch gets the next sequence number. The log lives in memory and retains only the
+ * most recent batches; a follower that asks for a sequence number that has already been dropped, or that
+ * is on a different epoch, has to re-bootstrap from a snapshot.
+ *
+ * The epoch identifies one lineage of the data. It changes on startup and whenever the database contents
+ * are replaced wholesale (e.g. /reset), because those changes are not in the log.
+ */
+public class ReplicationLog implements MutationListener {
+    private final int retainBatches;
+    private final ArrayDeque<Batch> batches = new ArrayDeque<>();
+    private String epoch = UUID.randomUUID().toString();
+    private long headSeq;
+
+    public ReplicationLog(int retainBatches) {
+        this.retainBatches = retainBatches;
+    }
+
+    @Override
+    public synchronized void onCommit(List<Mutation> mutations) {
+        batches.addLast(new Batch(++headSeq, System.currentTimeMillis(), mutations));
+        while (batches.size() > retainBatches) {
+            batches.removeFirst();
+        }
+    }
+
+    // Start a new lineage - followers will re-bootstrap from a snapshot
+    public synchronized void newEpoch() {
+        epoch = UUID.randomUUID().toString();
+        headSeq = 0;
+        batches.clear();
+    }
+
+    public synchronized String getEpoch() {
+        return epoch;
+    }
+
+    public synchronized long getHeadSeq() {
+        return headSeq;
+    }
+
+    /*
+     * Batches after the given sequence number, or null if the follower cannot continue from there
+     * (different epoch, or the batches it needs are no longer retained)
+     */
+    public synchronized JSONObject readAfter(String followerEpoch, long afterSeq, int limit) {
+        if (!epoch.equals(followerEpoch) || afterSeq > headSeq) {
+            return null;
+        }
+        long oldestRetained = batches.isEmpty() ? headSeq + 1 : batches.peekFirst().seq;
+        if (afterSeq + 1 < oldestRetained) {
+            return null;
+        }
+
+        JSONArray entries = new JSONArray();
+        for (Batch batch : batches) {
+            if (batch.seq > afterSeq) {
+                entries.add(batch.toJson());
+                if (entries.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        JSONObject result = new JSONObject();
+        result.put("epoch", epoch);
+        result.put("head", headSeq);
+        result.put("batches", entries);
+        return result;
+    }
+
+    public synchronized JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        stats.put("epoch", epoch);
+        stats.put("head", headSeq);
+        stats.put("retainedBatches", batches.size());
+        stats.put("oldestRetained", batches.isEmpty() ? null : batches.peekFirst().seq);
+        return stats;
+    }
+
+    private static class Batch {
+        final long seq;
+        final long committedAt;
+        final List<Mutation> mutations;
+
+        Batch(long seq, long committedAt, List<Mutation> mutations) {
+            this.seq = seq;
+            this.committedAt = committedAt;
+            this.mutations = mutations;
+        }
+
+        JSONObject toJson() {
+            JSONArray statements = new JSONArray();
+            for (Mutation mutation : mutations) {
+                JSONArray params = new JSONArray();
+                params.addAll(Arrays.asList(mutation.getParams()));
+                JSONObject statement = new JSONObject();
+                statement.put("sql", mutation.getSql());
+                statement.put("params", params);
+                statements.add(statement);
+            }
+            JSONObject json = new JSONObject();
+            json.put("seq", seq);
+            json.put("committedAt", committedAt);
+            json.put("mutations", statements);
+            return json;
+        }
+    }
+}
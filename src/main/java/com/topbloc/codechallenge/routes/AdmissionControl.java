@@ -0,0 +1,256 @@
+package com.topbloc.codechallenge.routes;
+
+import com.topbloc.codechallenge.config.Settings;
+import com.topbloc.codechallenge.http.Request;
+import com.topbloc.codechallenge.http.Response;
+import com.topbloc.codechallenge.http.Route;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/*
+ * Admission control in front of the API routes, so a burst of expensive requests cannot starve cheap ones
+ * of the shared database connection.
+ *
+ * Every guarded route has its own concurrency limit and a bounded queue of waiting requests:
+ * - queue full: rejected immediately with 429 and Retry-After
+ * - waited longer than the lane's timeout: rejected with 503 and Retry-After
+ *
+ * Routes are also assigned a lane that caps how much of the shared pool ("admission.max_concurrent") the
+ * lane may occupy: interactive lookups may use all of it, standard reads and writes three quarters and bulk
+ * work a quarter. Under overload the remaining headroom is therefore always available to interactive routes.
+ *
+ * Per-route limits can be overridden with "admission.<route>.max_concurrent" and "admission.<route>.max_queue".
+ *
+ * Routes whose reads are coalesced with SingleFlight are registered with coalesced() instead of guard(): only the
+ * request that executes the shared call (wrapped in admitted()) takes a slot, and requests that join it wait
+ * without one. A rejection of that call is answered to every request that joined it.
+ *
+ * The admission counters double as the server's load signal: isIdle() tells background maintenance (e.g. the
+ * DistributorCompactor) whether no guarded request is running and none has finished for a while.
+ */
+public class AdmissionControl {
+
+    public enum Lane {
+        INTERACTIVE(1.0, 2000, 100),
+        STANDARD(0.75, 1000, 50),
+        BULK(0.25, 500, 8);
+
+        final double poolShare;
+        final long maxWaitMillis;
+        final int defaultQueue;
+
+        Lane(double poolShare, long maxWaitMillis, int defaultQueue) {
+            this.poolShare = poolShare;
+            this.maxWaitMillis = maxWaitMillis;
+            this.defaultQueue = defaultQueue;
+        }
+    }
+
+    private static final String QUEUE_FULL = "Too many requests for this route, retry later";
+    private static final String TIMED_OUT = "Server is overloaded, retry later";
+
+    private static final int poolSize = Settings.getInt("admission.max_concurrent", 16);
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static final Condition slotFreed = lock.newCondition();
+    private static final Map<String, RouteLimit> limits = new ConcurrentHashMap<>();
+    private static int inFlight;
+    private static long lastActivityNanos = System.nanoTime();
+    // Limit of the coalesced route the current thread is handling
+    private static final ThreadLocal<RouteLimit> currentLimit = new ThreadLocal<>();
+
+    // Thrown out of a coalesced call that was not admitted, so every request sharing the call is rejected
+    private static class Rejected extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Rejected(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    // Wrap a route so it only runs once admitted
+    public static Route guard(String name, Lane lane, Route route) {
+        RouteLimit limit = limits.computeIfAbsent(name, n -> new RouteLimit(n, lane));
+        return new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                String rejection = acquire(limit);
+                if (rejection != null) {
+                    res.type("application/json");
+                    res.status(rejection.equals(QUEUE_FULL) ? 429 : 503);
+                    res.header("Retry-After", rejection.equals(QUEUE_FULL) ? "1" : "2");
+                    return "{\"error\": \"" + rejection + "\"}";
+                }
+                try {
+                    return route.handle(req, res);
+                } finally {
+                    release(limit);
+                }
+            }
+        };
+    }
+
+    // Wrap a route whose work runs through admitted() inside SingleFlight; the route itself is not admitted
+    public static Route coalesced(String name, Lane lane, Route route) {
+        RouteLimit limit = limits.computeIfAbsent(name, n -> new RouteLimit(n, lane));
+        return new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                currentLimit.set(limit);
+                try {
+                    return route.handle(req, res);
+                } catch (Rejected e) {
+                    res.type("application/json");
+                    res.status(e.getMessage().equals(QUEUE_FULL) ? 429 : 503);
+                    res.header("Retry-After", e.getMessage().equals(QUEUE_FULL) ? "1" : "2");
+                    return "{\"error\": \"" + e.getMessage() + "\"}";
+                } finally {
+                    currentLimit.remove();
+                }
+            }
+        };
+    }
+
+    // The call of the current coalesced route, run only once admitted under that route's limit
+    public static <T> Supplier<T> admitted(Supplier<T> call) {
+        RouteLimit limit = currentLimit.get();
+        if (limit == null) {
+            throw new IllegalStateException("admitted() is only available inside a coalesced route");
+        }
+        return () -> {
+            String rejection;
+            try {
+                rejection = acquire(limit);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rejection = TIMED_OUT;
+            }
+            if (rejection != null) {
+                throw new Rejected(rejection);
+            }
+            try {
+                return call.get();
+            } finally {
+                release(limit);
+            }
+        };
+    }
+
+    // Returns null once admitted, otherwise the rejection message
+    private static String acquire(RouteLimit limit) throws InterruptedException {
+        lock.lock();
+        try {
+            if (!limit.canEnter()) {
+                if (limit.queued >= limit.maxQueue) {
+                    limit.rejectedQueueFull++;
+                    return QUEUE_FULL;
+                }
+                limit.queued++;
+                try {
+                    long remaining = TimeUnit.MILLISECONDS.toNanos(limit.lane.maxWaitMillis);
+                    while (!limit.canEnter()) {
+                        if (remaining <= 0) {
+                            limit.rejectedTimeout++;
+                            return TIMED_OUT;
+                        }
+                        remaining = slotFreed.awaitNanos(remaining);
+                    }
+                } finally {
+                    limit.queued--;
+                }
+            }
+            limit.active++;
+            limit.admitted++;
+            inFlight++;
+            lastActivityNanos = System.nanoTime();
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void release(RouteLimit limit) {
+        lock.lock();
+        try {
+            limit.active--;
+            inFlight--;
+            lastActivityNanos = System.nanoTime();
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // No guarded request in flight and none admitted or finished within the last quietMillis
+    public static boolean isIdle(long quietMillis) {
+        lock.lock();
+        try {
+            return inFlight == 0 && System.nanoTime() - lastActivityNanos >= TimeUnit.MILLISECONDS.toNanos(quietMillis);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public static JSONObject getStats() {
+        lock.lock();
+        try {
+            JSONArray routes = new JSONArray();
+            for (RouteLimit limit : limits.values()) {
+                routes.add(limit.toJson());
+            }
+            JSONObject stats = new JSONObject();
+            stats.put("poolSize", poolSize);
+            stats.put("inFlight", inFlight);
+            stats.put("idleMillis", inFlight == 0 ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastActivityNanos) : 0);
+            stats.put("routes", routes);
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Per-route counters, guarded by the shared lock
+    private static class RouteLimit {
+        final String name;
+        final Lane lane;
+        final int maxConcurrent;
+        final int maxQueue;
+        int active;
+        int queued;
+        long admitted;
+        long rejectedQueueFull;
+        long rejectedTimeout;
+
+        RouteLimit(String name, Lane lane) {
+            this.name = name;
+            this.lane = lane;
+            int laneSlots = Math.max(1, (int) (poolSize * lane.poolShare));
+            this.maxConcurrent = Settings.getInt("admission." + name + ".max_concurrent", laneSlots);
+            this.maxQueue = Settings.getInt("admission." + name + ".max_queue", lane.defaultQueue);
+        }
+
+        boolean canEnter() {
+            return active < maxConcurrent && inFlight < Math.max(1, (int) (poolSize * lane.poolShare));
+        }
+
+        JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("route", name);
+            json.put("lane", lane.name());
+            json.put("maxConcurrent", maxConcurrent);
+            json.put("maxQueue", maxQueue);
+            json.put("active", active);
+            json.put("queued", queued);
+            json.put("admitted", admitted);
+            json.put("rejectedQueueFull", rejectedQueueFull);
+            json.put("rejectedTimeout", rejectedTimeout);
+            return json;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.topbloc.codechallenge.routes;
+
+import com.topbloc.codechallenge.alerts.AlertEngine;
+import com.topbloc.codechallenge.alerts.AlertSubscriber;
+import com.topbloc.codechallenge.http.Request;
+import com.topbloc.codechallenge.http.Response;
+import com.topbloc.codechallenge.http.Route;
+import com.topbloc.codechallenge.http.Transport;
+import com.topbloc.codechallenge.routes.AdmissionControl.Lane;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * This class defines the HTTP routes of the stock alert subsystem.
+ *
+ * Available endpoints:
+ * - GET /alerts?after=&limit= - Alert events with an id greater than "after" (durable queue, oldest first)
+ * - GET /alerts/rules - Registered alert rules
+ * - GET /alerts/stream - Server-Sent Events push channel of alert events as they are committed
+ *
+ * The stream resumes after the standard Last-Event-ID header (or ?after=) by replaying missed events from
+ * the alert_events table before switching to live events. When the data is replaced (/reset, a snapshot
+ * restore or a generated dataset) the event ids start over: the stream sends a "reset" event with id 0 and
+ * closes, so the client reconnects and replays from the beginning. A comment line is sent every 15 seconds
+ * to keep idle connections open. Streams are not admission-controlled since they are long-lived; the number
+ * of concurrent subscribers is capped by "alerts.max_subscribers" instead.
+ */
+
+public class AlertRoutes {
+    private static final long KEEPALIVE_MILLIS = 15_000;
+    private static final int REPLAY_BATCH = 500;
+
+    public static void initialize(Transport transport) {
+
+        // Poll alert events after a given id
+        transport.get("/alerts", AdmissionControl.guard("alerts.list", Lane.STANDARD, new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+
+                try {
+                    long after = req.queryParams("after") != null ? Long.parseLong(req.queryParams("after")) : 0;
+                    int limit = req.queryParams("limit") != null ? Integer.parseInt(req.queryParams("limit")) : 100;
+                    if (limit < 1 || limit > 1000) {
+                        res.status(400);
+                        return "{\"error\": \"limit must be between 1 and 1000\"}";
+                    }
+                    return AlertEngine.getEvents(after, limit);
+                } catch (NumberFormatException e) {
+                    res.status(400);
+                    return "{\"error\": \"after and limit must be numbers\"}";
+                }
+            }
+        }));
+
+        // Registered alert rules
+        transport.get("/alerts/rules", new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                return AlertEngine.getRules();
+            }
+        });
+
+        // Push channel (Server-Sent Events)
+        transport.get("/alerts/stream", new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                String resumeFrom = req.headers("Last-Event-ID") != null ? req.headers("Last-Event-ID") : req.queryParams("after");
+                long lastId;
+                try {
+                    lastId = resumeFrom != null ? Long.parseLong(resumeFrom) : -1;
+                } catch (NumberFormatException e) {
+                    res.type("application/json");
+                    res.status(400);
+                    return "{\"error\": \"Last-Event-ID and after must be numbers\"}";
+                }
+
+                // Subscribe before replaying, so no event committed in between is missed
+                AlertSubscriber subscriber = AlertEngine.subscribe();
+                if (subscriber == null) {
+                    res.type("application/json");
+                    res.status(503);
+                    res.header("Retry-After", "5");
+                    return "{\"error\": \"Too many alert stream subscribers\"}";
+                }
+
+                try {
+                    res.type("text/event-stream");
+                    res.header("Cache-Control", "no-cache");
+                    OutputStream out = res.outputStream();
+
+                    while (lastId >= 0) {
+                        JSONArray missed = AlertEngine.getEvents(lastId, REPLAY_BATCH);
+                        for (Object event : missed) {
+                            lastId = writeEvent(out, (JSONObject) event);
+                        }
+                        if (missed.size() < REPLAY_BATCH) {
+                            break;
+                        }
+                    }
+                    out.write(": connected\n\n".getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+
+                    while (!subscriber.isOverflowed() && !subscriber.isReset()) {
+                        JSONObject event = subscriber.poll(KEEPALIVE_MILLIS);
+                        if (event == null) {
+                            out.write(": keepalive\n\n".getBytes(StandardCharsets.UTF_8));
+                        } else if (!subscriber.isReset() && ((Number) event.get("id")).longValue() > lastId) {
+                            lastId = writeEvent(out, event);
+                        }
+                        out.flush();
+                    }
+                    if (subscriber.isReset()) {
+                        // The data was replaced and event ids start over: id 0 makes the client resume from the start
+                        out.write("id: 0\nevent: reset\ndata: {}\n\n".getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    // Client disconnected
+                } finally {
+                    AlertEngine.unsubscribe(subscriber);
+                }
+                return "";
+            }
+        });
+    }
+
+    private static long writeEvent(OutputStream out, JSONObject event) throws IOException {
+        long id = ((Number) event.get("id")).longValue();
+        String frame = "id: " + id + "\nevent: alert\ndata: " + event.toJSONString() + "\n\n";
+        out.write(frame.getBytes(StandardCharsets.UTF_8));
+        return id;
+    }
+}
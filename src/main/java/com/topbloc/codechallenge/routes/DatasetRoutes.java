@@ -0,0 +1,66 @@
+package com.topbloc.codechallenge.routes;
+
+import com.topbloc.codechallenge.http.Request;
+import com.topbloc.codechallenge.http.Response;
+import com.topbloc.codechallenge.http.Route;
+import com.topbloc.codechallenge.http.Transport;
+import com.topbloc.codechallenge.routes.AdmissionControl.Lane;
+import com.topbloc.codechallenge.service.DatasetGenerator;
+import org.json.simple.JSONObject;
+
+/*
+ * This class defines the HTTP route for loading a synthetic dataset.
+ * 
+ * Available endpoints:
+ * - POST /dataset?items=&inventory=&distributors=&prices=&seed=&skew=&bands= - Replace the database contents with
+ *   a generated dataset; the same parameters always produce the same rows (see DatasetGenerator)
+ * 
+ * Defaults: 1000 items, 90% of them in inventory, 10 distributors, 5 price rows per item, seed 42, skew 1.0 and
+ * bands 5,20,65,10 (out of stock, low stock, normal, overstocked weights).
+ */
+
+public class DatasetRoutes {
+    
+    public static void initialize(Transport transport) {
+        
+        // Generate and load a dataset
+        transport.post("/dataset", AdmissionControl.guard("dataset.generate", Lane.BULK, new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                DatasetGenerator.Spec spec;
+                try {
+                    int items = intParam(req, "items", 1000);
+                    int distributors = intParam(req, "distributors", 10);
+                    spec = new DatasetGenerator.Spec(items, intParam(req, "inventory", (int) (items * 9L / 10)), distributors,
+                            longParam(req, "prices", Math.min((long) items * 5, (long) items * distributors)),
+                            longParam(req, "seed", 42),
+                            req.queryParams("skew") != null ? Double.parseDouble(req.queryParams("skew")) : 1.0,
+                            req.queryParams("bands") != null ? DatasetGenerator.parseBands(req.queryParams("bands"))
+                                    : new double[] {5, 20, 65, 10});
+                } catch (NumberFormatException e) {
+                    res.status(400);
+                    return "{\"error\": \"Dataset parameters must be numbers\"}";
+                }
+                String error = spec.validate();
+                if (error != null) {
+                    res.status(400);
+                    JSONObject json = new JSONObject();
+                    json.put("error", error);
+                    return json;
+                }
+                return DatasetGenerator.generate(spec);
+            }
+        }));
+    }
+    
+    private static int intParam(Request req, String name, int defaultValue) {
+        String value = req.queryParams(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+    
+    private static long longParam(Request req, String name, long defaultValue) {
+        String value = req.queryParams(name);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+}
@@ -1,15 +1,17 @@
 package com.topbloc.codechallenge.routes;
 
+import com.topbloc.codechallenge.cache.SingleFlight;
+import com.topbloc.codechallenge.http.HaltException;
+import com.topbloc.codechallenge.http.Request;
+import com.topbloc.codechallenge.http.Response;
+import com.topbloc.codechallenge.http.Route;
+import com.topbloc.codechallenge.http.Transport;
+import com.topbloc.codechallenge.routes.AdmissionControl.Lane;
 import com.topbloc.codechallenge.service.DistributorService;
+import com.topbloc.codechallenge.service.RowFilter;
 import org.json.simple.JSONObject;
-import spark.Request;
-import spark.Response;
-import spark.Route;
 
-import static spark.Spark.get;
-import static spark.Spark.post;
-import static spark.Spark.put;
-import static spark.Spark.delete;
+import java.util.List;
 
 /*
  * This class defines all HTTP routes related to distributor operations in the candy inventory system.
@@ -18,53 +20,93 @@ import static spark.Spark.delete;
  * Available endpoints:
  * - GET /distributors - Retrieve all distributors
  * - GET /distributors/:id/items - Get all items offered by a specific distributor
+ * - GET /distributors/:id/items?filter=cost:lt:0.5&sort=cost&limit= - Filtered and sorted catalog (see RowFilter)
  * - GET /items/:id/offerings - Get all distributor offerings for a specific item
+ * - GET /items/offerings?ids=1,2,3 - Offerings of several items in request order; unknown IDs are listed under "missing"
  * - POST /distributors - Create a new distributor
  * - POST /distributors/:id/items - Add an item to a distributor's catalog with pricing
  * - PUT /distributors/:id/items/:itemId/price - Update the price of an item in a distributor's catalog
  * - GET /items/:id/restock-price - Calculate the cheapest restock price for an item at a given quantity
+ * - GET /distributors/restock-costs?baseline= - Cost of restocking all inventory to capacity at each distributor
+ *   and at the cheapest offer per item, with savings versus an optional baseline distributor
  * - DELETE /distributors/:id - Remove a distributor and all associated pricing data
  * 
  * All endpoints return JSON responses and include proper HTTP status codes.
  * Input validation is performed for request parameters, body content, and business logic constraints.
+ * The list endpoints accept fields=id,cost,... to return only those fields; unknown fields are rejected with 400.
+ * Identical concurrent GET requests are coalesced into one service call through SingleFlight.
+ * Only the request that runs the shared call takes an admission slot (AdmissionControl.coalesced()).
  * 
  */
 
 public class DistributorRoutes {
     
-    public static void initialize() {
+    public static void initialize(Transport transport) {
         
         // Get all distributors
-        get("/distributors", new Route() {
+        transport.get("/distributors", AdmissionControl.coalesced("distributors.list", Lane.INTERACTIVE, new Route() {
             @Override
             public Object handle(Request req, Response res) throws Exception {
                 res.type("application/json");
-                return DistributorService.getAllDistributors();
+                List<String> fields = QueryParameters.fields(req, DistributorService.DISTRIBUTOR_FIELDS);
+                return SingleFlight.run("distributors.list:" + fields,
+                        AdmissionControl.admitted(() -> DistributorService.getAllDistributors(fields)));
             }
-        });
+        }));
         
         // Get items by distributor ID
-        get("/distributors/:id/items", new Route() {
+        transport.get("/distributors/:id/items", AdmissionControl.coalesced("distributors.items", Lane.INTERACTIVE, new Route() {
             @Override
             public Object handle(Request req, Response res) throws Exception {
                 res.type("application/json");
                 int distributorId = Integer.parseInt(req.params(":id"));
-                return DistributorService.getItemsByDistributor(distributorId);
+                List<String> fields = QueryParameters.fields(req, DistributorService.CATALOG_FIELDS);
+                if (QueryParameters.hasFilter(req)) {
+                    RowFilter.Query query = QueryParameters.filter(req, DistributorService.CATALOG_FILTER);
+                    return SingleFlight.run("distributors.items.filtered:" + distributorId + ":" + query + ":" + fields,
+                            AdmissionControl.admitted(() -> DistributorService.getFilteredItemsByDistributor(distributorId, query, fields)));
+                }
+                return SingleFlight.run("distributors.items:" + distributorId + ":" + fields,
+                        AdmissionControl.admitted(() -> DistributorService.getItemsByDistributor(distributorId, fields)));
+            }
+        }));
+        
+        // Get offerings for several items at once (multi-get)
+        transport.get("/items/offerings", AdmissionControl.coalesced("items.offerings.multi", Lane.INTERACTIVE, new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                if (req.queryParams("ids") == null) {
+                    res.status(400);
+                    return "{\"error\": \"Query parameter ids is required\"}";
+                }
+                List<Integer> ids = QueryParameters.ids(req);
+                List<String> fields = QueryParameters.fields(req, DistributorService.OFFERING_FIELDS);
+                String offerings = SingleFlight.run("items.offerings.multi:" + ids + ":" + fields,
+                        AdmissionControl.admitted(() -> DistributorService.getOfferingsByItems(ids, fields)));
+                if (offerings != null) {
+                    return offerings;
+                } else {
+                    res.status(500);
+                    return "{\"error\": \"Failed to retrieve offerings\"}";
+                }
             }
-        });
+        }));
         
         // Get offerings for specific item from all distributors
-        get("/items/:id/offerings", new Route() {
+        transport.get("/items/:id/offerings", AdmissionControl.coalesced("items.offerings", Lane.INTERACTIVE, new Route() {
             @Override
             public Object handle(Request req, Response res) throws Exception {
                 res.type("application/json");
                 int itemId = Integer.parseInt(req.params(":id"));
-                return DistributorService.getOfferingsByItem(itemId);
+                List<String> fields = QueryParameters.fields(req, DistributorService.OFFERING_FIELDS);
+                return SingleFlight.run("items.offerings:" + itemId + ":" + fields,
+                        AdmissionControl.admitted(() -> DistributorService.getOfferingsByItem(itemId, fields)));
             }
-        });
+        }));
         
         // Add new distributor
-        post("/distributors", new Route() {
+        transport.post("/distributors", AdmissionControl.guard("distributors.create", Lane.STANDARD, new Route() {
             @Override
             public Object handle(Request req, Response res) throws Exception {
                 res.type("application/json");
@@ -98,10 +140,10 @@ public class DistributorRoutes {
                     return "{\"error\": \"Invalid JSON format\"}";
                 }
             }
-        });
+        }));
         
         // Add item to distributor's catalog
-        post("/distributors/:id/items", new Route() {
+        transport.post("/distributors/:id/items", AdmissionControl.guard("distributors.addItem", Lane.STANDARD, new Route() {
             @Override
             public Object handle(Request req, Response res) throws Exception {
                 res.type("application/json");
@@ -162,10 +204,10 @@ public class DistributorRoutes {
                     return "{\"error\": \"Invalid JSON format\"}";
                 }
             }
-        });
+        }));
         
         // Update price of an item in distributor's catalog
-        put("/distributors/:id/items/:itemId/price", new Route() {
+        transport.put("/distributors/:id/items/:itemId/price", AdmissionControl.guard("distributors.updatePrice", Lane.STANDARD, new Route() {
             @Override
             public Object handle(Request req, Response res) throws Exception {
                 res.type("application/json");
@@ -221,10 +263,10 @@ public class DistributorRoutes {
                     return "{\"error\": \"Invalid JSON format\"}";
                 }
             }
-        });
+        }));
         
         // Get cheapest restock price for an item at a given quantity
-        get("/items/:id/restock-price", new Route() {
+        transport.get("/items/:id/restock-price", AdmissionControl.guard("items.restockPrice", Lane.BULK, new Route() {
             @Override
             public Object handle(Request req, Response res) throws Exception {
                 res.type("application/json");
@@ -272,10 +314,44 @@ public class DistributorRoutes {
                     return "{\"error\": \"Internal server error\"}";
                 }
             }
-        });
+        }));
+        
+        // Get the cost of restocking all inventory to capacity at every distributor (what-if)
+        transport.get("/distributors/restock-costs", AdmissionControl.coalesced("distributors.restockCosts", Lane.STANDARD, new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                
+                Integer baseline = null;
+                if (req.queryParams("baseline") != null) {
+                    try {
+                        baseline = Integer.parseInt(req.queryParams("baseline"));
+                    } catch (NumberFormatException e) {
+                        res.status(400);
+                        return "{\"error\": \"baseline must be a distributor ID\"}";
+                    }
+                }
+                
+                Integer baselineId = baseline;
+                // An unknown baseline is answered with 404 to every request sharing the call
+                String result = SingleFlight.run("distributors.restockCosts:" + baselineId,
+                        AdmissionControl.admitted(() -> {
+                            JSONObject costs = DistributorService.getRestockCosts(baselineId);
+                            if (costs != null && costs.containsKey("error")) {
+                                throw new HaltException(404, costs.toJSONString());
+                            }
+                            return costs;
+                        }));
+                if (result == null) {
+                    res.status(500);
+                    return "{\"error\": \"Failed to compute restock costs\"}";
+                }
+                return result;
+            }
+        }));
         
         // Delete existing distributor
-        delete("/distributors/:id", new Route() {
+        transport.delete("/distributors/:id", AdmissionControl.guard("distributors.delete", Lane.STANDARD, new Route() {
             @Override
             public Object handle(Request req, Response res) throws Exception {
                 res.type("application/json");
@@ -304,6 +380,6 @@ public class DistributorRoutes {
                     return "{\"error\": \"Internal server error\"}";
                 }
             }
-        });
+        }));
     }
 }
@@ -1,18 +1,27 @@
 package com.topbloc.codechallenge.routes;
 
+import com.topbloc.codechallenge.http.Request;
+import com.topbloc.codechallenge.http.Response;
+import com.topbloc.codechallenge.http.Route;
+import com.topbloc.codechallenge.http.Transport;
+import com.topbloc.codechallenge.routes.AdmissionControl.Lane;
 import com.topbloc.codechallenge.service.ExportService;
-import spark.Request;
-import spark.Response;
-import spark.Route;
 
-import static spark.Spark.get;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
 
 /*
  * This class defines all HTTP routes related to data export operations in the candy inventory system.
  * It provides RESTful API endpoints for exporting database data in various formats.
  * 
  * Available endpoints:
+ * - GET /export/snapshot?format=zip|sqlite - Consistent snapshot of the database as a ZIP of CSVs or a SQLite file
  * - GET /export/:table - Export any database table to CSV format for download
+ * - GET /export/:table?since=<version> - Export only the rows inserted, updated or deleted after a version
+ * 
+ * Table exports carry an X-Export-Version header; pass it as "since" on the next export to receive only
+ * what changed in between. A version older than the change log is answered with 410 (full export needed).
  * 
  * All endpoints include proper error handling and input validation.
  * CSV export includes table name validation and proper file download headers.
@@ -24,10 +33,43 @@ import static spark.Spark.get;
 
 public class ExportRoutes {
     
-    public static void initialize() {
+    public static void initialize(Transport transport) {
+        
+        // Export a consistent snapshot of the whole database - registered before /export/:table
+        transport.get("/export/snapshot", AdmissionControl.guard("export.snapshot", Lane.BULK, new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                String format = req.queryParams("format") != null ? req.queryParams("format") : "zip";
+                if (!format.equals("zip") && !format.equals("sqlite")) {
+                    res.status(400);
+                    res.type("application/json");
+                    return "{\"error\": \"format must be zip or sqlite\"}";
+                }
+                
+                long takenAt = System.currentTimeMillis();
+                File snapshot = ExportService.createSnapshotFile();
+                try {
+                    res.header("Content-Disposition", "attachment; filename=\"snapshot-" + takenAt
+                            + (format.equals("zip") ? ".zip" : ".db") + "\"");
+                    res.header("Cache-Control", "no-cache");
+                    res.header("X-Snapshot-Taken-At", String.valueOf(takenAt));
+                    res.type(format.equals("zip") ? "application/zip" : "application/vnd.sqlite3");
+                    OutputStream out = res.outputStream();
+                    if (format.equals("zip")) {
+                        ExportService.writeSnapshotZip(snapshot, out);
+                    } else {
+                        Files.copy(snapshot.toPath(), out);
+                    }
+                    out.flush();
+                    return "";
+                } finally {
+                    Files.deleteIfExists(snapshot.toPath());
+                }
+            }
+        }));
         
         // Export any table to CSV format
-        get("/export/:table", new Route() {
+        transport.get("/export/:table", AdmissionControl.guard("export.table", Lane.BULK, new Route() {
             @Override
             public Object handle(Request req, Response res) throws Exception {
                 String tableName = req.params(":table");
@@ -38,7 +80,28 @@ public class ExportRoutes {
                     return "{\"error\": \"Table name is required\"}";
                 }
                 
-                String csvData = ExportService.exportTableToCSV(tableName);
+                // Delta export: only rows changed after the given version
+                String sinceParam = req.queryParams("since");
+                long since = -1;
+                if (sinceParam != null) {
+                    try {
+                        since = Long.parseLong(sinceParam);
+                    } catch (NumberFormatException e) {
+                        res.status(400);
+                        res.type("application/json");
+                        return "{\"error\": \"since must be a version number\"}";
+                    }
+                    if (!ExportService.isVersionAvailable(since)) {
+                        res.status(410);
+                        res.type("application/json");
+                        return "{\"error\": \"Changes since this version are no longer available, run a full export\"}";
+                    }
+                }
+                
+                long version = ExportService.getCurrentVersion();
+                String csvData = since >= 0
+                        ? ExportService.exportTableChangesToCSV(tableName, since)
+                        : ExportService.exportTableToCSV(tableName);
                 
                 if (csvData.startsWith("Error:")) {
                     res.status(400);
@@ -50,10 +113,11 @@ public class ExportRoutes {
                 res.type("text/csv");
                 res.header("Content-Disposition", "attachment; filename=\"" + tableName + ".csv\"");
                 res.header("Cache-Control", "no-cache");
+                res.header("X-Export-Version", String.valueOf(version));
                 
                 return csvData;
             }
-        });
+        }));
         
     }
 }
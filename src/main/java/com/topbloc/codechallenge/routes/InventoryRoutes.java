@@ -1,16 +1,22 @@
 package com.topbloc.codechallenge.routes;
 
-
+import com.topbloc.codechallenge.cache.SingleFlight;
+import com.topbloc.codechallenge.http.Request;
+import com.topbloc.codechallenge.http.Response;
+import com.topbloc.codechallenge.http.Route;
+import com.topbloc.codechallenge.http.Transport;
+import com.topbloc.codechallenge.routes.AdmissionControl.Lane;
 import com.topbloc.codechallenge.service.InventoryService;
+import com.topbloc.codechallenge.service.RowFilter;
+import com.topbloc.codechallenge.service.StockHistoryService;
 import org.json.simple.JSONObject;
-import spark.Request;
-import spark.Response;
-import spark.Route;
 
-import static spark.Spark.get;
-import static spark.Spark.post;
-import static spark.Spark.put;
-import static spark.Spark.delete;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.List;
 
 /*
  * InventoryRoutes.java
@@ -20,10 +26,16 @@ import static spark.Spark.delete;
  * 
  * Available endpoints:
  * - GET /inventory - Retrieve all inventory items with current stock and capacity
+ * - GET /inventory?filter=stock:lt:5&sort=-fill&limit= - Filtered and sorted inventory (see RowFilter)
+ * - GET /inventory?ids=1,2,3 - Multi-get in one query, in request order; unknown IDs are listed under "missing"
  * - GET /inventory/out-of-stock - Get items that have zero stock remaining
  * - GET /inventory/overstocked - Get items where stock exceeds 80% of capacity
  * - GET /inventory/low-stock - Get items where stock is below 20% of capacity
+ * - GET /inventory/dashboard - All items plus the out-of-stock, overstocked and low-stock views and counts, from one scan
+ * - GET /inventory/summary - Units, capacity, value at cheapest cost and stock status counts (running totals)
  * - GET /inventory/:id - Get specific inventory item by ID
+ * - GET /inventory/:id/history?from=&to=&step= - Stock history, raw or as minute/hour/day min/max/last rollups
+ * - GET /items/search?q=&limit= - Ranked prefix search over item names (default 10, max 100 results)
  * - POST /items - Create a new item in the product catalog
  * - POST /inventory - Add an existing item to inventory with initial stock and capacity
  * - PUT /inventory - Update stock levels and capacity for an existing inventory item
@@ -33,56 +45,124 @@ import static spark.Spark.delete;
  * Input validation ensures stock is non-negative, capacity is positive, and required fields are provided.
  * Business logic validation prevents invalid operations like negative stock or zero capacity.
  * 
+ * List endpoints and search accept fields=id,stock,... to return (and select) only those fields;
+ * unknown fields are rejected with 400.
+ * 
+ * Identical concurrent GET requests are coalesced into one service call through SingleFlight.
+ * Only the request that runs the shared call takes an admission slot (AdmissionControl.coalesced()).
+ * 
  * This class serves as the HTTP interface layer for inventory-related operations,
  * delegating business logic to the InventoryService class.
  */
 
 public class InventoryRoutes {
     
-    public static void initialize() {
+    public static void initialize(Transport transport) {
         // Get all inventory items
-        get("/inventory", new Route() {
+        transport.get("/inventory", AdmissionControl.coalesced("inventory.list", Lane.STANDARD, new Route() {
             @Override
             public Object handle(Request req, Response res) throws Exception {
                 res.type("application/json");
-                return InventoryService.getAllInventoryItems();
+                List<String> fields = QueryParameters.fields(req, InventoryService.INVENTORY_FIELDS);
+                if (req.queryParams("ids") != null) {
+                    List<Integer> ids = QueryParameters.ids(req);
+                    String items = SingleFlight.run("inventory.byIds:" + ids + ":" + fields,
+                            AdmissionControl.admitted(() -> InventoryService.getInventoryItemsByIds(ids, fields)));
+                    if (items != null) {
+                        return items;
+                    } else {
+                        res.status(500);
+                        return "{\"error\": \"Failed to retrieve inventory items\"}";
+                    }
+                }
+                if (QueryParameters.hasFilter(req)) {
+                    RowFilter.Query query = QueryParameters.filter(req, InventoryService.INVENTORY_FILTER);
+                    return SingleFlight.run("inventory.filtered:" + query + ":" + fields,
+                            AdmissionControl.admitted(() -> InventoryService.getFilteredInventoryItems(query, fields)));
+                }
+                return SingleFlight.run("inventory.list:" + fields,
+                        AdmissionControl.admitted(() -> InventoryService.getAllInventoryItems(fields)));
             }
-        });
+        }));
         
         // Get out of stock items
-        get("/inventory/out-of-stock", new Route() {
+        transport.get("/inventory/out-of-stock", AdmissionControl.coalesced("inventory.outOfStock", Lane.STANDARD, new Route() {
             @Override
             public Object handle(Request req, Response res) throws Exception {
                 res.type("application/json");
-                return InventoryService.getOutOfStockItems();
+                List<String> fields = QueryParameters.fields(req, InventoryService.INVENTORY_FIELDS);
+                return SingleFlight.run("inventory.outOfStock:" + fields,
+                        AdmissionControl.admitted(() -> InventoryService.getOutOfStockItems(fields)));
             }
-        });
+        }));
         
         // Get overstocked items
-        get("/inventory/overstocked", new Route() {
+        transport.get("/inventory/overstocked", AdmissionControl.coalesced("inventory.overstocked", Lane.STANDARD, new Route() {
             @Override
             public Object handle(Request req, Response res) throws Exception {
                 res.type("application/json");
-                return InventoryService.getOverstockedItems();
+                List<String> fields = QueryParameters.fields(req, InventoryService.INVENTORY_FIELDS);
+                return SingleFlight.run("inventory.overstocked:" + fields,
+                        AdmissionControl.admitted(() -> InventoryService.getOverstockedItems(fields)));
             }
-        });
+        }));
         
         // Get low stock items
-        get("/inventory/low-stock", new Route() {
+        transport.get("/inventory/low-stock", AdmissionControl.coalesced("inventory.lowStock", Lane.STANDARD, new Route() {
             @Override
             public Object handle(Request req, Response res) throws Exception {
                 res.type("application/json");
-                return InventoryService.getLowStockItems();
+                List<String> fields = QueryParameters.fields(req, InventoryService.INVENTORY_FIELDS);
+                return SingleFlight.run("inventory.lowStock:" + fields,
+                        AdmissionControl.admitted(() -> InventoryService.getLowStockItems(fields)));
             }
-        });
+        }));
+        
+        // Get all four inventory views and their counts from one scan, streamed - registered before /inventory/:id
+        transport.get("/inventory/dashboard", AdmissionControl.guard("inventory.dashboard", Lane.STANDARD, new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                List<String> fields = QueryParameters.fields(req, InventoryService.INVENTORY_FIELDS);
+                Writer out = new BufferedWriter(new OutputStreamWriter(res.outputStream(), StandardCharsets.UTF_8));
+                try {
+                    InventoryService.writeDashboard(out, fields);
+                } catch (SQLException e) {
+                    System.err.println("Error streaming inventory dashboard: " + e.getMessage());
+                    if (res.isCommitted()) {
+                        throw e;
+                    }
+                    res.status(500);
+                    return "{\"error\": \"Failed to retrieve inventory dashboard\"}";
+                }
+                out.flush();
+                return "";
+            }
+        }));
+        
+        // Get running inventory totals, valuation and status counts - registered before /inventory/:id
+        transport.get("/inventory/summary", AdmissionControl.guard("inventory.summary", Lane.INTERACTIVE, new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                JSONObject summary = InventoryService.getInventorySummary();
+                if (summary != null) {
+                    return summary;
+                } else {
+                    res.status(500);
+                    return "{\"error\": \"Failed to compute inventory summary\"}";
+                }
+            }
+        }));
         
         // Get inventory item by ID
-        get("/inventory/:id", new Route() {
+        transport.get("/inventory/:id", AdmissionControl.coalesced("inventory.byId", Lane.INTERACTIVE, new Route() {
             @Override
             public Object handle(Request req, Response res) throws Exception {
                 res.type("application/json");
                 int itemId = Integer.parseInt(req.params(":id"));
-                JSONObject item = InventoryService.getInventoryItemById(itemId);
+                String item = SingleFlight.run("inventory.byId:" + itemId,
+                        AdmissionControl.admitted(() -> InventoryService.getInventoryItemById(itemId)));
                 if (item != null) {
                     return item;
                 } else {
@@ -90,10 +170,83 @@ public class InventoryRoutes {
                     return "{\"error\": \"Item not found\"}";
                 }
             }
-        });
+        }));
+        
+        // Get stock history of an inventory item over a time range
+        transport.get("/inventory/:id/history", AdmissionControl.guard("inventory.history", Lane.STANDARD, new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                
+                try {
+                    int itemId = Integer.parseInt(req.params(":id"));
+                    long to = req.queryParams("to") != null
+                            ? StockHistoryService.parseTimestamp(req.queryParams("to")) : System.currentTimeMillis();
+                    long from = req.queryParams("from") != null
+                            ? StockHistoryService.parseTimestamp(req.queryParams("from")) : to - 24L * 60 * 60 * 1000;
+                    String step = req.queryParams("step");
+                    
+                    if (from > to) {
+                        res.status(400);
+                        return "{\"error\": \"from must not be after to\"}";
+                    }
+                    if (step != null && !StockHistoryService.isValidStep(step)) {
+                        res.status(400);
+                        return "{\"error\": \"step must be one of raw, minute, hour, day\"}";
+                    }
+                    
+                    JSONObject result = StockHistoryService.getHistory(itemId, from, to, step);
+                    if (result != null) {
+                        if (result.containsKey("error")) {
+                            res.status(404);
+                        }
+                        return result;
+                    } else {
+                        res.status(500);
+                        return "{\"error\": \"Failed to get stock history\"}";
+                    }
+                } catch (NumberFormatException e) {
+                    res.status(400);
+                    return "{\"error\": \"Invalid item ID format\"}";
+                } catch (IllegalArgumentException e) {
+                    res.status(400);
+                    return "{\"error\": \"from and to must be epoch milliseconds or ISO-8601 instants\"}";
+                }
+            }
+        }));
+        
+        // Search items by name for typeahead
+        transport.get("/items/search", AdmissionControl.coalesced("items.search", Lane.INTERACTIVE, new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                String query = req.queryParams("q");
+                if (query == null || query.trim().isEmpty()) {
+                    res.status(400);
+                    return "{\"error\": \"Query parameter q is required\"}";
+                }
+                int limit = 10;
+                if (req.queryParams("limit") != null) {
+                    try {
+                        limit = Integer.parseInt(req.queryParams("limit"));
+                    } catch (NumberFormatException e) {
+                        limit = -1;
+                    }
+                    if (limit < 1 || limit > 100) {
+                        res.status(400);
+                        return "{\"error\": \"limit must be between 1 and 100\"}";
+                    }
+                }
+                int resultLimit = limit;
+                String normalized = query.trim().toLowerCase();
+                List<String> fields = QueryParameters.fields(req, InventoryService.SEARCH_FIELDS);
+                return SingleFlight.run("items.search:" + resultLimit + ":" + fields + ":" + normalized,
+                        AdmissionControl.admitted(() -> InventoryService.searchItemsByName(normalized, resultLimit, fields)));
+            }
+        }));
         
         // Add new item to database
-        post("/items", new Route() {
+        transport.post("/items", AdmissionControl.guard("items.create", Lane.STANDARD, new Route() {
             @Override
             public Object handle(Request req, Response res) throws Exception {
                 res.type("application/json");
@@ -131,10 +284,10 @@ public class InventoryRoutes {
                     return "{\"error\": \"Invalid JSON format: " + e.getMessage() + "\"}";
                 }
             }
-        });
+        }));
         
         // Add item to inventory
-        post("/inventory", new Route() {
+        transport.post("/inventory", AdmissionControl.guard("inventory.create", Lane.STANDARD, new Route() {
             @Override
             public Object handle(Request req, Response res) throws Exception {
                 res.type("application/json");
@@ -195,10 +348,10 @@ public class InventoryRoutes {
                     return "{\"error\": \"Invalid JSON format\"}";
                 }
             }
-        });
+        }));
         
         // Update existing inventory item
-        put("/inventory", new Route() {
+        transport.put("/inventory", AdmissionControl.guard("inventory.update", Lane.STANDARD, new Route() {
             @Override
             public Object handle(Request req, Response res) throws Exception {
                 res.type("application/json");
@@ -259,10 +412,10 @@ public class InventoryRoutes {
                     return "{\"error\": \"Invalid JSON format\"}";
                 }
             }
-        });
+        }));
         
         // Delete existing inventory item
-        delete("/inventory/:id", new Route() {
+        transport.delete("/inventory/:id", AdmissionControl.guard("inventory.delete", Lane.STANDARD, new Route() {
             @Override
             public Object handle(Request req, Response res) throws Exception {
                 res.type("application/json");
@@ -291,7 +444,7 @@ public class InventoryRoutes {
                     return "{\"error\": \"Internal server error\"}";
                 }
             }
-        });
+        }));
 
     }
 }
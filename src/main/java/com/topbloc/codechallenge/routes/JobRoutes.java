@@ -0,0 +1,214 @@
+package com.topbloc.codechallenge.routes;
+
+import com.topbloc.codechallenge.http.Request;
+import com.topbloc.codechallenge.http.Response;
+import com.topbloc.codechallenge.http.Route;
+import com.topbloc.codechallenge.http.Transport;
+import com.topbloc.codechallenge.jobs.Job;
+import com.topbloc.codechallenge.jobs.JobManager;
+import com.topbloc.codechallenge.routes.AdmissionControl.Lane;
+import com.topbloc.codechallenge.service.ExportService;
+import com.topbloc.codechallenge.service.ImportService;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/*
+ * This class defines the HTTP routes for asynchronous export and import jobs.
+ *
+ * Available endpoints:
+ * - POST /jobs/export/:table?since=<version> - Start a full or delta CSV export of a table as a job
+ * - POST /jobs/export/snapshot?format=zip|sqlite - Start a snapshot export of the whole database as a job
+ * - POST /jobs/import/:table - Upload a CSV file (request body) and start importing it into a table as a job
+ * - GET /jobs - List the retained jobs
+ * - GET /jobs/:id - State and progress of a job (rows processed, total, rows per second, ETA)
+ * - GET /jobs/:id/result - Download the result file of a finished export
+ * - DELETE /jobs/:id - Cancel a queued or running job, or delete a finished one and its result
+ *
+ * Submitting returns 202 with the job and a Location header to poll, or 503 when the job queue is full.
+ * Followers accept export jobs, which read their own copy, but reject imports (see ReplicationRoutes).
+ * The work runs on the JobManager pool, so a client disconnect does not stop it (see JobManager).
+ */
+
+public class JobRoutes {
+
+    public static void initialize(Transport transport) {
+
+        // Export a snapshot of the whole database - registered before /jobs/export/:table
+        transport.post("/jobs/export/snapshot", AdmissionControl.guard("jobs.exportSnapshot", Lane.STANDARD, new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                String format = req.queryParams("format") != null ? req.queryParams("format") : "zip";
+                if (!format.equals("zip") && !format.equals("sqlite")) {
+                    res.status(400);
+                    return "{\"error\": \"format must be zip or sqlite\"}";
+                }
+
+                Job job = JobManager.submit("export", "snapshot (" + format + ")", j -> {
+                    File result = JobManager.newFile("snapshot-", format.equals("zip") ? ".zip" : ".db");
+                    j.setResult(result, "snapshot-" + System.currentTimeMillis() + (format.equals("zip") ? ".zip" : ".db"),
+                            format.equals("zip") ? "application/zip" : "application/vnd.sqlite3");
+                    File snapshot = ExportService.createSnapshotFile();
+                    try {
+                        j.checkCancelled();
+                        if (format.equals("zip")) {
+                            try (OutputStream out = Files.newOutputStream(result.toPath())) {
+                                ExportService.writeSnapshotZip(snapshot, out);
+                            }
+                        } else {
+                            Files.move(snapshot.toPath(), result.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                        }
+                    } finally {
+                        Files.deleteIfExists(snapshot.toPath());
+                    }
+                });
+                return submitted(job, res);
+            }
+        }));
+
+        // Export a table to CSV
+        transport.post("/jobs/export/:table", AdmissionControl.guard("jobs.exportTable", Lane.STANDARD, new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                String table = req.params(":table");
+                if (!ExportService.isExportableTable(table)) {
+                    res.status(400);
+                    return "{\"error\": \"Invalid table name. Allowed tables: items, inventory, distributors, distributor_prices\"}";
+                }
+
+                long since = -1;
+                if (req.queryParams("since") != null) {
+                    try {
+                        since = Long.parseLong(req.queryParams("since"));
+                    } catch (NumberFormatException e) {
+                        res.status(400);
+                        return "{\"error\": \"since must be a version number\"}";
+                    }
+                    if (!ExportService.isVersionAvailable(since)) {
+                        res.status(410);
+                        return "{\"error\": \"Changes since this version are no longer available, run a full export\"}";
+                    }
+                }
+
+                long changesSince = since;
+                Job job = JobManager.submit("export", table + (since >= 0 ? " since " + since : ""), j -> {
+                    File result = JobManager.newFile("export-" + table + "-", ".csv");
+                    j.setResult(result, table + ".csv", "text/csv");
+                    j.putDetail("exportVersion", ExportService.writeTableCsv(table, changesSince, result, j));
+                });
+                return submitted(job, res);
+            }
+        }));
+
+        // Import a CSV file into a table
+        transport.post("/jobs/import/:table", AdmissionControl.guard("jobs.import", Lane.BULK, new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                String table = req.params(":table");
+                if (!ExportService.isExportableTable(table)) {
+                    res.status(400);
+                    return "{\"error\": \"Invalid table name. Allowed tables: items, inventory, distributors, distributor_prices\"}";
+                }
+
+                // Spool the upload to disk first; the job reads it from there
+                File upload = JobManager.newFile("import-" + table + "-", ".csv");
+                try (InputStream body = req.bodyStream()) {
+                    Files.copy(body, upload.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                Job job = JobManager.submit("import", table + " (" + upload.length() + " bytes)", j -> {
+                    j.setInput(upload);
+                    long[] counts = ImportService.importCsv(table, upload, j);
+                    j.putDetail("inserted", counts[0]);
+                    j.putDetail("updated", counts[1]);
+                    j.putDetail("deleted", counts[2]);
+                });
+                if (job == null) {
+                    Files.deleteIfExists(upload.toPath());
+                } else {
+                    job.setInput(upload);
+                }
+                return submitted(job, res);
+            }
+        }));
+
+        // List jobs
+        transport.get("/jobs", new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                return JobManager.list();
+            }
+        });
+
+        // Job state and progress
+        transport.get("/jobs/:id", new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                Job job = JobManager.get(req.params(":id"));
+                if (job == null) {
+                    res.status(404);
+                    return "{\"error\": \"Job not found\"}";
+                }
+                return job.toJson();
+            }
+        });
+
+        // Download the result of a finished job
+        transport.get("/jobs/:id/result", AdmissionControl.guard("jobs.result", Lane.BULK, new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                Job job = JobManager.get(req.params(":id"));
+                if (job == null) {
+                    res.status(404);
+                    res.type("application/json");
+                    return "{\"error\": \"Job not found\"}";
+                }
+                if (job.getState() != Job.State.SUCCEEDED || job.getResult() == null) {
+                    res.status(409);
+                    res.type("application/json");
+                    return "{\"error\": \"Job has no result: it is " + job.getState().name().toLowerCase() + "\"}";
+                }
+
+                res.type(job.getResultType());
+                res.header("Content-Disposition", "attachment; filename=\"" + job.getResultName() + "\"");
+                res.header("Cache-Control", "no-cache");
+                OutputStream out = res.outputStream();
+                Files.copy(job.getResult().toPath(), out);
+                out.flush();
+                return "";
+            }
+        }));
+
+        // Cancel or delete a job
+        transport.delete("/jobs/:id", new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                if (!JobManager.cancelOrDelete(req.params(":id"))) {
+                    res.status(404);
+                    return "{\"error\": \"Job not found\"}";
+                }
+                return JobManager.get(req.params(":id")) != null
+                        ? JobManager.get(req.params(":id")).toJson()
+                        : "{\"message\": \"Job deleted\"}";
+            }
+        });
+    }
+
+    private static Object submitted(Job job, Response res) {
+        if (job == null) {
+            res.status(503);
+            return "{\"error\": \"Too many jobs are queued, try again later\"}";
+        }
+        res.status(202);
+        res.header("Location", "/jobs/" + job.getId());
+        return job.toJson();
+    }
+}
@@ -0,0 +1,43 @@
+package com.topbloc.codechallenge.routes;
+
+import com.topbloc.codechallenge.db.DatabaseMaintenance;
+import com.topbloc.codechallenge.http.Request;
+import com.topbloc.codechallenge.http.Response;
+import com.topbloc.codechallenge.http.Route;
+import com.topbloc.codechallenge.http.Transport;
+import com.topbloc.codechallenge.routes.AdmissionControl.Lane;
+import org.json.simple.JSONObject;
+
+/*
+ * This class defines the HTTP routes for database maintenance.
+ * 
+ * Available endpoints:
+ * - POST /maintenance/:task - Run a maintenance task now (checkpoint, optimize, analyze, retention,
+ *   incremental_vacuum or vacuum), regardless of its interval and of load, and return its before/after page
+ *   counts and duration
+ * 
+ * The scheduled runs and their results are reported by GET /metrics/maintenance (see DatabaseMaintenance).
+ */
+
+public class MaintenanceRoutes {
+    
+    public static void initialize(Transport transport) {
+        
+        // Run one maintenance task now
+        transport.post("/maintenance/:task", AdmissionControl.guard("maintenance.run", Lane.BULK, new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                JSONObject run = DatabaseMaintenance.runNow(req.params(":task"));
+                if (run == null) {
+                    res.status(404);
+                    return "{\"error\": \"Unknown maintenance task. Tasks: checkpoint, optimize, analyze, retention, incremental_vacuum, vacuum\"}";
+                }
+                if (run.containsKey("error")) {
+                    res.status(500);
+                }
+                return run;
+            }
+        }));
+    }
+}
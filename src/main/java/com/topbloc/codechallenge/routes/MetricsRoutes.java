@@ -0,0 +1,144 @@
+package com.topbloc.codechallenge.routes;
+
+import com.topbloc.codechallenge.alerts.AlertEngine;
+import com.topbloc.codechallenge.cache.SingleFlight;
+import com.topbloc.codechallenge.db.DatabaseMaintenance;
+import com.topbloc.codechallenge.db.DatabaseManager;
+import com.topbloc.codechallenge.http.Request;
+import com.topbloc.codechallenge.http.Response;
+import com.topbloc.codechallenge.http.Route;
+import com.topbloc.codechallenge.http.Transport;
+import com.topbloc.codechallenge.jobs.JobManager;
+import com.topbloc.codechallenge.service.DistributorCompactor;
+import com.topbloc.codechallenge.service.DistributorService;
+import com.topbloc.codechallenge.service.InventoryService;
+import com.topbloc.codechallenge.service.InventoryStore;
+import com.topbloc.codechallenge.service.PriceMatrix;
+import org.json.simple.JSONArray;
+
+/*
+ * This class defines HTTP routes that expose runtime metrics of the backend.
+ * 
+ * Available endpoints:
+ * - GET /metrics/cache - Hit rate, evictions and memory footprint of the distributor result caches
+ * - GET /metrics/query-plans - Cached filter plans and plan cache hits per filterable endpoint
+ * - GET /metrics/read-mirror - Load and replay counters of the in-memory read mirror
+ * - GET /metrics/inventory-store - Rows, heap footprint and loads of the columnar inventory store
+ * - GET /metrics/price-matrix - Size, loads and last computation time of the restock price matrix
+ * - GET /metrics/compactor - Deleted distributors awaiting compaction and rows purged so far
+ * - GET /metrics/maintenance - Page counts and the last run (before/after pages, duration) of each maintenance task
+ * - GET /metrics/jobs - Running, queued and retained jobs and their outcome counters
+ * - GET /metrics/admission - Per-route concurrency, queue depth and rejection counters
+ * - GET /metrics/single-flight - Executed and collapsed (coalesced) GET requests
+ * - GET /metrics/alerts - Alert evaluations, emitted events and stream subscribers
+ * 
+ * All endpoints return JSON responses.
+ */
+
+public class MetricsRoutes {
+    
+    public static void initialize(Transport transport) {
+        
+        // Result cache statistics
+        transport.get("/metrics/cache", new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                return DistributorService.getCacheStats();
+            }
+        });
+        
+        // Filter plan cache statistics
+        transport.get("/metrics/query-plans", new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                JSONArray stats = new JSONArray();
+                stats.add(InventoryService.INVENTORY_FILTER.getStats());
+                stats.add(DistributorService.CATALOG_FILTER.getStats());
+                return stats;
+            }
+        });
+        
+        // Columnar inventory store statistics
+        transport.get("/metrics/inventory-store", new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                return InventoryStore.getStats();
+            }
+        });
+        
+        // Restock price matrix statistics
+        transport.get("/metrics/price-matrix", new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                return PriceMatrix.getStats();
+            }
+        });
+        
+        // Distributor compactor statistics
+        transport.get("/metrics/compactor", new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                return DistributorCompactor.getStats();
+            }
+        });
+        
+        // Database maintenance statistics
+        transport.get("/metrics/maintenance", new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                return DatabaseMaintenance.getStats();
+            }
+        });
+        
+        // Asynchronous job statistics
+        transport.get("/metrics/jobs", new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                return JobManager.getStats();
+            }
+        });
+        
+        // In-memory read mirror statistics
+        transport.get("/metrics/read-mirror", new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                return DatabaseManager.getReadMirrorStats();
+            }
+        });
+        
+        // Admission control statistics
+        transport.get("/metrics/admission", new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                return AdmissionControl.getStats();
+            }
+        });
+        
+        // Request coalescing statistics
+        transport.get("/metrics/single-flight", new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                return SingleFlight.getStats();
+            }
+        });
+        
+        // Alert engine statistics
+        transport.get("/metrics/alerts", new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                return AlertEngine.getStats();
+            }
+        });
+    }
+}
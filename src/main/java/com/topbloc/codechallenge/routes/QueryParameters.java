@@ -0,0 +1,67 @@
+package com.topbloc.codechallenge.routes;
+
+import com.topbloc.codechallenge.http.HaltException;
+import com.topbloc.codechallenge.http.Request;
+import com.topbloc.codechallenge.service.FieldProjection;
+import com.topbloc.codechallenge.service.RowFilter;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Parsing of query parameters shared by several list endpoints. Invalid values end the request with 400.
+ * - fields=: subset of the endpoint's whitelisted fields (see FieldProjection)
+ * - ids=: comma separated list of numeric IDs for multi-get, duplicates removed, request order kept
+ * - filter=, sort=, limit=: filter and sort query compiled by the endpoint's RowFilter
+ */
+class QueryParameters {
+    static final int MAX_IDS = 1000;
+
+    static List<String> fields(Request req, FieldProjection projection) {
+        try {
+            return projection.parse(req.queryParams("fields"));
+        } catch (IllegalArgumentException e) {
+            throw new HaltException(400, "{\"error\": \"" + e.getMessage() + "\"}");
+        }
+    }
+
+    // Whether the request uses the filter language at all
+    static boolean hasFilter(Request req) {
+        return req.queryParams("filter") != null || req.queryParams("sort") != null || req.queryParams("limit") != null;
+    }
+
+    static RowFilter.Query filter(Request req, RowFilter rowFilter) {
+        String[] filters = req.queryParamsValues("filter");
+        try {
+            return rowFilter.parse(filters != null ? Arrays.asList(filters) : Collections.emptyList(),
+                    req.queryParams("sort"), req.queryParams("limit"));
+        } catch (IllegalArgumentException e) {
+            throw new HaltException(400, "{\"error\": \"" + JSONObject.escape(e.getMessage()) + "\"}");
+        }
+    }
+
+    static List<Integer> ids(Request req) {
+        Set<Integer> ids = new LinkedHashSet<>();
+        for (String value : req.queryParams("ids").split(",")) {
+            if (value.trim().isEmpty()) {
+                continue;
+            }
+            int id;
+            try {
+                id = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                throw new HaltException(400, "{\"error\": \"ids must be a comma separated list of numbers\"}");
+            }
+            ids.add(id);
+        }
+        if (ids.isEmpty() || ids.size() > MAX_IDS) {
+            throw new HaltException(400, "{\"error\": \"ids must contain between 1 and " + MAX_IDS + " IDs\"}");
+        }
+        return new ArrayList<>(ids);
+    }
+}
@@ -0,0 +1,118 @@
+package com.topbloc.codechallenge.routes;
+
+import com.topbloc.codechallenge.http.HaltException;
+import com.topbloc.codechallenge.http.Request;
+import com.topbloc.codechallenge.http.Response;
+import com.topbloc.codechallenge.http.Route;
+import com.topbloc.codechallenge.http.Transport;
+import com.topbloc.codechallenge.replication.Replication;
+import org.json.simple.JSONObject;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+/*
+ * This class defines the HTTP routes used for leader/follower replication.
+ * 
+ * Available endpoints:
+ * - GET /replication/status - Role, log position and replication lag of this node
+ * - GET /replication/log?epoch=&after=&limit= - Leader only: committed mutation batches after a sequence number
+ * - GET /replication/snapshot - Leader only: SQLite copy of the database with its epoch and sequence number headers
+ * 
+ * On a follower, every write request (and /reset) is rejected with 403 and an X-Replication-Leader header,
+ * because writes must go through the leader to enter the replication log. Export jobs only read the database,
+ * so submitting and cancelling them (POST /jobs/export/..., DELETE /jobs/:id) is allowed.
+ */
+
+public class ReplicationRoutes {
+    
+    public static void initialize(Transport transport) {
+        
+        // Followers are read-only
+        transport.before((req, res) -> {
+            if (!Replication.isFollower()) {
+                return;
+            }
+            String method = req.requestMethod();
+            boolean isWrite = !method.equals("GET") && !method.equals("OPTIONS") && !method.equals("HEAD");
+            if (isWrite && isLocalJobRequest(method, req.pathInfo())) {
+                isWrite = false;
+            }
+            if (isWrite || req.pathInfo().equals("/reset")) {
+                res.type("application/json");
+                res.header("X-Replication-Leader", Replication.getLeaderUrl());
+                throw new HaltException(403, "{\"error\": \"This node is a read-only follower, send writes to the leader\"}");
+            }
+        });
+        
+        // Replication status and lag
+        transport.get("/replication/status", new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                return Replication.getStatus();
+            }
+        });
+        
+        // Mutation log for followers
+        transport.get("/replication/log", new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                if (!Replication.isLeader()) {
+                    res.status(404);
+                    return "{\"error\": \"This node is not a replication leader\"}";
+                }
+                
+                long after;
+                int limit;
+                try {
+                    after = Long.parseLong(req.queryParams("after"));
+                    String limitParam = req.queryParams("limit");
+                    limit = limitParam == null ? 500 : Integer.parseInt(limitParam);
+                } catch (NumberFormatException e) {
+                    res.status(400);
+                    return "{\"error\": \"after and limit must be valid numbers\"}";
+                }
+                
+                JSONObject batches = Replication.getLog().readAfter(req.queryParams("epoch"), after, Math.max(1, limit));
+                if (batches == null) {
+                    res.status(410);
+                    return "{\"error\": \"Log position is no longer available, bootstrap from /replication/snapshot\"}";
+                }
+                return batches;
+            }
+        });
+        
+        // Point-in-time database copy for bootstrapping followers
+        transport.get("/replication/snapshot", new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                if (!Replication.isLeader()) {
+                    res.status(404);
+                    res.type("application/json");
+                    return "{\"error\": \"This node is not a replication leader\"}";
+                }
+                
+                Replication.Snapshot snapshot = Replication.takeSnapshot();
+                try {
+                    res.type("application/vnd.sqlite3");
+                    res.header("X-Replication-Epoch", snapshot.epoch);
+                    res.header("X-Replication-Seq", String.valueOf(snapshot.seq));
+                    OutputStream out = res.outputStream();
+                    Files.copy(snapshot.file.toPath(), out);
+                    out.flush();
+                    return "";
+                } finally {
+                    Files.deleteIfExists(snapshot.file.toPath());
+                }
+            }
+        });
+    }
+
+    // Export jobs and job cancellation change only this node's job list and files, not the database
+    private static boolean isLocalJobRequest(String method, String path) {
+        return (method.equals("POST") && path.startsWith("/jobs/export/"))
+                || (method.equals("DELETE") && path.startsWith("/jobs/"));
+    }
+}
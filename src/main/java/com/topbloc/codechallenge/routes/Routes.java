@@ -1,14 +1,23 @@
 package com.topbloc.codechallenge.routes;
 
+import com.topbloc.codechallenge.http.Transport;
+
 /*
- * Main routes class that initializes all route handlers
+ * Main routes class that initializes all route handlers on the given transport
  */
 public class Routes {
     
-    public static void initializeAll() {
+    public static void initializeAll(Transport transport) {
 
-        InventoryRoutes.initialize();
-        DistributorRoutes.initialize();
-        ExportRoutes.initialize();
+        ReplicationRoutes.initialize(transport);
+        InventoryRoutes.initialize(transport);
+        DistributorRoutes.initialize(transport);
+        ExportRoutes.initialize(transport);
+        AlertRoutes.initialize(transport);
+        MaintenanceRoutes.initialize(transport);
+        SnapshotRoutes.initialize(transport);
+        DatasetRoutes.initialize(transport);
+        JobRoutes.initialize(transport);
+        MetricsRoutes.initialize(transport);
     }
 }
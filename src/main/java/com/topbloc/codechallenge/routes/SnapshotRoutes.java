@@ -0,0 +1,82 @@
+package com.topbloc.codechallenge.routes;
+
+import com.topbloc.codechallenge.db.SnapshotStore;
+import com.topbloc.codechallenge.http.Request;
+import com.topbloc.codechallenge.http.Response;
+import com.topbloc.codechallenge.http.Route;
+import com.topbloc.codechallenge.http.Transport;
+import com.topbloc.codechallenge.routes.AdmissionControl.Lane;
+import org.json.simple.JSONObject;
+
+/*
+ * This class defines the HTTP routes for named database snapshots.
+ * 
+ * Available endpoints:
+ * - GET /snapshots - List the named snapshots with their size and creation time, newest first
+ * - POST /snapshots/:name - Snapshot the current database under a name (replaces a snapshot of that name)
+ * - POST /snapshots/:name/restore - Replace the database contents with a snapshot
+ * - DELETE /snapshots/:name - Delete a snapshot
+ * 
+ * Names are 1-64 letters, digits, '-', '_' or '.', starting with a letter or digit.
+ * Snapshots are taken and restored with SQLite's online backup API (see SnapshotStore).
+ */
+
+public class SnapshotRoutes {
+    
+    public static void initialize(Transport transport) {
+        
+        // List snapshots
+        transport.get("/snapshots", new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                return SnapshotStore.list();
+            }
+        });
+        
+        // Take a snapshot
+        transport.post("/snapshots/:name", AdmissionControl.guard("snapshots.take", Lane.BULK, new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                String name = req.params(":name");
+                if (!SnapshotStore.isValidName(name)) {
+                    res.status(400);
+                    return "{\"error\": \"Invalid snapshot name\"}";
+                }
+                JSONObject snapshot = SnapshotStore.take(name);
+                res.status(201);
+                return snapshot;
+            }
+        }));
+        
+        // Restore a snapshot
+        transport.post("/snapshots/:name/restore", AdmissionControl.guard("snapshots.restore", Lane.BULK, new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                String name = req.params(":name");
+                JSONObject snapshot = SnapshotStore.isValidName(name) ? SnapshotStore.restore(name) : null;
+                if (snapshot == null) {
+                    res.status(404);
+                    return "{\"error\": \"Snapshot " + name + " does not exist\"}";
+                }
+                return snapshot;
+            }
+        }));
+        
+        // Delete a snapshot
+        transport.delete("/snapshots/:name", AdmissionControl.guard("snapshots.delete", Lane.STANDARD, new Route() {
+            @Override
+            public Object handle(Request req, Response res) throws Exception {
+                res.type("application/json");
+                String name = req.params(":name");
+                if (!SnapshotStore.isValidName(name) || !SnapshotStore.delete(name)) {
+                    res.status(404);
+                    return "{\"error\": \"Snapshot " + name + " does not exist\"}";
+                }
+                return "{\"message\": \"Snapshot " + name + " deleted\"}";
+            }
+        }));
+    }
+}
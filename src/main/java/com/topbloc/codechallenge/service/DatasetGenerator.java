@@ -0,0 +1,451 @@
+package com.topbloc.codechallenge.service;
+
+import com.topbloc.codechallenge.db.DatabaseManager;
+import com.topbloc.codechallenge.db.SchemaExtensions;
+import com.topbloc.codechallenge.db.SnapshotStore;
+import org.json.simple.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/*
+ * Deterministic synthetic datasets for capacity and load testing, from a few hundred to 10^8 rows.
+ *
+ * The same seed and sizes always produce the same database:
+ * - items: unique candy-like names ("<flavor> <kind> <id>")
+ * - inventory: a random subset of the items with log-spread capacities (10-1000) and stock drawn from the
+ *   out of stock / low stock / normal / overstocked bands in the requested proportions
+ * - distributors: catalog sizes follow a Zipf distribution (skew 1.0 by default), so a few distributors carry
+ *   most of the price rows and most carry a few
+ * - distributor_prices: each catalog is a random subset of the items, priced at a per-item base price
+ *   (log-normal around 1.00) times a per-distributor markup
+ *
+ * Rows are streamed in primary key order through multi-row INSERTs into a new file with journaling off, and the
+ * SchemaExtensions indexes, views and search index are built once after the load. The file is then copied into
+ * the live database with SnapshotStore.replaceWith(), like a snapshot restore. Subsets are affine permutations
+ * of the item IDs, so no generator state grows with the row count.
+ *
+ * Usage (server stopped): java -cp "target/java-api.jar:target/lib/*" com.topbloc.codechallenge.service.DatasetGenerator
+ *   [items=N] [inventory=N] [distributors=N] [prices=N] [seed=N] [skew=X] [bands=out,low,normal,over]
+ */
+public class DatasetGenerator {
+    private static final String[] CHALLENGE_TABLES = {"items", "inventory", "distributors", "distributor_prices"};
+    // SQLite allows 32766 bound parameters per statement
+    private static final int MAX_PARAMETERS = 32000;
+    private static final String[] FLAVORS = {"Sour", "Cherry", "Lemon", "Chocolate", "Caramel", "Mint", "Peach",
+            "Grape", "Cola", "Honey", "Maple", "Toffee", "Watermelon", "Licorice", "Banana", "Coconut"};
+    private static final String[] KINDS = {"Drops", "Gummies", "Wafers", "Chews", "Rings", "Bites", "Taffy",
+            "Lollipops", "Twists", "Bars", "Jellies", "Creams", "Sticks", "Buttons", "Bears", "Worms"};
+    private static final String[] SUPPLIERS = {"Candy", "Sweet", "Sugar", "Treat", "Confection", "Cocoa", "Gumdrop"};
+    private static final String[] COMPANIES = {"Corp", "Supply", "Wholesale", "Traders", "Distribution", "Co"};
+
+    // Sizes and distributions of one dataset
+    public static class Spec {
+        final int items;
+        final int inventory;
+        final int distributors;
+        final long prices;
+        final long seed;
+        final double skew;
+        // Out of stock, low stock, normal and overstocked shares of the inventory rows
+        final double[] bands;
+
+        public Spec(int items, int inventory, int distributors, long prices, long seed, double skew, double[] bands) {
+            this.items = items;
+            this.inventory = inventory;
+            this.distributors = distributors;
+            this.prices = prices;
+            this.seed = seed;
+            this.skew = skew;
+            this.bands = bands;
+        }
+
+        // Returns a description of the first invalid value, or null
+        public String validate() {
+            if (items < 1 || inventory < 0 || distributors < 0 || prices < 0) {
+                return "items must be positive; inventory, distributors and prices must not be negative";
+            }
+            if (inventory > items) {
+                return "inventory cannot exceed items";
+            }
+            if (prices > (long) items * distributors) {
+                return "prices cannot exceed items x distributors";
+            }
+            if (!(skew >= 0) || Double.isInfinite(skew)) {
+                return "skew must be a finite, non-negative number";
+            }
+            // NaN fails every comparison, so each weight is checked with Double.isFinite rather than "< 0"
+            double total = 0;
+            for (double band : bands) {
+                if (!Double.isFinite(band) || band < 0) {
+                    return "bands must be four finite, non-negative weights (out,low,normal,over)";
+                }
+                total += band;
+            }
+            if (bands.length != 4 || total <= 0) {
+                return "bands must be four finite, non-negative weights (out,low,normal,over)";
+            }
+            return null;
+        }
+    }
+
+    // Generate a dataset and replace the live database contents with it
+    public static JSONObject generate(Spec spec) throws Exception {
+        long start = System.nanoTime();
+        File dbFile = DatabaseManager.getDatabaseFile();
+        // Next to the database, so the generated file is on the same disk and not limited by a small /tmp
+        File file = File.createTempFile("dataset-", ".db", dbFile.getParentFile());
+        try {
+            JSONObject result = write(spec, file);
+            result.put("generateMillis", (System.nanoTime() - start) / 1_000_000);
+            result.put("bytes", file.length());
+
+            long loadStart = System.nanoTime();
+            SnapshotStore.replaceWith(file);
+            result.put("loadMillis", (System.nanoTime() - loadStart) / 1_000_000);
+            return result;
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    private static JSONObject write(Spec spec, File file) throws SQLException, IOException {
+        Files.deleteIfExists(file.toPath());
+        List<String> schema = challengeSchema();
+        long autoVacuum = DatabaseManager.withWriteLock(conn -> pragmaLong(conn, "auto_vacuum"));
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+             Statement stmt = conn.createStatement()) {
+            // Nothing to recover if the load fails: the file is thrown away
+            stmt.execute("PRAGMA journal_mode = OFF");
+            stmt.execute("PRAGMA synchronous = OFF");
+            stmt.execute("PRAGMA locking_mode = EXCLUSIVE");
+            stmt.execute("PRAGMA cache_size = -262144");
+            // Match the live file, so the maintenance scheduler does not have to convert it with a full VACUUM
+            stmt.execute("PRAGMA auto_vacuum = " + autoVacuum);
+            for (String sql : schema) {
+                stmt.execute(sql);
+            }
+
+            SplittableRandom random = new SplittableRandom(spec.seed);
+            conn.setAutoCommit(false);
+            writeItems(conn, spec);
+            long[] bandCounts = writeInventory(conn, spec, random.split());
+            writeDistributors(conn, spec);
+            long prices = writePrices(conn, spec, random.split());
+            conn.commit();
+            conn.setAutoCommit(true);
+
+            SchemaExtensions.apply(conn, true);
+            // Sampled statistics, so the planner knows the new sizes without a full ANALYZE of every index
+            stmt.execute("PRAGMA analysis_limit = 1000");
+            stmt.execute("ANALYZE");
+
+            JSONObject result = new JSONObject();
+            result.put("seed", spec.seed);
+            result.put("items", spec.items);
+            result.put("inventory", spec.inventory);
+            result.put("distributors", spec.distributors);
+            result.put("prices", prices);
+            JSONObject bands = new JSONObject();
+            bands.put("outOfStock", bandCounts[0]);
+            bands.put("lowStock", bandCounts[1]);
+            bands.put("normal", bandCounts[2]);
+            bands.put("overstocked", bandCounts[3]);
+            result.put("bands", bands);
+            return result;
+        }
+    }
+
+    private static void writeItems(Connection conn, Spec spec) throws SQLException {
+        try (BulkInsert insert = new BulkInsert(conn, "items (id, name)", 2)) {
+            for (int id = 1; id <= spec.items; id++) {
+                insert.row(id, itemName(id));
+            }
+        }
+    }
+
+    // Returns the number of rows written per band
+    private static long[] writeInventory(Connection conn, Spec spec, SplittableRandom random) throws SQLException {
+        long[] counts = new long[4];
+        double[] cumulative = cumulative(spec.bands);
+        Permutation items = new Permutation(spec.items, random);
+        try (BulkInsert insert = new BulkInsert(conn, "inventory (id, item, stock, capacity)", 4)) {
+            for (int id = 1; id <= spec.inventory; id++) {
+                // Log-uniform between 10 and 1000, so small and large bins are equally common per decade
+                int capacity = (int) Math.round(10 * Math.pow(100, random.nextDouble()));
+                int band = pick(cumulative, random.nextDouble());
+                counts[band]++;
+                insert.row(id, items.get(id - 1), stock(band, capacity, random), capacity);
+            }
+        }
+        return counts;
+    }
+
+    // Stock for a band (see InventoryService: low stock is below LOW_STOCK_RATIO of capacity, overstocked above it)
+    private static int stock(int band, int capacity, SplittableRandom random) {
+        int lowLimit = (int) Math.ceil(capacity * InventoryStatistics.LOW_STOCK_RATIO);
+        switch (band) {
+            case 0:
+                return 0;
+            case 1:
+                return 1 + random.nextInt(lowLimit - 1);
+            case 2:
+                return lowLimit + random.nextInt(capacity - lowLimit + 1);
+            default:
+                return capacity + 1 + random.nextInt(capacity / 2 + 1);
+        }
+    }
+
+    private static void writeDistributors(Connection conn, Spec spec) throws SQLException {
+        try (BulkInsert insert = new BulkInsert(conn, "distributors (id, name)", 2)) {
+            for (int id = 1; id <= spec.distributors; id++) {
+                insert.row(id, SUPPLIERS[(id - 1) % SUPPLIERS.length] + " "
+                        + COMPANIES[(id - 1) / SUPPLIERS.length % COMPANIES.length] + " " + id);
+            }
+        }
+    }
+
+    // Returns the number of price rows written (the requested number, unless large catalogs had to be capped)
+    private static long writePrices(Connection conn, Spec spec, SplittableRandom random) throws SQLException {
+        long[] catalogSizes = catalogSizes(spec);
+        long written = 0;
+        try (BulkInsert insert = new BulkInsert(conn, "distributor_prices (id, distributor, item, cost)", 4)) {
+            for (int distributor = 1; distributor <= spec.distributors; distributor++) {
+                Permutation items = new Permutation(spec.items, random);
+                // Between 15% below and 25% above the base price
+                double markup = 0.85 + 0.4 * random.nextDouble();
+                for (long k = 0; k < catalogSizes[distributor - 1]; k++) {
+                    int item = items.get(k);
+                    double cost = Math.max(0.01, Math.round(basePrice(spec.seed, item) * markup * 100) / 100.0);
+                    insert.row(++written, distributor, item, cost);
+                }
+            }
+        }
+        return written;
+    }
+
+    // Zipf shares of the price rows, largest catalog first, each capped at the number of items
+    private static long[] catalogSizes(Spec spec) {
+        long[] sizes = new long[spec.distributors];
+        double total = 0;
+        for (int d = 1; d <= spec.distributors; d++) {
+            total += 1 / Math.pow(d, spec.skew);
+        }
+        long remaining = spec.prices;
+        for (int d = 1; d <= spec.distributors; d++) {
+            long share = d == spec.distributors ? remaining
+                    : Math.round(spec.prices * (1 / Math.pow(d, spec.skew)) / total);
+            sizes[d - 1] = Math.min(Math.min(share, remaining), spec.items);
+            remaining -= sizes[d - 1];
+        }
+        // Hand what the caps cut off to the catalogs that still have room
+        for (int d = 0; d < spec.distributors && remaining > 0; d++) {
+            long extra = Math.min(remaining, spec.items - sizes[d]);
+            sizes[d] += extra;
+            remaining -= extra;
+        }
+        return sizes;
+    }
+
+    // Per-item price shared by all distributors: log-normal with a median of 1.00, derived from the item ID alone
+    private static double basePrice(long seed, int item) {
+        SplittableRandom random = new SplittableRandom(seed * 31 + item);
+        double gaussian = Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+        return Math.exp(0.6 * gaussian);
+    }
+
+    private static String itemName(int id) {
+        int word = (id - 1) % (FLAVORS.length * KINDS.length);
+        return FLAVORS[word / KINDS.length] + " " + KINDS[word % KINDS.length] + " " + id;
+    }
+
+    private static double[] cumulative(double[] weights) {
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        double[] cumulative = new double[weights.length];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            cumulative[i] = sum / total;
+        }
+        return cumulative;
+    }
+
+    private static int pick(double[] cumulative, double value) {
+        for (int i = 0; i < cumulative.length - 1; i++) {
+            if (value < cumulative[i]) {
+                return i;
+            }
+        }
+        return cumulative.length - 1;
+    }
+
+    // The CREATE TABLE statements of the challenge tables, as the live database has them
+    private static List<String> challengeSchema() throws SQLException {
+        return DatabaseManager.withWriteLock(conn -> {
+            List<String> statements = new ArrayList<>();
+            for (String table : CHALLENGE_TABLES) {
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+                    stmt.setString(1, table);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        if (!rs.next()) {
+                            throw new SQLException("Table " + table + " does not exist; reset the database first");
+                        }
+                        statements.add(rs.getString(1));
+                    }
+                }
+            }
+            return statements;
+        });
+    }
+
+    private static long pragmaLong(Connection conn, String pragma) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA " + pragma)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    // A random ordering of the IDs 1..n without storing it: k -> (a * k + b) mod n + 1 with a coprime to n
+    private static class Permutation {
+        private final long n;
+        private final long a;
+        private final long b;
+
+        Permutation(long n, SplittableRandom random) {
+            this.n = n;
+            long candidate = 1 + random.nextLong(n);
+            while (gcd(candidate, n) != 1) {
+                candidate = candidate % n + 1;
+            }
+            this.a = candidate;
+            this.b = random.nextLong(n);
+        }
+
+        int get(long k) {
+            // a and k are below 2^31, so the product cannot overflow
+            return (int) ((a * k + b) % n) + 1;
+        }
+
+        private static long gcd(long x, long y) {
+            return y == 0 ? x : gcd(y, x % y);
+        }
+    }
+
+    // Buffers rows and writes them with one multi-row INSERT per full statement
+    private static class BulkInsert implements AutoCloseable {
+        private final Connection conn;
+        private final String target;
+        private final int columns;
+        private final int rowsPerStatement;
+        private final PreparedStatement full;
+        private final Object[] buffer;
+        private int buffered;
+
+        BulkInsert(Connection conn, String target, int columns) throws SQLException {
+            this.conn = conn;
+            this.target = target;
+            this.columns = columns;
+            this.rowsPerStatement = MAX_PARAMETERS / columns;
+            this.full = conn.prepareStatement(insertSql(rowsPerStatement));
+            this.buffer = new Object[rowsPerStatement * columns];
+        }
+
+        void row(Object... values) throws SQLException {
+            System.arraycopy(values, 0, buffer, buffered * columns, columns);
+            if (++buffered == rowsPerStatement) {
+                flush(full);
+            }
+        }
+
+        private void flush(PreparedStatement stmt) throws SQLException {
+            for (int i = 0; i < buffered * columns; i++) {
+                stmt.setObject(i + 1, buffer[i]);
+            }
+            stmt.executeUpdate();
+            buffered = 0;
+        }
+
+        private String insertSql(int rows) {
+            String row = "(" + "?,".repeat(columns - 1) + "?)";
+            StringBuilder sql = new StringBuilder("INSERT INTO ").append(target).append(" VALUES ").append(row);
+            for (int i = 1; i < rows; i++) {
+                sql.append(',').append(row);
+            }
+            return sql.toString();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try {
+                if (buffered > 0) {
+                    try (PreparedStatement tail = conn.prepareStatement(insertSql(buffered))) {
+                        flush(tail);
+                    }
+                }
+            } finally {
+                full.close();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int items = 100000;
+        Integer inventory = null;
+        int distributors = 50;
+        Long prices = null;
+        long seed = 42;
+        double skew = 1.0;
+        double[] bands = {5, 20, 65, 10};
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            String value = pair.length > 1 ? pair[1] : "";
+            switch (pair[0]) {
+                case "items": items = Integer.parseInt(value); break;
+                case "inventory": inventory = Integer.parseInt(value); break;
+                case "distributors": distributors = Integer.parseInt(value); break;
+                case "prices": prices = Long.parseLong(value); break;
+                case "seed": seed = Long.parseLong(value); break;
+                case "skew": skew = Double.parseDouble(value); break;
+                case "bands": bands = parseBands(value); break;
+                default: throw new IllegalArgumentException("Unknown argument " + arg);
+            }
+        }
+        Spec spec = new Spec(items, inventory != null ? inventory : (int) (items * 9L / 10), distributors,
+                prices != null ? prices : Math.min((long) items * 5, (long) items * distributors), seed, skew, bands);
+        String error = spec.validate();
+        if (error != null) {
+            throw new IllegalArgumentException(error);
+        }
+
+        DatabaseManager.connect();
+        if (DatabaseManager.getItems() == null) {
+            SnapshotStore.rebuild();
+        }
+        System.out.println(generate(spec).toJSONString());
+        System.exit(0);
+    }
+
+    // "out,low,normal,over" weights, e.g. 5,20,65,10
+    public static double[] parseBands(String value) {
+        String[] parts = value.split(",");
+        double[] bands = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            bands[i] = Double.parseDouble(parts[i].trim());
+        }
+        return bands;
+    }
+}
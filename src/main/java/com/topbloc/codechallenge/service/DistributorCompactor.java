@@ -0,0 +1,151 @@
+package com.topbloc.codechallenge.service;
+
+import com.topbloc.codechallenge.config.Settings;
+import com.topbloc.codechallenge.db.DatabaseManager;
+import com.topbloc.codechallenge.replication.Replication;
+import com.topbloc.codechallenge.routes.AdmissionControl;
+import org.json.simple.JSONObject;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Background purge of soft-deleted distributors.
+ *
+ * DistributorService.deleteDistributor() only writes a row to distributor_tombstones; reads go through the
+ * active_distributors / active_distributor_prices views and stop seeing the distributor at once. This
+ * compactor then deletes the orphaned price rows while the server is idle (AdmissionControl.isIdle()):
+ * - every "distributors.compactor.interval_ms" it checks for tombstones
+ * - it deletes at most "distributors.compactor.batch_size" price rows per transaction, so the write lock is
+ *   only held briefly, and stops as soon as a request is admitted
+ * - once a distributor has no price rows left, its distributors row and its tombstone are removed
+ *
+ * The price rows were already recorded as deletes in the change log when the distributor was tombstoned, so
+ * the purge itself logs nothing. Followers do not run the compactor: they receive the leader's purge batches
+ * through replication.
+ */
+public class DistributorCompactor {
+    private static final long intervalMillis = Settings.getLong("distributors.compactor.interval_ms", 1000);
+    private static final long quietMillis = Settings.getLong("distributors.compactor.idle_ms", 2000);
+    private static final int batchSize = Settings.getInt("distributors.compactor.batch_size", 500);
+
+    private static ScheduledExecutorService scheduler;
+    private static long purgedRows;
+    private static long purgedDistributors;
+    private static long batches;
+    private static long lastBatchMicros;
+
+    public static synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "distributor-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(DistributorCompactor::runWhileIdle, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Purge batches until nothing is left or the server gets busy
+    private static void runWhileIdle() {
+        try {
+            while (!Replication.isFollower() && AdmissionControl.isIdle(quietMillis)) {
+                Integer distributorId = nextTombstone();
+                if (distributorId == null) {
+                    return;
+                }
+                purgeBatch(distributorId);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error compacting deleted distributors: " + e.getMessage());
+        }
+    }
+
+    // Purge every remaining row of one tombstoned distributor now, e.g. to free its name for a new distributor
+    public static void purge(int distributorId) throws SQLException {
+        while (purgeBatch(distributorId)) {
+            // Keep going until the distributor row itself is gone
+        }
+    }
+
+    // Delete one batch of the distributor's price rows, or the distributor and its tombstone once none are left.
+    // Returns false when there was nothing left to purge.
+    private static boolean purgeBatch(int distributorId) throws SQLException {
+        return DatabaseManager.withWriteLock(conn -> {
+            if (!isTombstoned(conn, distributorId)) {
+                return false;
+            }
+            long start = System.nanoTime();
+            List<Long> priceIds = new ArrayList<>();
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT id FROM distributor_prices WHERE distributor = ? LIMIT ?")) {
+                stmt.setInt(1, distributorId);
+                stmt.setInt(2, batchSize);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        priceIds.add(rs.getLong(1));
+                    }
+                }
+            }
+
+            DatabaseManager.inTransaction(t -> {
+                if (priceIds.isEmpty()) {
+                    DatabaseManager.executeUpdate("DELETE FROM distributors WHERE id = ?", distributorId);
+                    DatabaseManager.executeUpdate("DELETE FROM distributor_tombstones WHERE distributor = ?", distributorId);
+                } else {
+                    DatabaseManager.executeUpdate("DELETE FROM distributor_prices WHERE id IN ("
+                            + InventoryService.placeholders(priceIds.size()) + ")", priceIds.toArray());
+                }
+                return null;
+            });
+
+            synchronized (DistributorCompactor.class) {
+                batches++;
+                purgedRows += priceIds.size();
+                if (priceIds.isEmpty()) {
+                    purgedDistributors++;
+                }
+                lastBatchMicros = (System.nanoTime() - start) / 1_000;
+            }
+            return true;
+        });
+    }
+
+    // Oldest tombstone first
+    private static Integer nextTombstone() throws SQLException {
+        JSONObject row = DatabaseManager.queryRowForJson(
+                "SELECT distributor FROM distributor_tombstones ORDER BY deleted_at, distributor LIMIT 1");
+        return row == null ? null : ((Number) row.get("distributor")).intValue();
+    }
+
+    private static boolean isTombstoned(Connection conn, int distributorId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT 1 FROM distributor_tombstones WHERE distributor = ?")) {
+            stmt.setInt(1, distributorId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    public static JSONObject getStats() throws SQLException {
+        JSONObject pending = DatabaseManager.queryRowForJson("SELECT COUNT(*) AS pending FROM distributor_tombstones");
+        synchronized (DistributorCompactor.class) {
+            JSONObject stats = new JSONObject();
+            stats.put("running", scheduler != null && !Replication.isFollower());
+            stats.put("pendingDistributors", pending.get("pending"));
+            stats.put("purgedDistributors", purgedDistributors);
+            stats.put("purgedRows", purgedRows);
+            stats.put("batches", batches);
+            stats.put("lastBatchMicros", lastBatchMicros);
+            return stats;
+        }
+    }
+}
@@ -1,13 +1,19 @@
 package com.topbloc.codechallenge.service;
 
+import com.topbloc.codechallenge.cache.ResultCache;
+import com.topbloc.codechallenge.config.Settings;
+import com.topbloc.codechallenge.db.ChangeLog;
 import com.topbloc.codechallenge.db.DatabaseManager;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /*
  * This class contains all business logic for distributor-related operations in the candy inventory system.
@@ -23,12 +29,21 @@ import java.sql.SQLException;
  * Key methods:
  * - getAllDistributors(): Retrieve all distributor information
  * - getItemsByDistributor(): Get all items and prices from a specific distributor
+ * - getFilteredItemsByDistributor(): Catalog items matching a filter= / sort= query (see RowFilter)
  * - getOfferingsByItem(): Find all distributors offering a specific item with pricing
+ * - getOfferingsByItems(): Offerings of many items at once (multi-get), in request order
  * - addNewDistributor(): Create new distributor with validation
  * - addItemToDistributorCatalog(): Add items to catalog with duplicate prevention
  * - updateItemPriceInCatalog(): Modify existing item pricing
  * - getCheapestRestockPrice(): Calculate optimal restock pricing for quantities
- * - deleteDistributor(): Remove distributor and all associated catalog entries
+ * - getRestockCosts(): Cost of restocking all inventory at each distributor and at the cheapest mix (see PriceMatrix)
+ * - deleteDistributor(): Remove distributor and all associated catalog entries (tombstone, see DistributorCompactor)
+ * 
+ * Catalog (by distributor) and offering (by item) results are kept in bounded LRU caches.
+ * Every mutation invalidates exactly the distributor and item entries it touches.
+ * Price and catalog mutations also update the running inventory valuation in InventoryStatistics and the PriceMatrix.
+ * All mutations record the rows they change in the ChangeLog for delta exports.
+ * Reads go through the active_distributors / active_distributor_prices views, which hide deleted distributors.
  * 
  * All methods include proper error handling, input validation, and return structured JSON responses.
  * Database operations use prepared statements for security and transaction management for data consistency.
@@ -37,16 +52,56 @@ import java.sql.SQLException;
  */
 
 public class DistributorService {
+
+    // Fields the list endpoints can return (fields= parameter). Catalogs and offerings are cached as whole
+    // rows, so those two are trimmed after the cache rather than in SQL.
+    public static final FieldProjection DISTRIBUTOR_FIELDS = new FieldProjection()
+            .field("id", "id")
+            .field("name", "name");
+    public static final FieldProjection CATALOG_FIELDS = new FieldProjection()
+            .field("id", "i.id")
+            .field("name", "i.name")
+            .field("cost", "dp.cost");
+    public static final FieldProjection OFFERING_FIELDS = new FieldProjection()
+            .field("id", "d.id")
+            .field("name", "d.name")
+            .field("cost", "dp.cost");
+
+    // Fields a distributor catalog can filter and sort on (filter= / sort= parameters)
+    public static final RowFilter CATALOG_FILTER = new RowFilter("distributorItems", "i.id")
+            .field("id", "i.id", RowFilter.Type.INTEGER)
+            .field("name", "i.name", RowFilter.Type.TEXT)
+            .field("cost", "dp.cost", RowFilter.Type.REAL);
+
+    // Result caches for the purchasing UI's hot reads, sized by estimated memory footprint
+    private static final ResultCache<Integer> itemsByDistributorCache = new ResultCache<>("itemsByDistributor",
+            Settings.getLong("cache.distributor_items.max_bytes", 8L * 1024 * 1024));
+    private static final ResultCache<Integer> offeringsByItemCache = new ResultCache<>("offeringsByItem",
+            Settings.getLong("cache.item_offerings.max_bytes", 8L * 1024 * 1024));
+
+    static {
+        DatabaseManager.onDataReplaced(DistributorService::clearCaches, "items", "distributors", "distributor_prices", "distributor_tombstones");
+    }
+
+    public static void clearCaches() {
+        itemsByDistributorCache.clear();
+        offeringsByItemCache.clear();
+    }
+
+    // Cache statistics: hit rate, evictions and estimated memory footprint
+    public static JSONArray getCacheStats() {
+        JSONArray stats = new JSONArray();
+        stats.add(itemsByDistributorCache.getStats());
+        stats.add(offeringsByItemCache.getStats());
+        return stats;
+    }
     
-    //Get all distributors with id and name
-    public static JSONArray getAllDistributors() {
-        String sql = "SELECT id, name FROM distributors ORDER BY id";
+    //Get all distributors with id and name (or the requested subset of those fields)
+    public static JSONArray getAllDistributors(List<String> fields) {
+        String sql = "SELECT " + DISTRIBUTOR_FIELDS.selectList(fields) + " FROM active_distributors ORDER BY id";
         
         try {
-            Connection conn = DatabaseManager.getConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            ResultSet rs = stmt.executeQuery();
-            return DatabaseManager.convertResultSetToJson(rs);
+            return DatabaseManager.queryForJson(sql);
         } catch (SQLException e) {
             System.err.println("Error getting all distributors: " + e.getMessage());
             return new JSONArray();
@@ -54,19 +109,22 @@ public class DistributorService {
     }
     
     //Get items distributed by a specific distributor
-    public static JSONArray getItemsByDistributor(int distributorId) {
+    public static JSONArray getItemsByDistributor(int distributorId, List<String> fields) {
+        JSONArray cached = itemsByDistributorCache.get(distributorId);
+        if (cached != null) {
+            return CATALOG_FIELDS.project(cached, fields);
+        }
+        long generation = itemsByDistributorCache.generation();
         String sql = "SELECT i.id, i.name, dp.cost " +
                     "FROM items i " +
-                    "INNER JOIN distributor_prices dp ON i.id = dp.item " +
+                    "INNER JOIN active_distributor_prices dp ON i.id = dp.item " +
                     "WHERE dp.distributor = ? " +
                     "ORDER BY i.id";
         
         try {
-            Connection conn = DatabaseManager.getConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, distributorId);
-            ResultSet rs = stmt.executeQuery();
-            return DatabaseManager.convertResultSetToJson(rs);
+            JSONArray items = DatabaseManager.queryForJson(sql, distributorId);
+            itemsByDistributorCache.putIfCurrent(distributorId, items, generation);
+            return CATALOG_FIELDS.project(items, fields);
         } catch (SQLException e) {
             System.err.println("Error getting items by distributor: " + e.getMessage());
             return new JSONArray();
@@ -74,51 +132,145 @@ public class DistributorService {
     }
     
     //Get all offerings from all distributors for a specific item
-    public static JSONArray getOfferingsByItem(int itemId) {
+    public static JSONArray getOfferingsByItem(int itemId, List<String> fields) {
+        JSONArray cached = offeringsByItemCache.get(itemId);
+        if (cached != null) {
+            return OFFERING_FIELDS.project(cached, fields);
+        }
+        long generation = offeringsByItemCache.generation();
         String sql = "SELECT d.id, d.name, dp.cost " +
-                    "FROM distributors d " +
+                    "FROM active_distributors d " +
                     "INNER JOIN distributor_prices dp ON d.id = dp.distributor " +
                     "WHERE dp.item = ? " +
                     "ORDER BY dp.cost";
         
         try {
-            Connection conn = DatabaseManager.getConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, itemId);
-            ResultSet rs = stmt.executeQuery();
-            return DatabaseManager.convertResultSetToJson(rs);
+            JSONArray offerings = DatabaseManager.queryForJson(sql, itemId);
+            offeringsByItemCache.putIfCurrent(itemId, offerings, generation);
+            return OFFERING_FIELDS.project(offerings, fields);
         } catch (SQLException e) {
             System.err.println("Error getting offerings by item: " + e.getMessage());
             return new JSONArray();
         }
     }
 
+    //Get the items of a distributor's catalog matching a filter, in the requested order. Not cached: the query
+    //seeks the (distributor, cost) index, so it only reads the rows it returns.
+    public static JSONArray getFilteredItemsByDistributor(int distributorId, RowFilter.Query query, List<String> fields) {
+        String sql = "SELECT " + CATALOG_FIELDS.selectList(fields) + " " +
+                    "FROM active_distributor_prices dp " +
+                    "INNER JOIN items i ON i.id = dp.item " +
+                    "WHERE dp.distributor = ? " +
+                    (query.where() != null ? "AND " + query.where() + " " : "") +
+                    "ORDER BY " + query.orderBy();
+        List<Object> params = new ArrayList<>();
+        params.add(distributorId);
+        params.addAll(query.params());
+        
+        try {
+            return DatabaseManager.queryForJson(sql, params.toArray());
+        } catch (SQLException e) {
+            System.err.println("Error getting filtered items by distributor: " + e.getMessage());
+            return new JSONArray();
+        }
+    }
+    
+    //Get the offerings of several items, in request order. Cached items are served from the offerings cache and
+    //all others are loaded with one query; IDs of items that do not exist are listed as missing.
+    public static JSONObject getOfferingsByItems(List<Integer> itemIds, List<String> fields) {
+        Map<Integer, JSONArray> offeringsById = new HashMap<>();
+        List<Integer> uncached = new ArrayList<>();
+        for (int itemId : itemIds) {
+            JSONArray cached = offeringsByItemCache.get(itemId);
+            if (cached != null) {
+                offeringsById.put(itemId, cached);
+            } else {
+                uncached.add(itemId);
+            }
+        }
+        
+        try {
+            if (!uncached.isEmpty()) {
+                long generation = offeringsByItemCache.generation();
+                // Items without offerings still produce one row (with a null distributor) so they are not reported missing
+                String sql = "SELECT i.id AS item, d.id, d.name, dp.cost " +
+                            "FROM items i " +
+                            "LEFT JOIN active_distributor_prices dp ON dp.item = i.id " +
+                            "LEFT JOIN distributors d ON d.id = dp.distributor " +
+                            "WHERE i.id IN (" + InventoryService.placeholders(uncached.size()) + ") " +
+                            "ORDER BY i.id, dp.cost";
+                Map<Integer, JSONArray> loaded = new HashMap<>();
+                for (Object entry : DatabaseManager.queryForJson(sql, uncached.toArray())) {
+                    JSONObject row = (JSONObject) entry;
+                    JSONArray offerings = loaded.computeIfAbsent(((Number) row.remove("item")).intValue(), id -> new JSONArray());
+                    if (row.get("id") != null) {
+                        offerings.add(row);
+                    }
+                }
+                for (Map.Entry<Integer, JSONArray> item : loaded.entrySet()) {
+                    offeringsByItemCache.putIfCurrent(item.getKey(), item.getValue(), generation);
+                    offeringsById.put(item.getKey(), item.getValue());
+                }
+            }
+            
+            JSONArray items = new JSONArray();
+            JSONArray missing = new JSONArray();
+            for (int itemId : itemIds) {
+                JSONArray offerings = offeringsById.get(itemId);
+                if (offerings != null) {
+                    JSONObject item = new JSONObject();
+                    item.put("itemId", itemId);
+                    item.put("offerings", OFFERING_FIELDS.project(offerings, fields));
+                    items.add(item);
+                } else {
+                    missing.add(itemId);
+                }
+            }
+            
+            JSONObject result = new JSONObject();
+            result.put("items", items);
+            result.put("missing", missing);
+            return result;
+        } catch (SQLException e) {
+            System.err.println("Error getting offerings by items: " + e.getMessage());
+        }
+        
+        return null;
+    }
+
     //Add new distributor into distributors table
     public static JSONObject addNewDistributor(String distributorName) {
         String insertSql = "INSERT INTO distributors (name) VALUES (?)";
-        String selectSql = "SELECT last_insert_rowid()";
         
         try {
-            Connection conn = DatabaseManager.getConnection();
-            
-            // Insert the new distributor
-            PreparedStatement insertStmt = conn.prepareStatement(insertSql);
-            insertStmt.setString(1, distributorName);
-            
-            int affectedRows = insertStmt.executeUpdate();
-            if (affectedRows > 0) {
-                // Get the last inserted row ID (SQLite specific)
-                PreparedStatement selectStmt = conn.prepareStatement(selectSql);
-                ResultSet rs = selectStmt.executeQuery();
-                
-                if (rs.next()) {
-                    int newId = rs.getInt(1);
-                    JSONObject result = new JSONObject();
-                    result.put("id", newId);
-                    result.put("name", distributorName);
-                    result.put("message", "Distributor added successfully");
-                    return result;
+            // Insert the new distributor and its change log entry, and get its row ID
+            long newId = DatabaseManager.withWriteLock(c -> {
+                // A deleted distributor keeps its name until it is compacted; purge it now so the name is free
+                JSONObject deleted = DatabaseManager.queryRowForJson("SELECT d.id FROM distributors d " +
+                        "INNER JOIN distributor_tombstones t ON t.distributor = d.id WHERE d.name = ?", distributorName);
+                if (deleted != null) {
+                    DistributorCompactor.purge(((Number) deleted.get("id")).intValue());
+                }
+                long id = DatabaseManager.inTransaction(t -> {
+                    long inserted = DatabaseManager.executeInsert(insertSql, distributorName);
+                    if (inserted > 0) {
+                        ChangeLog.record("distributors", inserted, ChangeLog.INSERT);
+                    }
+                    return inserted;
+                });
+                if (id > 0) {
+                    PriceMatrix.distributorAdded((int) id, distributorName);
                 }
+                return id;
+            });
+            if (newId > 0) {
+                // IDs of deleted distributors can be reused, so drop any empty catalog cached for this one
+                itemsByDistributorCache.invalidate((int) newId);
+                JSONObject result = new JSONObject();
+                result.put("id", (int) newId);
+                result.put("name", distributorName);
+                result.put("message", "Distributor added successfully");
+                return result;
             }
         } catch (SQLException e) {
             System.err.println("Error adding new Distributor: " + e.getMessage());
@@ -129,56 +281,50 @@ public class DistributorService {
     
     // Add item to distributor's catalog with cost
     public static JSONObject addItemToDistributorCatalog(int distributorId, int itemId, double cost) {
-        String checkDistributorSql = "SELECT id FROM distributors WHERE id = ?";
+        String checkDistributorSql = "SELECT id FROM active_distributors WHERE id = ?";
         String checkItemSql = "SELECT id FROM items WHERE id = ?";
         String checkExistingSql = "SELECT id FROM distributor_prices WHERE distributor = ? AND item = ?";
         String insertSql = "INSERT INTO distributor_prices (distributor, item, cost) VALUES (?, ?, ?)";
         
         try {
-            Connection conn = DatabaseManager.getConnection();
-            
             // Check if distributor exists
-            PreparedStatement checkDistributorStmt = conn.prepareStatement(checkDistributorSql);
-            checkDistributorStmt.setInt(1, distributorId);
-            ResultSet distributorRs = checkDistributorStmt.executeQuery();
-            
-            if (!distributorRs.next()) {
+            if (DatabaseManager.queryPrimaryRow(checkDistributorSql, distributorId) == null) {
                 JSONObject error = new JSONObject();
                 error.put("error", "Distributor with ID " + distributorId + " does not exist");
                 return error;
             }
             
             // Check if item exists
-            PreparedStatement checkItemStmt = conn.prepareStatement(checkItemSql);
-            checkItemStmt.setInt(1, itemId);
-            ResultSet itemRs = checkItemStmt.executeQuery();
-            
-            if (!itemRs.next()) {
+            if (DatabaseManager.queryPrimaryRow(checkItemSql, itemId) == null) {
                 JSONObject error = new JSONObject();
                 error.put("error", "Item with ID " + itemId + " does not exist");
                 return error;
             }
             
             // Check if item already exists in distributor's catalog
-            PreparedStatement checkExistingStmt = conn.prepareStatement(checkExistingSql);
-            checkExistingStmt.setInt(1, distributorId);
-            checkExistingStmt.setInt(2, itemId);
-            ResultSet existingRs = checkExistingStmt.executeQuery();
-            
-            if (existingRs.next()) {
+            if (DatabaseManager.queryPrimaryRow(checkExistingSql, distributorId, itemId) != null) {
                 JSONObject error = new JSONObject();
                 error.put("error", "Item with ID " + itemId + " already exists in distributor " + distributorId + "'s catalog");
                 return error;
             }
             
-            // Add item to distributor's catalog
-            PreparedStatement insertStmt = conn.prepareStatement(insertSql);
-            insertStmt.setInt(1, distributorId);
-            insertStmt.setInt(2, itemId);
-            insertStmt.setDouble(3, cost);
-            
-            int affectedRows = insertStmt.executeUpdate();
+            // Add item to distributor's catalog; the inventory valuation is updated under the same write lock
+            int affectedRows = DatabaseManager.withWriteLock(c -> {
+                int rows = DatabaseManager.inTransaction(t -> {
+                    long id = DatabaseManager.executeInsert(insertSql, distributorId, itemId, cost);
+                    if (id > 0) {
+                        ChangeLog.record("distributor_prices", id, ChangeLog.INSERT);
+                    }
+                    return id > 0 ? 1 : 0;
+                });
+                if (rows > 0) {
+                    InventoryStatistics.priceChanged(distributorId, itemId, cost);
+                    PriceMatrix.priceChanged(distributorId, itemId, cost);
+                }
+                return rows;
+            });
             if (affectedRows > 0) {
+                invalidateCatalogEntry(distributorId, itemId);
                 JSONObject result = new JSONObject();
                 result.put("distributorId", distributorId);
                 result.put("itemId", itemId);
@@ -200,32 +346,33 @@ public class DistributorService {
     
     // Update price of an item in distributor's catalog
     public static JSONObject updateItemPriceInCatalog(int distributorId, int itemId, double newCost) {
-        String checkExistingSql = "SELECT id FROM distributor_prices WHERE distributor = ? AND item = ?";
+        String checkExistingSql = "SELECT id FROM active_distributor_prices WHERE distributor = ? AND item = ?";
         String updateSql = "UPDATE distributor_prices SET cost = ? WHERE distributor = ? AND item = ?";
         
         try {
-            Connection conn = DatabaseManager.getConnection();
-            
             // Check if item exists in distributor's catalog
-            PreparedStatement checkExistingStmt = conn.prepareStatement(checkExistingSql);
-            checkExistingStmt.setInt(1, distributorId);
-            checkExistingStmt.setInt(2, itemId);
-            ResultSet existingRs = checkExistingStmt.executeQuery();
-            
-            if (!existingRs.next()) {
+            if (DatabaseManager.queryPrimaryRow(checkExistingSql, distributorId, itemId) == null) {
                 JSONObject error = new JSONObject();
                 error.put("error", "Item with ID " + itemId + " does not exist in distributor " + distributorId + "'s catalog");
                 return error;
             }
             
-            // Update the price
-            PreparedStatement updateStmt = conn.prepareStatement(updateSql);
-            updateStmt.setDouble(1, newCost);
-            updateStmt.setInt(2, distributorId);
-            updateStmt.setInt(3, itemId);
-            
-            int affectedRows = updateStmt.executeUpdate();
+            // Update the price and the inventory valuation
+            int affectedRows = DatabaseManager.withWriteLock(c -> {
+                int rows = DatabaseManager.inTransaction(t -> {
+                    int updated = DatabaseManager.executeUpdate(updateSql, newCost, distributorId, itemId);
+                    ChangeLog.recordWhere("distributor_prices", ChangeLog.UPDATE, "distributor = ? AND item = ?",
+                            distributorId, itemId);
+                    return updated;
+                });
+                if (rows > 0) {
+                    InventoryStatistics.priceChanged(distributorId, itemId, newCost);
+                    PriceMatrix.priceChanged(distributorId, itemId, newCost);
+                }
+                return rows;
+            });
             if (affectedRows > 0) {
+                invalidateCatalogEntry(distributorId, itemId);
                 JSONObject result = new JSONObject();
                 result.put("distributorId", distributorId);
                 result.put("itemId", itemId);
@@ -249,37 +396,30 @@ public class DistributorService {
     public static JSONObject getCheapestRestockPrice(int itemId, int quantity) {
         String checkItemSql = "SELECT id FROM items WHERE id = ?";
         String getPricesSql = "SELECT d.id, d.name, dp.cost " +
-                             "FROM distributors d " +
+                             "FROM active_distributors d " +
                              "INNER JOIN distributor_prices dp ON d.id = dp.distributor " +
                              "WHERE dp.item = ? " +
                              "ORDER BY dp.cost";
         
         try {
-            Connection conn = DatabaseManager.getConnection();
-            
             // Check if item exists
-            PreparedStatement checkItemStmt = conn.prepareStatement(checkItemSql);
-            checkItemStmt.setInt(1, itemId);
-            ResultSet itemRs = checkItemStmt.executeQuery();
-            
-            if (!itemRs.next()) {
+            if (DatabaseManager.queryRowForJson(checkItemSql, itemId) == null) {
                 JSONObject error = new JSONObject();
                 error.put("error", "Item with ID " + itemId + " does not exist");
                 return error;
             }
             
             // Get all distributor prices for this item
-            PreparedStatement getPricesStmt = conn.prepareStatement(getPricesSql);
-            getPricesStmt.setInt(1, itemId);
-            ResultSet pricesRs = getPricesStmt.executeQuery();
+            JSONArray prices = DatabaseManager.queryForJson(getPricesSql, itemId);
             
             double cheapestTotalCost = Double.MAX_VALUE;
             JSONObject cheapestDistributor = null;
             
-            while (pricesRs.next()) {
-                int distributorId = pricesRs.getInt("id");
-                String distributorName = pricesRs.getString("name");
-                double unitCost = pricesRs.getDouble("cost");
+            for (Object row : prices) {
+                JSONObject price = (JSONObject) row;
+                int distributorId = ((Number) price.get("id")).intValue();
+                String distributorName = (String) price.get("name");
+                double unitCost = ((Number) price.get("cost")).doubleValue();
                 double totalCost = unitCost * quantity;
                 
                 // Track the cheapest option
@@ -317,67 +457,161 @@ public class DistributorService {
         }
     }
     
-    // Delete an existing distributor and their catalog
+    // Cost of restocking every inventory item to capacity per distributor, optionally compared with a baseline distributor
+    public static JSONObject getRestockCosts(Integer baselineDistributorId) {
+        try {
+            if (PriceMatrix.isEnabled()) {
+                return PriceMatrix.getRestockCosts(baselineDistributorId);
+            }
+            return getRestockCostsFromSql(baselineDistributorId);
+        } catch (SQLException e) {
+            System.err.println("Error computing restock costs: " + e.getMessage());
+        }
+        
+        return null;
+    }
+    
+    // Same document as PriceMatrix.getRestockCosts(), computed in SQL for when the matrix is too large to load.
+    // Ties for the cheapest offer go to the lowest distributor ID, as in the matrix.
+    private static JSONObject getRestockCostsFromSql(Integer baselineDistributorId) throws SQLException {
+        if (baselineDistributorId != null
+                && DatabaseManager.queryRowForJson("SELECT id FROM active_distributors WHERE id = ?", baselineDistributorId) == null) {
+            JSONObject error = new JSONObject();
+            error.put("error", "Distributor with ID " + baselineDistributorId + " does not exist");
+            return error;
+        }
+        long start = System.nanoTime();
+        // The baseline price of each offer; NULL without a baseline, so the savings sums stay NULL and are not reported
+        String needed = "SELECT p.distributor, p.item, p.cost, inv.capacity - inv.stock AS quantity, b.cost AS baselineCost " +
+                        "FROM active_distributor_prices p " +
+                        "INNER JOIN inventory inv ON inv.item = p.item AND inv.capacity > inv.stock " +
+                        "LEFT JOIN active_distributor_prices b ON b.item = p.item AND b.distributor = ?";
+
+        JSONObject need = DatabaseManager.queryRowForJson(
+                "SELECT COUNT(*) AS items, COALESCE(SUM(capacity - stock), 0) AS units FROM inventory WHERE capacity > stock");
+        long items = ((Number) need.get("items")).longValue();
+
+        JSONArray distributors = new JSONArray();
+        for (Object row : DatabaseManager.queryForJson(
+                "SELECT d.id, d.name, COALESCE(SUM(n.cost * n.quantity), 0) AS totalCost, COUNT(n.item) AS pricedItems, " +
+                "COALESCE(SUM((n.baselineCost - n.cost) * n.quantity), 0) AS savings " +
+                "FROM active_distributors d LEFT JOIN (" + needed + ") n ON n.distributor = d.id " +
+                "GROUP BY d.id ORDER BY d.id", baselineDistributorId)) {
+            JSONObject distributor = (JSONObject) row;
+            long priced = ((Number) distributor.get("pricedItems")).longValue();
+            JSONObject result = new JSONObject();
+            result.put("distributorId", distributor.get("id"));
+            result.put("name", distributor.get("name"));
+            result.put("totalCost", cents(((Number) distributor.get("totalCost")).doubleValue()));
+            result.put("pricedItems", priced);
+            result.put("unpricedItems", items - priced);
+            if (baselineDistributorId != null) {
+                result.put("savingsVsBaseline", cents(((Number) distributor.get("savings")).doubleValue()));
+            }
+            distributors.add(result);
+        }
+
+        double bestTotal = 0;
+        double bestSavings = 0;
+        JSONArray bestPerItem = new JSONArray();
+        for (Object row : DatabaseManager.queryForJson(
+                "SELECT distributor, item, cost, quantity, baselineCost FROM (" +
+                "SELECT n.*, ROW_NUMBER() OVER (PARTITION BY n.item ORDER BY n.cost, n.distributor) AS pick " +
+                "FROM (" + needed + ") n) WHERE pick = 1 ORDER BY item", baselineDistributorId)) {
+            JSONObject offer = (JSONObject) row;
+            double cost = ((Number) offer.get("cost")).doubleValue();
+            long quantity = ((Number) offer.get("quantity")).longValue();
+            bestTotal += cost * quantity;
+            if (offer.get("baselineCost") != null) {
+                bestSavings += (((Number) offer.get("baselineCost")).doubleValue() - cost) * quantity;
+            }
+            JSONObject result = new JSONObject();
+            result.put("itemId", offer.get("item"));
+            result.put("distributorId", offer.get("distributor"));
+            result.put("unitCost", cost);
+            result.put("quantity", quantity);
+            result.put("totalCost", cents(cost * quantity));
+            bestPerItem.add(result);
+        }
+        long micros = (System.nanoTime() - start) / 1_000;
+
+        JSONObject cheapest = new JSONObject();
+        cheapest.put("totalCost", cents(bestTotal));
+        cheapest.put("unpricedItems", items - bestPerItem.size());
+        if (baselineDistributorId != null) {
+            cheapest.put("savingsVsBaseline", cents(bestSavings));
+        }
+        cheapest.put("items", bestPerItem);
+
+        JSONObject result = new JSONObject();
+        result.put("items", items);
+        result.put("units", need.get("units"));
+        if (baselineDistributorId != null) {
+            result.put("baselineDistributorId", baselineDistributorId);
+        }
+        result.put("distributors", distributors);
+        result.put("cheapestPerItem", cheapest);
+        result.put("computeMicros", micros);
+        return result;
+    }
+
+    private static double cents(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+    
+    // Delete an existing distributor and their catalog. The distributor is tombstoned (O(1)) and disappears from
+    // every read at once; its price rows are purged later by the DistributorCompactor.
     public static JSONObject deleteDistributor(int distributorId) {
-        String checkDistributorSql = "SELECT id, name FROM distributors WHERE id = ?";
-        String deletePricesSql = "DELETE FROM distributor_prices WHERE distributor = ?";
-        String deleteDistributorSql = "DELETE FROM distributors WHERE id = ?";
+        String checkDistributorSql = "SELECT id, name FROM active_distributors WHERE id = ?";
+        String catalogItemsSql = "SELECT item FROM distributor_prices WHERE distributor = ?";
         
         try {
-            Connection conn = DatabaseManager.getConnection();
-            
             // Check if distributor exists
-            PreparedStatement checkStmt = conn.prepareStatement(checkDistributorSql);
-            checkStmt.setInt(1, distributorId);
-            ResultSet rs = checkStmt.executeQuery();
-            
-            if (!rs.next()) {
+            JSONObject distributor = DatabaseManager.queryPrimaryRow(checkDistributorSql, distributorId);
+            if (distributor == null) {
                 JSONObject error = new JSONObject();
                 error.put("error", "Distributor with ID " + distributorId + " does not exist");
                 return error;
             }
             
-            String distributorName = rs.getString("name");
-            
-            // Start transaction to ensure data consistency
-            conn.setAutoCommit(false);
+            String distributorName = (String) distributor.get("name");
             
-            try {
-                // First delete all catalog entries for this distributor
-                PreparedStatement deletePricesStmt = conn.prepareStatement(deletePricesSql);
-                deletePricesStmt.setInt(1, distributorId);
-                deletePricesStmt.executeUpdate();
-                
-                // Then delete the distributor
-                PreparedStatement deleteDistributorStmt = conn.prepareStatement(deleteDistributorSql);
-                deleteDistributorStmt.setInt(1, distributorId);
-                
-                int affectedRows = deleteDistributorStmt.executeUpdate();
-                if (affectedRows > 0) {
-                    // Commit the transaction
-                    conn.commit();
-                    
-                    JSONObject result = new JSONObject();
-                    result.put("distributorId", distributorId);
-                    result.put("distributorName", distributorName);
-                    result.put("message", "Distributor and all catalog entries deleted successfully");
-                    return result;
-                } else {
-                    // Rollback if distributor deletion failed
-                    conn.rollback();
-                    JSONObject error = new JSONObject();
-                    error.put("error", "Failed to delete distributor");
-                    return error;
+            // Tombstone the distributor; the in-memory views drop its catalog under the same write lock. The
+            // catalog's items are collected under that lock too (an index seek, nothing is written), so their
+            // cached offerings and the valuation are updated for the rows the tombstone actually hid
+            List<Integer> catalogItemIds = new ArrayList<>();
+            int affectedRows = DatabaseManager.withWriteLock(c -> {
+                try (PreparedStatement catalogItemsStmt = c.prepareStatement(catalogItemsSql)) {
+                    catalogItemsStmt.setInt(1, distributorId);
+                    try (ResultSet catalogRs = catalogItemsStmt.executeQuery()) {
+                        while (catalogRs.next()) {
+                            catalogItemIds.add(catalogRs.getInt("item"));
+                        }
+                    }
+                }
+                int rows = DatabaseManager.inTransaction(t -> tombstone(distributorId));
+                if (rows > 0) {
+                    InventoryStatistics.distributorRemoved(distributorId, catalogItemIds);
+                    PriceMatrix.distributorRemoved(distributorId);
+                }
+                return rows;
+            });
+            if (affectedRows > 0) {
+                itemsByDistributorCache.invalidate(distributorId);
+                for (int catalogItemId : catalogItemIds) {
+                    offeringsByItemCache.invalidate(catalogItemId);
                 }
-            } catch (SQLException e) {
-                // Rollback on any error
-                conn.rollback();
-                throw e;
-            } finally {
-                // Restore auto-commit
-                conn.setAutoCommit(true);
+                
+                JSONObject result = new JSONObject();
+                result.put("distributorId", distributorId);
+                result.put("distributorName", distributorName);
+                result.put("message", "Distributor and all catalog entries deleted successfully");
+                return result;
+            } else {
+                JSONObject error = new JSONObject();
+                error.put("error", "Failed to delete distributor");
+                return error;
             }
-            
         } catch (SQLException e) {
             System.err.println("Error deleting distributor: " + e.getMessage());
             JSONObject error = new JSONObject();
@@ -385,4 +619,23 @@ public class DistributorService {
             return error;
         }
     }
+
+    // Tombstone a distributor and log it and its price rows as deleted; runs in the caller's transaction, and
+    // returns 0 if it was already tombstoned. The price rows are logged now, when they stop being visible, not
+    // when the compactor purges them, so a delta export taken in between does not still list them.
+    static int tombstone(int distributorId) throws SQLException {
+        int inserted = DatabaseManager.executeUpdate("INSERT OR IGNORE INTO distributor_tombstones (distributor, deleted_at) VALUES (?, ?)",
+                distributorId, System.currentTimeMillis());
+        if (inserted > 0) {
+            ChangeLog.recordWhere("distributor_prices", ChangeLog.DELETE, "distributor = ?", distributorId);
+            ChangeLog.record("distributors", distributorId, ChangeLog.DELETE);
+        }
+        return inserted;
+    }
+    
+    // A catalog entry appears in its distributor's item list and in its item's offerings
+    private static void invalidateCatalogEntry(int distributorId, int itemId) {
+        itemsByDistributorCache.invalidate(distributorId);
+        offeringsByItemCache.invalidate(itemId);
+    }
 }
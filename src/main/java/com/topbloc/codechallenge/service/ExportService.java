@@ -1,11 +1,28 @@
 package com.topbloc.codechallenge.service;
 
+import com.topbloc.codechallenge.config.Settings;
 import com.topbloc.codechallenge.db.DatabaseManager;
+import com.topbloc.codechallenge.jobs.Job;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /*
  * This class contains all business logic for data export operations in the candy inventory system.
@@ -19,6 +36,15 @@ import java.sql.SQLException;
  * 
  * Key methods:
  * - exportTableToCSV(): Export any database table to CSV format with security validation
+ * - exportTableChangesToCSV(): Export only the rows changed since a change log version (delta export)
+ * - createSnapshotFile(): Point-in-time copy of the whole database taken in one read transaction
+ * - writeSnapshotZip(): ZIP of per-table CSVs from a snapshot, tables exported in parallel
+ * - writeTableCsv(): Full or delta export of a table into a file, with progress, for asynchronous jobs
+ * 
+ * Snapshots are taken with VACUUM INTO on a separate connection. In WAL mode that is a single read
+ * transaction, so the copy is consistent across tables while writers keep committing to the WAL.
+ * Every table is then exported from the immutable copy on its own worker ("export.snapshot.threads")
+ * and the finished CSVs are streamed into the archive in table order.
  * 
  * All methods include proper error handling, input validation, and return structured responses.
  * Database operations use prepared statements for security and include table name validation.
@@ -29,6 +55,15 @@ import java.sql.SQLException;
  */
 
 public class ExportService {
+
+    private static final String[] allowedTables = {"items", "inventory", "distributors", "distributor_prices"};
+
+    private static final ExecutorService snapshotWorkers = Executors.newFixedThreadPool(
+            Settings.getInt("export.snapshot.threads", 4), runnable -> {
+                Thread thread = new Thread(runnable, "export-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
     
     // Export any table from database to CSV format
     public static String exportTableToCSV(String tableName) {
@@ -38,59 +73,275 @@ public class ExportService {
         }
         
         // Only allow known table names for security
-        String[] allowedTables = {"items", "inventory", "distributors", "distributor_prices"};
-        boolean isAllowed = false;
+        if (!isExportableTable(tableName)) {
+            return "Error: Invalid table name. Allowed tables: items, inventory, distributors, distributor_prices";
+        }
+        
+        String sql = "SELECT * FROM " + source(tableName.trim().toLowerCase());
+        
+        try {
+            return DatabaseManager.withReadConnection(conn -> {
+                StringBuilder csv = new StringBuilder();
+                // Closed before returning: an open statement keeps a read transaction open on the shared connection
+                try (PreparedStatement stmt = conn.prepareStatement(sql);
+                     ResultSet rs = stmt.executeQuery()) {
+                    appendCsv(rs, csv, null);
+                } catch (IOException e) {
+                    // Appending to a StringBuilder cannot fail
+                    throw new IllegalStateException(e);
+                }
+                
+                return csv.toString();
+            });
+            
+        } catch (SQLException e) {
+            System.err.println("Error exporting table " + tableName + " to CSV: " + e.getMessage());
+            return "Error: Failed to export table. " + e.getMessage();
+        }
+    }
+
+    // Export the rows of a table that changed after the given change log version. Each row carries the
+    // operation (insert, update or delete) and the version of its latest change; deleted rows only have their id.
+    public static String exportTableChangesToCSV(String tableName, long since) {
+        if (tableName == null || !isExportableTable(tableName)) {
+            return "Error: Invalid table name. Allowed tables: items, inventory, distributors, distributor_prices";
+        }
+        String table = tableName.trim().toLowerCase();
+        
+        try {
+            return DatabaseManager.withReadConnection(conn -> {
+                String sql = changesSql(conn, table);
+                
+                StringBuilder csv = new StringBuilder();
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setString(1, table);
+                    stmt.setLong(2, since);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        appendCsv(rs, csv, null);
+                    }
+                } catch (IOException e) {
+                    // Appending to a StringBuilder cannot fail
+                    throw new IllegalStateException(e);
+                }
+                return csv.toString();
+            });
+        } catch (SQLException e) {
+            System.err.println("Error exporting changes of table " + tableName + " to CSV: " + e.getMessage());
+            return "Error: Failed to export table changes. " + e.getMessage();
+        }
+    }
+
+    // Changed rows of a table after a version (bound as the second parameter, the table name is the first)
+    private static String changesSql(Connection conn, String table) throws SQLException {
+        // Select the id from the change log so deleted rows keep it, plus all other current columns
+        StringBuilder columns = new StringBuilder("c.row_id AS id");
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT name FROM pragma_table_info(?) ORDER BY cid")) {
+            stmt.setString(1, table);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (!rs.getString("name").equals("id")) {
+                        columns.append(", t.").append(rs.getString("name"));
+                    }
+                }
+            }
+        }
+        return "SELECT CASE WHEN t.id IS NULL THEN 'delete' WHEN c.inserted THEN 'insert' ELSE 'update' END AS _op, " +
+                "c.version AS _version, " + columns + " " +
+                "FROM (SELECT row_id, max(version) AS version, max(op = 'insert') AS inserted " +
+                "      FROM change_log WHERE table_name = ? AND version > ? GROUP BY row_id) c " +
+                "LEFT JOIN " + source(table) + " t ON t.id = c.row_id " +
+                "ORDER BY c.version";
+    }
+
+    // Write a full export (since < 0) or a delta export of a table to a file, for an asynchronous job. Runs on its
+    // own connection in one read transaction, so the row count, the rows and the version agree and the shared
+    // connection is not held while the file is written. Returns the change log version the export is current at.
+    public static long writeTableCsv(String tableName, long since, File target, Job job) throws SQLException, IOException {
+        String table = tableName.trim().toLowerCase();
+        try (Connection conn = DatabaseManager.openConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                long version;
+                try (PreparedStatement stmt = conn.prepareStatement("SELECT max(version) FROM change_log");
+                     ResultSet rs = stmt.executeQuery()) {
+                    version = rs.next() ? rs.getLong(1) : 0;
+                }
+                String sql = since >= 0 ? changesSql(conn, table) : "SELECT * FROM " + source(table);
+                String countSql = since >= 0
+                        ? "SELECT count(DISTINCT row_id) FROM change_log WHERE table_name = ? AND version > ?"
+                        : "SELECT count(*) FROM " + source(table);
+                try (PreparedStatement stmt = conn.prepareStatement(countSql)) {
+                    if (since >= 0) {
+                        stmt.setString(1, table);
+                        stmt.setLong(2, since);
+                    }
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        job.setTotal(rs.next() ? rs.getLong(1) : -1);
+                    }
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(sql);
+                     Writer writer = Files.newBufferedWriter(target.toPath(), StandardCharsets.UTF_8)) {
+                    if (since >= 0) {
+                        stmt.setString(1, table);
+                        stmt.setLong(2, since);
+                    }
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        appendCsv(rs, writer, job);
+                    }
+                }
+                return version;
+            } finally {
+                conn.rollback();
+            }
+        }
+    }
+
+    // Highest change log version. Read it before exporting: changes committed in between are exported
+    // again next time, which is harmless because every export carries the rows' current state.
+    public static long getCurrentVersion() throws SQLException {
+        return DatabaseManager.withReadConnection(conn -> {
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT max(version) FROM change_log");
+                 ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        });
+    }
+
+    // Whether changes after this version can be answered from the change log (it starts at its baseline)
+    public static boolean isVersionAvailable(long since) throws SQLException {
+        return DatabaseManager.withReadConnection(conn -> {
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT min(version) FROM change_log");
+                 ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && since >= rs.getLong(1);
+            }
+        });
+    }
+
+    // Relation to read an exportable table from: the distributor tables are read through the views that hide
+    // deleted distributors whose rows are not compacted yet
+    private static String source(String table) {
+        switch (table) {
+            case "distributors": return "active_distributors";
+            case "distributor_prices": return "active_distributor_prices";
+            default: return table;
+        }
+    }
+
+    public static boolean isExportableTable(String tableName) {
         for (String allowed : allowedTables) {
             if (allowed.equals(tableName.trim().toLowerCase())) {
-                isAllowed = true;
-                break;
+                return true;
             }
         }
-        
-        if (!isAllowed) {
-            return "Error: Invalid table name. Allowed tables: items, inventory, distributors, distributor_prices";
+        return false;
+    }
+
+    // Copy the whole database into a new temporary file from one read transaction
+    public static File createSnapshotFile() throws SQLException, IOException {
+        File snapshot = File.createTempFile("export-snapshot-", ".db");
+        try (Connection conn = DatabaseManager.openConnection();
+             PreparedStatement stmt = conn.prepareStatement("VACUUM INTO ?")) {
+            stmt.setString(1, snapshot.getAbsolutePath());
+            stmt.execute();
+        } catch (SQLException e) {
+            Files.deleteIfExists(snapshot.toPath());
+            throw e;
+        }
+        return snapshot;
+    }
+
+    // Write a ZIP with one CSV per exportable table of the snapshot; tables are exported in parallel
+    public static void writeSnapshotZip(File snapshot, OutputStream out) throws IOException, SQLException {
+        Map<String, Future<File>> parts = new LinkedHashMap<>();
+        for (String table : allowedTables) {
+            parts.put(table, snapshotWorkers.submit(() -> exportSnapshotTable(snapshot, table)));
+        }
+        try {
+            ZipOutputStream zip = new ZipOutputStream(out);
+            for (Map.Entry<String, Future<File>> part : parts.entrySet()) {
+                File csv = awaitPart(part.getValue());
+                try {
+                    zip.putNextEntry(new ZipEntry(part.getKey() + ".csv"));
+                    Files.copy(csv.toPath(), zip);
+                    zip.closeEntry();
+                } finally {
+                    Files.deleteIfExists(csv.toPath());
+                }
+            }
+            zip.finish();
+            zip.flush();
+        } finally {
+            // If streaming stopped early (e.g. client disconnected), clean up the parts not written yet
+            for (Future<File> part : parts.values()) {
+                try {
+                    Files.deleteIfExists(part.get().toPath());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException | IOException e) {
+                    // Part failed or was already removed
+                }
+            }
+        }
+    }
+
+    private static File exportSnapshotTable(File snapshot, String table) throws SQLException, IOException {
+        File csv = File.createTempFile("export-" + table + "-", ".csv");
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + snapshot.getAbsolutePath());
+             PreparedStatement stmt = conn.prepareStatement("SELECT * FROM " + source(table));
+             ResultSet rs = stmt.executeQuery();
+             Writer writer = Files.newBufferedWriter(csv.toPath(), StandardCharsets.UTF_8)) {
+            appendCsv(rs, writer, null);
+        } catch (SQLException | IOException e) {
+            Files.deleteIfExists(csv.toPath());
+            throw e;
         }
+        return csv;
+    }
+
+    private static File awaitPart(Future<File> part) throws IOException, SQLException {
+        try {
+            return part.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while exporting snapshot", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new IOException("Failed to export snapshot table", e.getCause());
+        }
+    }
+
+    // Write a header row and all rows of the result set as quoted CSV, counting the rows on the job if there is one
+    private static void appendCsv(ResultSet rs, Appendable csv, Job job) throws SQLException, IOException {
+        // Get column names
+        java.sql.ResultSetMetaData metaData = rs.getMetaData();
+        int columnCount = metaData.getColumnCount();
         
-        String sql = "SELECT * FROM " + tableName;
-        StringBuilder csv = new StringBuilder();
+        // Add header row
+        for (int i = 1; i <= columnCount; i++) {
+            if (i > 1) csv.append(",");
+            csv.append("\"").append(metaData.getColumnName(i)).append("\"");
+        }
+        csv.append("\n");
         
-        try {
-            Connection conn = DatabaseManager.getConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            ResultSet rs = stmt.executeQuery();
-            
-            // Get column names
-            java.sql.ResultSetMetaData metaData = rs.getMetaData();
-            int columnCount = metaData.getColumnCount();
-            
-            // Add header row
+        // Add data rows
+        while (rs.next()) {
             for (int i = 1; i <= columnCount; i++) {
                 if (i > 1) csv.append(",");
-                csv.append("\"").append(metaData.getColumnName(i)).append("\"");
+                Object value = rs.getObject(i);
+                if (value != null) {
+                    // Escape quotes and wrap in quotes for CSV
+                    String stringValue = value.toString().replace("\"", "\"\"");
+                    csv.append("\"").append(stringValue).append("\"");
+                } else {
+                    csv.append("\"\"");
+                }
             }
             csv.append("\n");
-            
-            // Add data rows
-            while (rs.next()) {
-                for (int i = 1; i <= columnCount; i++) {
-                    if (i > 1) csv.append(",");
-                    Object value = rs.getObject(i);
-                    if (value != null) {
-                        // Escape quotes and wrap in quotes for CSV
-                        String stringValue = value.toString().replace("\"", "\"\"");
-                        csv.append("\"").append(stringValue).append("\"");
-                    } else {
-                        csv.append("\"\"");
-                    }
-                }
-                csv.append("\n");
+            if (job != null) {
+                job.advance(1);
             }
-            
-            return csv.toString();
-            
-        } catch (SQLException e) {
-            System.err.println("Error exporting table " + tableName + " to CSV: " + e.getMessage());
-            return "Error: Failed to export table. " + e.getMessage();
         }
     }
 }
@@ -0,0 +1,90 @@
+package com.topbloc.codechallenge.service;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Whitelist of the fields a list endpoint can return, for the "fields=" query parameter.
+ *
+ * Each field maps to the SQL expression that produces it, so services can build a select list with only
+ * the requested columns (and leave out joins that are only needed for unrequested fields). Results served
+ * from a cache are trimmed with project() instead.
+ */
+public class FieldProjection {
+    private final Map<String, String> expressions = new LinkedHashMap<>();
+
+    // Register a field and the SQL expression that selects it; fields are returned in registration order
+    public FieldProjection field(String name, String expression) {
+        expressions.put(name, expression);
+        return this;
+    }
+
+    // Parse a comma separated fields parameter; null or blank selects every field
+    public List<String> parse(String fieldsParam) {
+        if (fieldsParam == null || fieldsParam.trim().isEmpty()) {
+            return all();
+        }
+        return parse(Arrays.asList(fieldsParam.split(",")));
+    }
+
+    // Validate field names and put them in canonical order, dropping blanks and duplicates
+    public List<String> parse(List<String> fields) {
+        List<String> requested = new ArrayList<>();
+        for (String field : fields) {
+            String name = field.trim();
+            if (name.isEmpty() || requested.contains(name)) {
+                continue;
+            }
+            if (!expressions.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown field '" + name + "'. Allowed fields: "
+                        + String.join(", ", expressions.keySet()));
+            }
+            requested.add(name);
+        }
+        // Keep the canonical order so equivalent requests share cache and coalescing keys
+        List<String> ordered = new ArrayList<>();
+        for (String name : expressions.keySet()) {
+            if (requested.contains(name)) {
+                ordered.add(name);
+            }
+        }
+        return ordered;
+    }
+
+    public List<String> all() {
+        return Collections.unmodifiableList(new ArrayList<>(expressions.keySet()));
+    }
+
+    // SQL select list for the given fields, e.g. "inv.item AS id, inv.stock AS stock"
+    public String selectList(List<String> fields) {
+        List<String> columns = new ArrayList<>();
+        for (String field : fields) {
+            columns.add(expressions.get(field) + " AS " + field);
+        }
+        return String.join(", ", columns);
+    }
+
+    // Copy of the rows with only the given fields
+    public JSONArray project(JSONArray rows, List<String> fields) {
+        if (fields.size() == expressions.size()) {
+            return rows;
+        }
+        JSONArray projected = new JSONArray();
+        for (Object row : rows) {
+            JSONObject source = (JSONObject) row;
+            JSONObject target = new JSONObject();
+            for (String field : fields) {
+                target.put(field, source.get(field));
+            }
+            projected.add(target);
+        }
+        return projected;
+    }
+}
@@ -0,0 +1,471 @@
+package com.topbloc.codechallenge.service;
+
+import com.topbloc.codechallenge.alerts.AlertEngine;
+import com.topbloc.codechallenge.config.Settings;
+import com.topbloc.codechallenge.db.ChangeLog;
+import com.topbloc.codechallenge.db.DatabaseManager;
+import com.topbloc.codechallenge.jobs.Job;
+import org.json.simple.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * CSV import into the exportable tables, run as an asynchronous job (POST /jobs/import/:table).
+ *
+ * The file has a header row of column names and the quoting of the exports, so a full or delta export can
+ * be imported again:
+ * - rows with an id are upserted by id, rows without one are inserted with a new id
+ * - a delta export's _op column is honoured: "delete" rows are deleted, others upserted; _version is ignored
+ * - deletes follow the service layer: a distributor is tombstoned (see DistributorCompactor), and deleting an
+ *   item also logs the inventory and price rows the foreign keys delete with it
+ * - rows of a deleted, not yet compacted distributor (or its prices) are rejected, as no read would see them
+ * - empty fields are NULL; other fields are parsed by the column's declared type (integer, float or text), and
+ *   the routes' range checks apply: stock must be non-negative, capacity positive and cost non-negative
+ * - a row that fails fails the import with its row number (1 is the first row after the header)
+ *
+ * Rows are written in transactions of "jobs.import.batch_size" rows, each under the write lock, so interactive
+ * writes interleave with a large import. Every row is recorded in the change log and replicated like any
+ * other write, and inventory rows get their stock history sample and alert evaluation like an inventory
+ * update; the in-memory statistics and caches are invalidated after every batch and the item search
+ * index is rebuilt at the end. A failing batch (e.g. a foreign key violation) or a cancellation stops the
+ * import; the batches committed before it stay.
+ */
+public class ImportService {
+    private static final int batchSize = Settings.getInt("jobs.import.batch_size", 1000);
+
+    // Import a CSV file into a table, reporting rows on the job; returns {inserted, updated, deleted}
+    public static long[] importCsv(String tableName, File csv, Job job) throws SQLException, IOException {
+        String table = tableName.trim().toLowerCase();
+        long fileBytes = csv.length();
+        long[] counts = new long[3];
+        try (CountingInputStream counted = new CountingInputStream(Files.newInputStream(csv.toPath()));
+             BufferedReader reader = new BufferedReader(new InputStreamReader(counted, StandardCharsets.UTF_8))) {
+            List<String> header = readRecord(reader);
+            if (header == null) {
+                throw new IllegalArgumentException("The CSV file is empty");
+            }
+            Columns columns = new Columns(table, header);
+
+            long rows = 0;
+            List<List<String>> batch = new ArrayList<>(batchSize);
+            try {
+                List<String> record;
+                while ((record = readRecord(reader)) != null) {
+                    if (record.size() == 1 && record.get(0).isEmpty()) {
+                        continue;
+                    }
+                    if (record.size() != header.size()) {
+                        throw new IllegalArgumentException("Row " + (rows + batch.size() + 1) + " has " + record.size()
+                                + " fields, the header has " + header.size());
+                    }
+                    batch.add(record);
+                    if (batch.size() == batchSize) {
+                        rows += writeBatch(columns, batch, rows + 1, counts);
+                        // Rows so far, scaled by the share of the file read, until the whole file is counted
+                        job.setTotal(Math.max(rows, (long) ((double) rows * fileBytes / Math.max(1, counted.count))));
+                        job.advance(batch.size());
+                        batch.clear();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    rows += writeBatch(columns, batch, rows + 1, counts);
+                    job.advance(batch.size());
+                }
+                job.setTotal(rows);
+            } finally {
+                if (table.equals("items") && rows > 0) {
+                    DatabaseManager.executeUpdate("INSERT INTO items_fts(items_fts) VALUES('rebuild')");
+                }
+            }
+        }
+        return counts;
+    }
+
+    // One transaction; the in-memory views of the tables are dropped under the same write lock, and the alerts
+    // raised by inventory rows are published before it is released, like InventoryService's stock writes.
+    // firstRow is the row number of the batch's first record, for the error of a row that fails.
+    private static int writeBatch(Columns columns, List<List<String>> batch, long firstRow, long[] counts)
+            throws SQLException {
+        return DatabaseManager.withWriteLock(conn -> {
+            Set<Long> existing = columns.idIndex >= 0 ? existingIds(conn, columns, batch, firstRow) : new HashSet<>();
+            List<JSONObject> alerts = new ArrayList<>();
+            DatabaseManager.inTransaction(t -> {
+                for (int i = 0; i < batch.size(); i++) {
+                    try {
+                        writeRow(conn, columns, batch.get(i), existing, counts, alerts);
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("Row " + (firstRow + i) + ": " + e.getMessage(), e);
+                    } catch (SQLException e) {
+                        throw new SQLException("Row " + (firstRow + i) + ": " + e.getMessage(), e.getSQLState(),
+                                e.getErrorCode(), e);
+                    }
+                }
+                return null;
+            });
+            // The batch can touch any row, so the in-memory views are reloaded rather than updated row by row
+            InventoryStatistics.invalidate();
+            InventoryStore.invalidate();
+            PriceMatrix.invalidate();
+            DistributorService.clearCaches();
+            AlertEngine.publish(alerts);
+            return batch.size();
+        });
+    }
+
+    // Upsert, insert or delete one record
+    private static void writeRow(Connection conn, Columns columns, List<String> record, Set<Long> existing,
+                                 long[] counts, List<JSONObject> alerts) throws SQLException {
+        Long id = columns.idIndex >= 0 ? parseId(record.get(columns.idIndex)) : null;
+        if (columns.opIndex >= 0 && "delete".equals(record.get(columns.opIndex))) {
+            if (id == null) {
+                throw new IllegalArgumentException("Deleted rows need an id");
+            }
+            counts[2] += delete(conn, columns.table, id);
+            return;
+        }
+        Object[] values = columns.values(record);
+        checkNotTombstoned(conn, columns, record, id);
+        int[] previous = columns.table.equals("inventory") && id != null ? readStock(conn, id) : null;
+        long rowId;
+        if (id == null) {
+            rowId = DatabaseManager.executeInsert(columns.insertSql, values);
+            ChangeLog.record(columns.table, rowId, ChangeLog.INSERT);
+            counts[0]++;
+        } else {
+            DatabaseManager.executeUpdate(columns.upsertSql, values);
+            boolean updated = existing.contains(id);
+            ChangeLog.record(columns.table, id, updated ? ChangeLog.UPDATE : ChangeLog.INSERT);
+            counts[updated ? 1 : 0]++;
+            existing.add(id);
+            rowId = id;
+        }
+        if (columns.table.equals("inventory")) {
+            stockWritten(conn, rowId, previous, alerts);
+        }
+    }
+
+    // Delete one row the way the service layer would; returns the rows deleted (0 or 1)
+    private static int delete(Connection conn, String table, long id) throws SQLException {
+        switch (table) {
+            case "distributors":
+                // Tombstoned like DistributorService.deleteDistributor(); the compactor purges its price rows
+                return isTombstoned(conn, id) || !exists(conn, table, id) ? 0 : DistributorService.tombstone((int) id);
+            case "items":
+                // The inventory row and price rows go with the item (ON DELETE CASCADE), so they are logged too
+                ChangeLog.recordWhere("inventory", ChangeLog.DELETE, "item = ?", id);
+                ChangeLog.recordWhere("distributor_prices", ChangeLog.DELETE, "item = ?", id);
+                break;
+            default:
+                break;
+        }
+        ChangeLog.recordWhere(table, ChangeLog.DELETE, "id = ?", id);
+        return DatabaseManager.executeUpdate("DELETE FROM " + table + " WHERE id = ?", id);
+    }
+
+    // A deleted distributor stays in the table until it is compacted: an upsert would land on a row no read sees
+    private static void checkNotTombstoned(Connection conn, Columns columns, List<String> record, Long id) throws SQLException {
+        Long distributorId = null;
+        if (columns.table.equals("distributors")) {
+            distributorId = id;
+        } else if (columns.table.equals("distributor_prices") && columns.indexOf("distributor") >= 0) {
+            distributorId = parseId(record.get(columns.indexOf("distributor")));
+        }
+        if (distributorId != null && isTombstoned(conn, distributorId)) {
+            throw new IllegalArgumentException("Distributor with ID " + distributorId + " was deleted");
+        }
+    }
+
+    // Stock history and alert evaluation for an inventory row just written, as InventoryService.writeStock() does
+    private static void stockWritten(Connection conn, long rowId, int[] previous, List<JSONObject> alerts) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT item, stock, capacity FROM inventory WHERE id = ?")) {
+            stmt.setLong(1, rowId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return;
+                }
+                int itemId = rs.getInt(1);
+                int stock = rs.getInt(2);
+                int capacity = rs.getInt(3);
+                // A row moved to another item starts that item's alert state afresh
+                int[] before = previous != null && previous[2] == itemId ? previous : null;
+                StockHistoryService.record(itemId, stock, capacity);
+                alerts.addAll(AlertEngine.evaluate(itemId, before, stock, capacity));
+            }
+        }
+    }
+
+    // {stock, capacity, item} of an inventory row, or null if there is none
+    private static int[] readStock(Connection conn, long rowId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT stock, capacity, item FROM inventory WHERE id = ?")) {
+            stmt.setLong(1, rowId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? new int[]{rs.getInt(1), rs.getInt(2), rs.getInt(3)} : null;
+            }
+        }
+    }
+
+    private static boolean isTombstoned(Connection conn, long distributorId) throws SQLException {
+        return hasRow(conn, "SELECT 1 FROM distributor_tombstones WHERE distributor = ?", distributorId);
+    }
+
+    private static boolean exists(Connection conn, String table, long id) throws SQLException {
+        return hasRow(conn, "SELECT 1 FROM " + table + " WHERE id = ?", id);
+    }
+
+    private static boolean hasRow(Connection conn, String sql, Object param) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            DatabaseManager.bindParams(stmt, param);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private static Set<Long> existingIds(Connection conn, Columns columns, List<List<String>> batch, long firstRow)
+            throws SQLException {
+        List<Object> ids = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Long id;
+            try {
+                id = parseId(batch.get(i).get(columns.idIndex));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Row " + (firstRow + i) + ": " + e.getMessage(), e);
+            }
+            if (id != null) {
+                ids.add(id);
+            }
+        }
+        Set<Long> existing = new HashSet<>();
+        if (ids.isEmpty()) {
+            return existing;
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT id FROM " + columns.table
+                + " WHERE id IN (" + InventoryService.placeholders(ids.size()) + ")")) {
+            DatabaseManager.bindParams(stmt, ids.toArray());
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    existing.add(rs.getLong(1));
+                }
+            }
+        }
+        return existing;
+    }
+
+    private static Long parseId(String value) {
+        if (value.isEmpty()) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid id " + value);
+        }
+    }
+
+    // The header mapped onto the table: which fields are written, and the id / _op positions
+    private static class Columns {
+        final String table;
+        final int idIndex;
+        final int opIndex;
+        // Positions in the record of the columns written, in insert order, their names and declared types
+        final int[] written;
+        final List<String> names;
+        final List<String> types;
+        final String insertSql;
+        final String upsertSql;
+
+        Columns(String table, List<String> header) throws SQLException {
+            this.table = table;
+            Map<String, String> known = new HashMap<>();
+            DatabaseManager.withWriteLock(conn -> {
+                try (PreparedStatement stmt = conn.prepareStatement("SELECT name, type FROM pragma_table_info(?)")) {
+                    stmt.setString(1, table);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            known.put(rs.getString(1), rs.getString(2).toLowerCase());
+                        }
+                    }
+                }
+                return null;
+            });
+
+            int id = -1;
+            int op = -1;
+            List<Integer> writtenColumns = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            List<String> types = new ArrayList<>();
+            for (int i = 0; i < header.size(); i++) {
+                String name = header.get(i).trim();
+                if (name.equals("_op")) {
+                    op = i;
+                } else if (name.equals("_version")) {
+                    continue;
+                } else if (!known.containsKey(name)) {
+                    // Column names go into the SQL, so only the table's own columns are accepted
+                    throw new IllegalArgumentException("Unknown column " + name + " for table " + table);
+                } else if (names.contains(name)) {
+                    throw new IllegalArgumentException("Duplicate column " + name);
+                } else {
+                    if (name.equals("id")) {
+                        id = i;
+                    }
+                    writtenColumns.add(i);
+                    names.add(name);
+                    types.add(known.get(name));
+                }
+            }
+            if (names.isEmpty()) {
+                throw new IllegalArgumentException("The header has no columns of table " + table);
+            }
+            this.idIndex = id;
+            this.opIndex = op;
+            this.written = writtenColumns.stream().mapToInt(Integer::intValue).toArray();
+            this.names = names;
+            this.types = types;
+
+            String list = String.join(", ", names);
+            String insert = "INSERT INTO " + table + " (" + list + ") VALUES (" + InventoryService.placeholders(names.size()) + ")";
+            List<String> assignments = new ArrayList<>();
+            for (String name : names) {
+                if (!name.equals("id")) {
+                    assignments.add(name + " = excluded." + name);
+                }
+            }
+            this.insertSql = insert;
+            this.upsertSql = insert + " ON CONFLICT(id) DO "
+                    + (assignments.isEmpty() ? "NOTHING" : "UPDATE SET " + String.join(", ", assignments));
+        }
+
+        // Position of a column in the record, or -1 if the file does not have it
+        int indexOf(String name) {
+            int i = names.indexOf(name);
+            return i < 0 ? -1 : written[i];
+        }
+
+        // The written fields, parsed by the columns' declared types and range-checked like the routes' input
+        Object[] values(List<String> record) {
+            Object[] values = new Object[written.length];
+            for (int i = 0; i < written.length; i++) {
+                String value = record.get(written[i]);
+                values[i] = value.isEmpty() ? null : parse(names.get(i), types.get(i), value);
+            }
+            return values;
+        }
+
+        // Declared types follow SQLite's affinity rules: "int" is an integer, "real", "floa" and "doub" a float;
+        // anything else (text) is bound as written
+        private Object parse(String name, String type, String value) {
+            try {
+                if (type.contains("int")) {
+                    long number = Long.parseLong(value.trim());
+                    if (table.equals("inventory") && name.equals("stock") && number < 0) {
+                        throw new IllegalArgumentException("Stock must be non-negative");
+                    }
+                    if (table.equals("inventory") && name.equals("capacity") && number <= 0) {
+                        throw new IllegalArgumentException("Capacity must be positive");
+                    }
+                    return number;
+                }
+                if (type.contains("real") || type.contains("floa") || type.contains("doub")) {
+                    double number = Double.parseDouble(value.trim());
+                    if (Double.isNaN(number) || Double.isInfinite(number)) {
+                        throw new NumberFormatException();
+                    }
+                    if (table.equals("distributor_prices") && name.equals("cost") && number < 0) {
+                        throw new IllegalArgumentException("Cost must be non-negative");
+                    }
+                    return number;
+                }
+                return value;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid " + type + " " + value + " for column " + name);
+            }
+        }
+    }
+
+    // Next CSV record (quoted fields may contain commas, quotes as "" and line breaks), or null at the end
+    static List<String> readRecord(BufferedReader reader) throws IOException {
+        int c = reader.read();
+        if (c == -1) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new IllegalArgumentException("Unterminated quoted field");
+                }
+                if (c == '"') {
+                    reader.mark(1);
+                    int next = reader.read();
+                    if (next == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        reader.reset();
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == -1) {
+                break;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+            c = reader.read();
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    // Bytes read from the file so far, for the progress estimate
+    private static class CountingInputStream extends FilterInputStream {
+        volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
@@ -1,13 +1,22 @@
 package com.topbloc.codechallenge.service;
 
+import com.topbloc.codechallenge.alerts.AlertEngine;
+import com.topbloc.codechallenge.db.ChangeLog;
 import com.topbloc.codechallenge.db.DatabaseManager;
 import org.json.simple.JSONArray;
+import org.json.simple.JSONAware;
 import org.json.simple.JSONObject;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /*
  * This class contains all business logic for inventory management operations in the candy inventory system.
@@ -25,12 +34,21 @@ import java.sql.SQLException;
  * - getOutOfStockItems(): Find items with zero stock remaining
  * - getOverstockedItems(): Identify items exceeding capacity limits
  * - getLowStockItems(): Find items below 35% of capacity (restock threshold)
+ * - getFilteredInventoryItems(): Items matching a filter= / sort= query (see RowFilter)
  * - getInventoryItemById(): Retrieve specific item details
+ * - getInventoryItemsByIds(): Retrieve many items in one query (multi-get), in request order
+ * - writeDashboard(): All items plus the three stock views and counts, streamed from one scan
+ * - getInventorySummary(): Totals, valuation at cheapest cost and status counts (see InventoryStatistics)
+ * - searchItemsByName(): Ranked prefix search over item names (items_fts index)
  * - addNewItem(): Create new product in catalog
  * - addItemToInventory(): Add existing items to inventory tracking
  * - updateInventoryItem(): Modify stock levels and capacity
  * - deleteInventoryItem(): Remove items from inventory tracking
  * 
+ * List methods take the fields to return (see INVENTORY_FIELDS) and only select those columns.
+ * When "inventory.columnar_store" is enabled the unfiltered reads are served from InventoryStore instead,
+ * which the write methods keep current after each commit.
+ * 
  * All methods include proper error handling, input validation, and return structured JSON responses.
  * Database operations use prepared statements for security and include duplicate prevention logic.
  * Stock analysis uses percentage-based thresholds for business intelligence reporting.
@@ -40,19 +58,35 @@ import java.sql.SQLException;
  */
 
 public class InventoryService {
+
+    // Fields the inventory list endpoints can return (fields= parameter)
+    public static final FieldProjection INVENTORY_FIELDS = new FieldProjection()
+            .field("id", "inv.item")
+            .field("name", "i.name")
+            .field("stock", "inv.stock")
+            .field("capacity", "inv.capacity");
+    // Fields item search can return
+    public static final FieldProjection SEARCH_FIELDS = new FieldProjection()
+            .field("id", "items_fts.rowid")
+            .field("name", "i.name");
+
+    // Fields /inventory can filter and sort on (filter= / sort= parameters)
+    public static final RowFilter INVENTORY_FILTER = new RowFilter("inventory", "inv.item")
+            .field("id", "inv.item", RowFilter.Type.INTEGER)
+            .field("name", "i.name", RowFilter.Type.TEXT)
+            .field("stock", "inv.stock", RowFilter.Type.INTEGER)
+            .field("capacity", "inv.capacity", RowFilter.Type.INTEGER)
+            .field("fill", "inv.stock * 1.0 / inv.capacity", RowFilter.Type.REAL);
+
+    private static final int SEARCH_RANK_MIN_LENGTH = 3;
     
-    //Get all items in inventory with name, ID, stock, and capacity
-    public static JSONArray getAllInventoryItems() {
-        String sql = "SELECT i.id, i.name, inv.stock, inv.capacity " +
-                    "FROM items i " +
-                    "INNER JOIN inventory inv ON i.id = inv.item " +
-                    "ORDER BY i.id";
-        
+    //Get all items in inventory with name, ID, stock, and capacity (or the requested subset of those fields)
+    public static JSONAware getAllInventoryItems(List<String> fields) {
         try {
-            Connection conn = DatabaseManager.getConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            ResultSet rs = stmt.executeQuery();
-            return DatabaseManager.convertResultSetToJson(rs);
+            if (InventoryStore.isEnabled()) {
+                return InventoryStore.list(InventoryStore.View.ALL, fields);
+            }
+            return queryInventory(null, fields);
         } catch (SQLException e) {
             System.err.println("Error getting all inventory items: " + e.getMessage());
             return new JSONArray();
@@ -60,18 +94,12 @@ public class InventoryService {
     }
     
     //Get all out of stock items (stock = 0)
-    public static JSONArray getOutOfStockItems() {
-        String sql = "SELECT i.id, i.name, inv.stock, inv.capacity " +
-                    "FROM items i " +
-                    "INNER JOIN inventory inv ON i.id = inv.item " +
-                    "WHERE inv.stock = 0 " +
-                    "ORDER BY i.id";
-        
+    public static JSONAware getOutOfStockItems(List<String> fields) {
         try {
-            Connection conn = DatabaseManager.getConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            ResultSet rs = stmt.executeQuery();
-            return DatabaseManager.convertResultSetToJson(rs);
+            if (InventoryStore.isEnabled()) {
+                return InventoryStore.list(InventoryStore.View.OUT_OF_STOCK, fields);
+            }
+            return queryInventory("inv.stock = 0", fields);
         } catch (SQLException e) {
             System.err.println("Error getting out of stock items: " + e.getMessage());
             return new JSONArray();
@@ -79,59 +107,172 @@ public class InventoryService {
     }
     
     //Get all overstocked items (stock > capacity)
-    public static JSONArray getOverstockedItems() {
-        String sql = "SELECT i.id, i.name, inv.stock, inv.capacity " +
-                    "FROM items i " +
-                    "INNER JOIN inventory inv ON i.id = inv.item " +
-                    "WHERE inv.stock > inv.capacity " +
-                    "ORDER BY i.id";
-        
+    public static JSONAware getOverstockedItems(List<String> fields) {
         try {
-            Connection conn = DatabaseManager.getConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            ResultSet rs = stmt.executeQuery();
-            return DatabaseManager.convertResultSetToJson(rs);
+            if (InventoryStore.isEnabled()) {
+                return InventoryStore.list(InventoryStore.View.OVERSTOCKED, fields);
+            }
+            return queryInventory("inv.stock > inv.capacity", fields);
         } catch (SQLException e) {
             System.err.println("Error getting overstocked items: " + e.getMessage());
             return new JSONArray();
         }
     }
     
-    // Get all low stock items (stock < 35% of capacity)
-    public static JSONArray getLowStockItems() {
-        String sql = "SELECT i.id, i.name, inv.stock, inv.capacity " +
-                    "FROM items i " +
-                    "INNER JOIN inventory inv ON i.id = inv.item " +
-                    "WHERE inv.stock  * 1.0 / inv.capacity < 0.35 " +
-                    "ORDER BY i.id";
-        
+    // Get all low stock items (stock below LOW_STOCK_RATIO of capacity)
+    public static JSONAware getLowStockItems(List<String> fields) {
         try {
-            Connection conn = DatabaseManager.getConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            ResultSet rs = stmt.executeQuery();
-            return DatabaseManager.convertResultSetToJson(rs);
+            if (InventoryStore.isEnabled()) {
+                return InventoryStore.list(InventoryStore.View.LOW_STOCK, fields);
+            }
+            return queryInventory("inv.stock * 1.0 / inv.capacity < ?", fields, InventoryStatistics.LOW_STOCK_RATIO);
         } catch (SQLException e) {
             System.err.println("Error getting low stock items: " + e.getMessage());
             return new JSONArray();
         }
     }
     
+    //Get the inventory items matching a filter, in the requested order
+    public static JSONArray getFilteredInventoryItems(RowFilter.Query query, List<String> fields) {
+        String sql = "SELECT " + INVENTORY_FIELDS.selectList(fields) + " " +
+                    "FROM inventory inv " +
+                    (fields.contains("name") || query.uses("name") ? "INNER JOIN items i ON i.id = inv.item " : "") +
+                    (query.where() != null ? "WHERE " + query.where() + " " : "") +
+                    "ORDER BY " + query.orderBy();
+        
+        try {
+            return DatabaseManager.queryForJson(sql, query.params().toArray());
+        } catch (SQLException e) {
+            System.err.println("Error getting filtered inventory items: " + e.getMessage());
+            return new JSONArray();
+        }
+    }
+    
+    // Select the requested fields of the matching inventory rows; items is only joined when name is requested
+    private static JSONArray queryInventory(String condition, List<String> fields, Object... params) throws SQLException {
+        String sql = "SELECT " + INVENTORY_FIELDS.selectList(fields) + " " +
+                    "FROM inventory inv " +
+                    (fields.contains("name") ? "INNER JOIN items i ON i.id = inv.item " : "") +
+                    (condition != null ? "WHERE " + condition + " " : "") +
+                    "ORDER BY inv.item";
+        return DatabaseManager.queryForJson(sql, params);
+    }
+    
+    //Stream the inventory dashboard: every item, the out of stock, overstocked and low stock views and their counts,
+    //partitioned in a single scan. Rows of "all" are written as they are read; the smaller views are buffered and
+    //written after it. Runs on its own connection (WAL read transaction) so a slow client never holds up writers.
+    public static void writeDashboard(Appendable out, List<String> fields) throws SQLException, IOException {
+        if (InventoryStore.isEnabled()) {
+            InventoryStore.writeDashboard(out, fields);
+            return;
+        }
+        String sql = "SELECT " + INVENTORY_FIELDS.selectList(fields) + ", inv.stock AS _stock, inv.capacity AS _capacity " +
+                    "FROM inventory inv " +
+                    (fields.contains("name") ? "INNER JOIN items i ON i.id = inv.item " : "") +
+                    "ORDER BY inv.item";
+        
+        try (Connection conn = DatabaseManager.openConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            StringBuilder outOfStock = new StringBuilder();
+            StringBuilder overstocked = new StringBuilder();
+            StringBuilder lowStock = new StringBuilder();
+            int all = 0, outOfStockCount = 0, overstockedCount = 0, lowStockCount = 0;
+            
+            out.append("{\"all\":[");
+            while (rs.next()) {
+                JSONObject item = new JSONObject();
+                for (String field : fields) {
+                    item.put(field, rs.getObject(field));
+                }
+                String json = item.toJSONString();
+                out.append(all++ == 0 ? "" : ",").append(json);
+                
+                int stock = rs.getInt("_stock");
+                int capacity = rs.getInt("_capacity");
+                if (stock == 0) {
+                    outOfStock.append(outOfStockCount++ == 0 ? "" : ",").append(json);
+                }
+                if (stock > capacity) {
+                    overstocked.append(overstockedCount++ == 0 ? "" : ",").append(json);
+                }
+                if (capacity != 0 && (double) stock / capacity < InventoryStatistics.LOW_STOCK_RATIO) {
+                    lowStock.append(lowStockCount++ == 0 ? "" : ",").append(json);
+                }
+            }
+            out.append("],\"outOfStock\":[").append(outOfStock)
+                    .append("],\"overstocked\":[").append(overstocked)
+                    .append("],\"lowStock\":[").append(lowStock)
+                    .append("],\"counts\":{\"all\":").append(String.valueOf(all))
+                    .append(",\"outOfStock\":").append(String.valueOf(outOfStockCount))
+                    .append(",\"overstocked\":").append(String.valueOf(overstockedCount))
+                    .append(",\"lowStock\":").append(String.valueOf(lowStockCount))
+                    .append("}}");
+        }
+    }
+    
+    //Get several inventory items by ID in one query, in request order; IDs not in inventory are listed as missing
+    public static JSONAware getInventoryItemsByIds(List<Integer> itemIds, List<String> fields) {
+        if (InventoryStore.isEnabled()) {
+            try {
+                return InventoryStore.getByIds(itemIds, fields);
+            } catch (SQLException e) {
+                System.err.println("Error getting inventory items by IDs: " + e.getMessage());
+                return null;
+            }
+        }
+        // The id is always selected to put rows back in request order, and trimmed afterwards if not requested
+        List<String> selected = fields;
+        if (!fields.contains("id")) {
+            selected = new ArrayList<>(fields);
+            selected.add("id");
+            selected = INVENTORY_FIELDS.parse(selected);
+        }
+        String sql = "SELECT " + INVENTORY_FIELDS.selectList(selected) + " " +
+                    "FROM inventory inv " +
+                    (fields.contains("name") ? "INNER JOIN items i ON i.id = inv.item " : "") +
+                    "WHERE inv.item IN (" + placeholders(itemIds.size()) + ")";
+        
+        try {
+            Map<Integer, JSONObject> rowsById = new HashMap<>();
+            for (Object row : DatabaseManager.queryForJson(sql, itemIds.toArray())) {
+                rowsById.put(((Number) ((JSONObject) row).get("id")).intValue(), (JSONObject) row);
+            }
+            
+            JSONArray items = new JSONArray();
+            JSONArray missing = new JSONArray();
+            for (int itemId : itemIds) {
+                JSONObject row = rowsById.get(itemId);
+                if (row != null) {
+                    items.add(row);
+                } else {
+                    missing.add(itemId);
+                }
+            }
+            
+            JSONObject result = new JSONObject();
+            result.put("items", INVENTORY_FIELDS.project(items, fields));
+            result.put("missing", missing);
+            return result;
+        } catch (SQLException e) {
+            System.err.println("Error getting inventory items by IDs: " + e.getMessage());
+        }
+        
+        return null;
+    }
+    
     //Get inventory item by ID
-    public static JSONObject getInventoryItemById(int itemId) {
+    public static JSONAware getInventoryItemById(int itemId) {
         String sql = "SELECT i.id, i.name, inv.stock, inv.capacity " +
                     "FROM items i " +
                     "INNER JOIN inventory inv ON i.id = inv.item " +
                     "WHERE i.id = ?";
         
         try {
-            Connection conn = DatabaseManager.getConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, itemId);
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return DatabaseManager.convertRowToJson(rs, 
-                    java.util.List.of("id", "name", "stock", "capacity"));
+            if (InventoryStore.isEnabled()) {
+                return InventoryStore.get(itemId);
             }
+            return DatabaseManager.queryRowForJson(sql, itemId);
         } catch (SQLException e) {
             System.err.println("Error getting inventory item by ID: " + e.getMessage());
         }
@@ -139,32 +280,84 @@ public class InventoryService {
         return null;
     }
     
+    //Get running totals: units, capacity, value at the cheapest cost and stock status counts
+    public static JSONObject getInventorySummary() {
+        try {
+            return InventoryStatistics.getSummary();
+        } catch (SQLException e) {
+            System.err.println("Error getting inventory summary: " + e.getMessage());
+        }
+        
+        return null;
+    }
+    
+    //Search catalog items by name; every word of the query matches as a prefix, best matches first
+    public static JSONArray searchItemsByName(String query, int limit, List<String> fields) {
+        String matchExpression = toPrefixMatch(query);
+        if (matchExpression == null) {
+            return new JSONArray();
+        }
+        // Ranking scores every match, which is too slow for one or two letter prefixes on a large catalog
+        // and meaningless for them anyway - those return the first matches in id order
+        boolean ranked = query.trim().length() >= SEARCH_RANK_MIN_LENGTH;
+        String sql = "SELECT " + SEARCH_FIELDS.selectList(fields) + " " +
+                    "FROM items_fts " +
+                    (fields.contains("name") ? "INNER JOIN items i ON i.id = items_fts.rowid " : "") +
+                    "WHERE items_fts MATCH ? " +
+                    (ranked ? "ORDER BY items_fts.rank " : "") +
+                    "LIMIT ?";
+
+        try {
+            return DatabaseManager.queryForJson(sql, matchExpression, limit);
+        } catch (SQLException e) {
+            System.err.println("Error searching items: " + e.getMessage());
+            return new JSONArray();
+        }
+    }
+
+    // Turn free text into an FTS5 expression: each word becomes a quoted prefix term ("sour" "pa"*)
+    private static String toPrefixMatch(String query) {
+        StringBuilder match = new StringBuilder();
+        for (String word : query.trim().split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append('"').append(word).append("\"*");
+        }
+        return match.length() == 0 ? null : match.toString();
+    }
+
     //Add a new item to the database
     public static JSONObject addNewItem(String itemName) {
         String insertSql = "INSERT INTO items (name) VALUES (?)";
-        String selectSql = "SELECT last_insert_rowid()";
+        String indexSql = "INSERT INTO items_fts (rowid, name) VALUES (?, ?)";
         
         try {
-            Connection conn = DatabaseManager.getConnection();
-            
-            // Insert the new item
-            PreparedStatement insertStmt = conn.prepareStatement(insertSql);
-            insertStmt.setString(1, itemName);
-            
-            int affectedRows = insertStmt.executeUpdate();
-            if (affectedRows > 0) {
-                // Get the last inserted row ID (SQLite specific)
-                PreparedStatement selectStmt = conn.prepareStatement(selectSql);
-                ResultSet rs = selectStmt.executeQuery();
-                
-                if (rs.next()) {
-                    int newId = rs.getInt(1);
-                    JSONObject result = new JSONObject();
-                    result.put("id", newId);
-                    result.put("name", itemName);
-                    result.put("message", "Item added successfully");
-                    return result;
+            // Insert the new item, its search index entry and its change log entry together,
+            // so search and delta exports never miss a committed item
+            long newId = DatabaseManager.withWriteLock(c -> {
+                long id = DatabaseManager.inTransaction(t -> {
+                    long inserted = DatabaseManager.executeInsert(insertSql, itemName);
+                    if (inserted > 0) {
+                        DatabaseManager.executeUpdate(indexSql, inserted, itemName);
+                        ChangeLog.record("items", inserted, ChangeLog.INSERT);
+                    }
+                    return inserted;
+                });
+                if (id > 0) {
+                    InventoryStore.itemAdded((int) id, itemName);
                 }
+                return id;
+            });
+            if (newId > 0) {
+                JSONObject result = new JSONObject();
+                result.put("id", (int) newId);
+                result.put("name", itemName);
+                result.put("message", "Item added successfully");
+                return result;
             }
         } catch (SQLException e) {
             System.err.println("Error adding new item: " + e.getMessage());
@@ -180,14 +373,8 @@ public class InventoryService {
         String insertSql = "INSERT INTO inventory (item, stock, capacity) VALUES (?, ?, ?)";
         
         try {
-            Connection conn = DatabaseManager.getConnection();
-            
             // Check if item exists
-            PreparedStatement checkStmt = conn.prepareStatement(checkSql);
-            checkStmt.setInt(1, itemId);
-            ResultSet rs = checkStmt.executeQuery();
-            
-            if (!rs.next()) {
+            if (DatabaseManager.queryPrimaryRow(checkSql, itemId) == null) {
                 JSONObject error = new JSONObject();
                 error.put("error", "Item with ID " + itemId + " does not exist");
                 return error;
@@ -195,23 +382,14 @@ public class InventoryService {
             
             // Check if item already exists in inventory
             String inventoryCheckSql = "SELECT id FROM inventory WHERE item = ?";
-            PreparedStatement inventoryCheckStmt = conn.prepareStatement(inventoryCheckSql);
-            inventoryCheckStmt.setInt(1, itemId);
-            ResultSet inventoryRs = inventoryCheckStmt.executeQuery();
-            
-            if (inventoryRs.next()) {
+            if (DatabaseManager.queryPrimaryRow(inventoryCheckSql, itemId) != null) {
                 JSONObject error = new JSONObject();
                 error.put("error", "Item with ID " + itemId + " already exists in inventory");
                 return error;
             }
             
             // Add to inventory
-            PreparedStatement insertStmt = conn.prepareStatement(insertSql);
-            insertStmt.setInt(1, itemId);
-            insertStmt.setInt(2, stock);
-            insertStmt.setInt(3, capacity);
-            
-            int affectedRows = insertStmt.executeUpdate();
+            int affectedRows = writeStock(itemId, stock, capacity, insertSql, itemId, stock, capacity);
             if (affectedRows > 0) {
                 JSONObject result = new JSONObject();
                 result.put("itemId", itemId);
@@ -233,26 +411,15 @@ public class InventoryService {
         String checkSql = "SELECT id FROM inventory WHERE item = ?";
         
         try {
-            Connection conn = DatabaseManager.getConnection();
-            
             // Check if item exists in inventory
-            PreparedStatement checkStmt = conn.prepareStatement(checkSql);
-            checkStmt.setInt(1, itemId);
-            ResultSet rs = checkStmt.executeQuery();
-            
-            if (!rs.next()) {
+            if (DatabaseManager.queryPrimaryRow(checkSql, itemId) == null) {
                 JSONObject error = new JSONObject();
                 error.put("error", "Item with ID " + itemId + " does not exist in inventory");
                 return error;
             }
             
             // Update the inventory item
-            PreparedStatement updateStmt = conn.prepareStatement(updateSql);
-            updateStmt.setInt(1, stock);
-            updateStmt.setInt(2, capacity);
-            updateStmt.setInt(3, itemId);
-            
-            int affectedRows = updateStmt.executeUpdate();
+            int affectedRows = writeStock(itemId, stock, capacity, updateSql, stock, capacity, itemId);
             if (affectedRows > 0) {
                 JSONObject result = new JSONObject();
                 result.put("itemId", itemId);
@@ -279,24 +446,26 @@ public class InventoryService {
         String deleteSql = "DELETE FROM inventory WHERE item = ?";
         
         try {
-            Connection conn = DatabaseManager.getConnection();
-            
             // Check if item exists in inventory
-            PreparedStatement checkStmt = conn.prepareStatement(checkSql);
-            checkStmt.setInt(1, itemId);
-            ResultSet rs = checkStmt.executeQuery();
-            
-            if (!rs.next()) {
+            if (DatabaseManager.queryPrimaryRow(checkSql, itemId) == null) {
                 JSONObject error = new JSONObject();
                 error.put("error", "Item with ID " + itemId + " does not exist in inventory");
                 return error;
             }
             
-            // Delete the item from inventory
-            PreparedStatement deleteStmt = conn.prepareStatement(deleteSql);
-            deleteStmt.setInt(1, itemId);
-            
-            int affectedRows = deleteStmt.executeUpdate();
+            // Delete the item from inventory and the running summary
+            int affectedRows = DatabaseManager.withWriteLock(c -> {
+                int rows = DatabaseManager.inTransaction(t -> {
+                    ChangeLog.recordWhere("inventory", ChangeLog.DELETE, "item = ?", itemId);
+                    return DatabaseManager.executeUpdate(deleteSql, itemId);
+                });
+                if (rows > 0) {
+                    InventoryStatistics.stockRemoved(itemId);
+                    InventoryStore.stockRemoved(itemId);
+                    PriceMatrix.stockRemoved(itemId);
+                }
+                return rows;
+            });
             if (affectedRows > 0) {
                 JSONObject result = new JSONObject();
                 result.put("itemId", itemId);
@@ -314,4 +483,46 @@ public class InventoryService {
             return error;
         }
     }
+
+    // Run an inventory insert/update together with its change log and stock history entries and its alert
+    // evaluation in one transaction. The running summary, the in-memory copies (InventoryStore, PriceMatrix)
+    // and alert subscribers are updated before the write lock is released, so they see stock writes in
+    // commit order.
+    private static int writeStock(int itemId, int stock, int capacity, String sql, Object... params) throws SQLException {
+        return DatabaseManager.withWriteLock(c -> {
+            int[] previous = readStock(c, itemId);
+            List<JSONObject> alerts = new ArrayList<>();
+            int rows = DatabaseManager.inTransaction(t -> {
+                int affected = DatabaseManager.executeUpdate(sql, params);
+                if (affected > 0) {
+                    ChangeLog.recordWhere("inventory", previous == null ? ChangeLog.INSERT : ChangeLog.UPDATE, "item = ?", itemId);
+                    StockHistoryService.record(itemId, stock, capacity);
+                    alerts.addAll(AlertEngine.evaluate(itemId, previous, stock, capacity));
+                }
+                return affected;
+            });
+            if (rows > 0) {
+                InventoryStatistics.stockChanged(itemId, stock, capacity);
+                InventoryStore.stockChanged(itemId, stock, capacity);
+                PriceMatrix.stockChanged(itemId, stock, capacity);
+                AlertEngine.publish(alerts);
+            }
+            return rows;
+        });
+    }
+
+    // Current {stock, capacity} of an inventory row, or null if the item is not in inventory
+    private static int[] readStock(Connection conn, int itemId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT stock, capacity FROM inventory WHERE item = ?")) {
+            stmt.setInt(1, itemId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? new int[]{rs.getInt("stock"), rs.getInt("capacity")} : null;
+            }
+        }
+    }
+
+    // "?, ?, ?" for a bound IN list
+    static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
 }
@@ -0,0 +1,248 @@
+package com.topbloc.codechallenge.service;
+
+import com.topbloc.codechallenge.db.DatabaseManager;
+import org.json.simple.JSONObject;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Running aggregates over the inventory for GET /inventory/summary.
+ *
+ * The totals (units, capacity, value at the cheapest available cost, stock status counts) are loaded from
+ * the database once and then adjusted by the service write paths:
+ * - stockChanged() / stockRemoved(): O(1), the old row is subtracted and the new one added
+ * - priceChanged() / distributorRemoved(): O(1) unless the item's current cheapest price goes up or away,
+ *   in which case only that item's offerings are scanned for the new minimum
+ *
+ * Callers apply their change while holding DatabaseManager's write lock, so the aggregates see mutations in
+ * commit order. Wholesale data replacement (/reset, snapshot restore, replicated batches) only marks the
+ * aggregates stale; they are reloaded on the next read.
+ *
+ * Value is accumulated in millionths of a currency unit so repeated updates do not drift.
+ */
+public class InventoryStatistics {
+    // Share of capacity below which an item is low on stock, for every low stock view, count and alert
+    public static final double LOW_STOCK_RATIO = 0.35;
+    private static final long VALUE_SCALE = 1_000_000L;
+
+    // item -> {stock, capacity} of the inventory rows
+    private static final Map<Integer, int[]> stockByItem = new HashMap<>();
+    // item -> distributor -> unit cost, plus the cheapest cost per item
+    private static final Map<Integer, Map<Integer, Double>> costsByItem = new HashMap<>();
+    private static final Map<Integer, Double> cheapestCostByItem = new HashMap<>();
+
+    private static volatile boolean loaded;
+    private static long totalUnits;
+    private static long totalCapacity;
+    private static long scaledValue;
+    private static int unpricedItems;
+    private static int outOfStock;
+    private static int lowStock;
+    private static int overstocked;
+    private static long loads;
+    private static long lastLoadMillis;
+
+    static {
+        DatabaseManager.onDataReplaced(InventoryStatistics::invalidate, "inventory", "distributors", "distributor_prices", "distributor_tombstones");
+    }
+
+    public static JSONObject getSummary() throws SQLException {
+        if (!loaded) {
+            load();
+        }
+        synchronized (InventoryStatistics.class) {
+            JSONObject summary = new JSONObject();
+            summary.put("items", stockByItem.size());
+            summary.put("totalUnits", totalUnits);
+            summary.put("totalCapacity", totalCapacity);
+            summary.put("inventoryValue", Math.round(scaledValue / (VALUE_SCALE / 100.0)) / 100.0);
+            summary.put("unpricedItems", unpricedItems);
+            JSONObject statusCounts = new JSONObject();
+            statusCounts.put("outOfStock", outOfStock);
+            statusCounts.put("lowStock", lowStock);
+            statusCounts.put("overstocked", overstocked);
+            summary.put("statusCounts", statusCounts);
+            summary.put("loads", loads);
+            summary.put("lastLoadMillis", lastLoadMillis);
+            return summary;
+        }
+    }
+
+    public static synchronized void invalidate() {
+        loaded = false;
+    }
+
+    // An inventory row was inserted or updated
+    public static synchronized void stockChanged(int itemId, int stock, int capacity) {
+        if (!loaded) {
+            return;
+        }
+        remove(itemId);
+        add(itemId, stock, capacity);
+    }
+
+    // An inventory row was deleted
+    public static synchronized void stockRemoved(int itemId) {
+        if (!loaded) {
+            return;
+        }
+        remove(itemId);
+    }
+
+    // A catalog price was added or updated
+    public static synchronized void priceChanged(int distributorId, int itemId, double cost) {
+        if (!loaded) {
+            return;
+        }
+        Double previous = costsByItem.computeIfAbsent(itemId, k -> new HashMap<>()).put(distributorId, cost);
+        Double cheapest = cheapestCostByItem.get(itemId);
+        if (cheapest == null || cost < cheapest) {
+            setCheapestCost(itemId, cost);
+        } else if (previous != null && previous.equals(cheapest) && cost > previous) {
+            setCheapestCost(itemId, minCost(itemId));
+        }
+    }
+
+    // A distributor and its catalog entries for the given items were deleted
+    public static synchronized void distributorRemoved(int distributorId, List<Integer> catalogItemIds) {
+        if (!loaded) {
+            return;
+        }
+        for (int itemId : catalogItemIds) {
+            Map<Integer, Double> costs = costsByItem.get(itemId);
+            if (costs == null || costs.remove(distributorId) == null) {
+                continue;
+            }
+            if (costs.isEmpty()) {
+                costsByItem.remove(itemId);
+            }
+            setCheapestCost(itemId, minCost(itemId));
+        }
+    }
+
+    // Reload all aggregates; runs under the write lock so no mutation can slip in between
+    private static void load() throws SQLException {
+        DatabaseManager.withWriteLock(conn -> {
+            synchronized (InventoryStatistics.class) {
+                if (loaded) {
+                    return null;
+                }
+                long start = System.nanoTime();
+                clear();
+                try (Statement stmt = conn.createStatement()) {
+                    try (ResultSet rs = stmt.executeQuery("SELECT distributor, item, cost FROM active_distributor_prices")) {
+                        while (rs.next()) {
+                            int itemId = rs.getInt("item");
+                            double cost = rs.getDouble("cost");
+                            costsByItem.computeIfAbsent(itemId, k -> new HashMap<>()).put(rs.getInt("distributor"), cost);
+                            Double cheapest = cheapestCostByItem.get(itemId);
+                            if (cheapest == null || cost < cheapest) {
+                                cheapestCostByItem.put(itemId, cost);
+                            }
+                        }
+                    }
+                    try (ResultSet rs = stmt.executeQuery("SELECT item, stock, capacity FROM inventory")) {
+                        while (rs.next()) {
+                            add(rs.getInt("item"), rs.getInt("stock"), rs.getInt("capacity"));
+                        }
+                    }
+                }
+                loads++;
+                lastLoadMillis = (System.nanoTime() - start) / 1_000_000;
+                loaded = true;
+                return null;
+            }
+        });
+    }
+
+    private static void clear() {
+        stockByItem.clear();
+        costsByItem.clear();
+        cheapestCostByItem.clear();
+        totalUnits = 0;
+        totalCapacity = 0;
+        scaledValue = 0;
+        unpricedItems = 0;
+        outOfStock = 0;
+        lowStock = 0;
+        overstocked = 0;
+    }
+
+    private static void add(int itemId, int stock, int capacity) {
+        stockByItem.put(itemId, new int[]{stock, capacity});
+        count(stock, capacity, 1);
+        Double cheapest = cheapestCostByItem.get(itemId);
+        if (cheapest == null) {
+            unpricedItems++;
+        } else {
+            scaledValue += stock * toScaled(cheapest);
+        }
+    }
+
+    private static void remove(int itemId) {
+        int[] row = stockByItem.remove(itemId);
+        if (row == null) {
+            return;
+        }
+        count(row[0], row[1], -1);
+        Double cheapest = cheapestCostByItem.get(itemId);
+        if (cheapest == null) {
+            unpricedItems--;
+        } else {
+            scaledValue -= row[0] * toScaled(cheapest);
+        }
+    }
+
+    // Same status rules as the out-of-stock, overstocked and low-stock queries in InventoryService
+    private static void count(int stock, int capacity, int sign) {
+        totalUnits += sign * (long) stock;
+        totalCapacity += sign * (long) capacity;
+        if (stock == 0) {
+            outOfStock += sign;
+        }
+        if (stock > capacity) {
+            overstocked += sign;
+        }
+        if (capacity != 0 && (double) stock / capacity < LOW_STOCK_RATIO) {
+            lowStock += sign;
+        }
+    }
+
+    // Re-price the item's stock when its cheapest cost changes (null = no offerings left)
+    private static void setCheapestCost(int itemId, Double cost) {
+        int[] row = stockByItem.get(itemId);
+        if (row != null) {
+            remove(itemId);
+        }
+        if (cost == null) {
+            cheapestCostByItem.remove(itemId);
+        } else {
+            cheapestCostByItem.put(itemId, cost);
+        }
+        if (row != null) {
+            add(itemId, row[0], row[1]);
+        }
+    }
+
+    private static Double minCost(int itemId) {
+        Map<Integer, Double> costs = costsByItem.get(itemId);
+        Double min = null;
+        if (costs != null) {
+            for (double cost : costs.values()) {
+                if (min == null || cost < min) {
+                    min = cost;
+                }
+            }
+        }
+        return min;
+    }
+
+    private static long toScaled(double cost) {
+        return Math.round(cost * VALUE_SCALE);
+    }
+}
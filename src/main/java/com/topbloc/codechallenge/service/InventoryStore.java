@@ -0,0 +1,440 @@
+package com.topbloc.codechallenge.service;
+
+import com.topbloc.codechallenge.config.Settings;
+import com.topbloc.codechallenge.db.DatabaseManager;
+import org.json.simple.JSONAware;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Columnar in-memory copy of the inventory that serves the inventory reads when
+ * "inventory.columnar_store" is enabled.
+ *
+ * Item IDs are dense integer keys, so every column is a plain array indexed by item ID:
+ * - stock[], capacity[]: the inventory row of the item
+ * - names[]: the item name, stored already JSON-escaped so it can be copied into responses as is
+ * - bitmaps: items in inventory, out of stock, low stock and overstocked (same rules as the SQL queries)
+ *
+ * Responses are rendered straight from the columns into one StringBuilder: no JSONObject, boxed Integer or
+ * iterator is created per row. The store is loaded from SQLite on first use and then kept current by the
+ * InventoryService write paths after each commit (while they hold the database write lock, so changes
+ * apply in commit order). /reset, snapshot restores and replicated batches mark it stale and it is
+ * reloaded on the next read.
+ *
+ * If the item IDs are too sparse for arrays (largest ID above "inventory.columnar_store.max_slots") the
+ * store stays empty and the SQL read paths are used.
+ */
+public class InventoryStore {
+
+    public enum View { ALL, OUT_OF_STOCK, LOW_STOCK, OVERSTOCKED }
+
+    private static final boolean enabled = Settings.getBoolean("inventory.columnar_store", false);
+    private static final int maxSlots = Settings.getInt("inventory.columnar_store.max_slots", 16_000_000);
+    private static final int DASHBOARD_CHUNK = 1024;
+    private static final int ID = 0, NAME = 1, STOCK = 2, CAPACITY = 3;
+
+    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private static int[] stock = new int[0];
+    private static int[] capacity = new int[0];
+    private static String[] names = new String[0];
+    private static final BitSet inInventory = new BitSet();
+    private static final BitSet outOfStock = new BitSet();
+    private static final BitSet lowStock = new BitSet();
+    private static final BitSet overstocked = new BitSet();
+    private static volatile boolean loaded;
+    private static volatile boolean tooSparse;
+    private static long nameBytes;
+    private static long loads;
+    private static long lastLoadMillis;
+    private static final AtomicLong reads = new AtomicLong();
+
+    static {
+        DatabaseManager.onDataReplaced(InventoryStore::invalidate, "items", "inventory");
+    }
+
+    // A JSON document rendered by the store; written to the response as is
+    private static class RenderedJson implements JSONAware {
+        private final String json;
+
+        RenderedJson(CharSequence json) {
+            this.json = json.toString();
+        }
+
+        @Override
+        public String toJSONString() {
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            return json;
+        }
+    }
+
+    // Loads the store first, so the request that finds the ids too sparse already falls back to SQL
+    public static boolean isEnabled() {
+        if (!enabled) {
+            return false;
+        }
+        try {
+            ensureLoaded();
+        } catch (SQLException e) {
+            System.err.println("Error loading columnar inventory store: " + e.getMessage());
+            return false;
+        }
+        return !tooSparse;
+    }
+
+    public static void invalidate() {
+        loaded = false;
+        // The data was replaced; the next load checks the id range again
+        tooSparse = false;
+    }
+
+    // Rows of one view, in item ID order
+    public static JSONAware list(View view, List<String> fields) throws SQLException {
+        ensureLoaded();
+        int[] columns = columns(fields);
+        lock.readLock().lock();
+        try {
+            BitSet rows = bitmap(view);
+            StringBuilder json = new StringBuilder(rows.cardinality() * 16 * (columns.length + 1) + 2);
+            appendRows(json, rows, columns);
+            reads.incrementAndGet();
+            return new RenderedJson(json);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // One inventory row with all fields, or null if the item is not in inventory
+    public static JSONAware get(int itemId) throws SQLException {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            if (itemId < 0 || !inInventory.get(itemId)) {
+                return null;
+            }
+            StringBuilder json = new StringBuilder(96);
+            appendRow(json, itemId, columns(InventoryService.INVENTORY_FIELDS.all()));
+            reads.incrementAndGet();
+            return new RenderedJson(json);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Same document as InventoryService.getInventoryItemsByIds(): {"items": [...], "missing": [...]}
+    public static JSONAware getByIds(List<Integer> itemIds, List<String> fields) throws SQLException {
+        ensureLoaded();
+        int[] columns = columns(fields);
+        lock.readLock().lock();
+        try {
+            StringBuilder json = new StringBuilder(itemIds.size() * 16 * (columns.length + 1) + 32);
+            json.append("{\"items\":[");
+            boolean first = true;
+            for (int i = 0; i < itemIds.size(); i++) {
+                int itemId = itemIds.get(i);
+                if (itemId >= 0 && inInventory.get(itemId)) {
+                    if (!first) {
+                        json.append(',');
+                    }
+                    appendRow(json, itemId, columns);
+                    first = false;
+                }
+            }
+            json.append("],\"missing\":[");
+            first = true;
+            for (int i = 0; i < itemIds.size(); i++) {
+                int itemId = itemIds.get(i);
+                if (itemId < 0 || !inInventory.get(itemId)) {
+                    if (!first) {
+                        json.append(',');
+                    }
+                    json.append(itemId);
+                    first = false;
+                }
+            }
+            json.append("]}");
+            reads.incrementAndGet();
+            return new RenderedJson(json);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Same document as InventoryService.writeDashboard(), rendered from the bitmaps. Rows are written as they are
+    // rendered, DASHBOARD_CHUNK rows at a time: each chunk is rendered under the read lock and written after releasing
+    // it, so a slow client never holds up writers and the whole document is never buffered
+    public static void writeDashboard(Appendable out, List<String> fields) throws SQLException, IOException {
+        ensureLoaded();
+        int[] columns = columns(fields);
+        StringBuilder chunk = new StringBuilder(DASHBOARD_CHUNK * 16 * (columns.length + 1));
+        out.append("{\"all\":");
+        int all = writeRows(out, chunk, inInventory, columns);
+        out.append(",\"outOfStock\":");
+        int outOfStockCount = writeRows(out, chunk, outOfStock, columns);
+        out.append(",\"overstocked\":");
+        int overstockedCount = writeRows(out, chunk, overstocked, columns);
+        out.append(",\"lowStock\":");
+        int lowStockCount = writeRows(out, chunk, lowStock, columns);
+        // The counts are of the rows written, so they agree with the lists even if a writer ran in between chunks
+        out.append(",\"counts\":{\"all\":").append(String.valueOf(all))
+                .append(",\"outOfStock\":").append(String.valueOf(outOfStockCount))
+                .append(",\"overstocked\":").append(String.valueOf(overstockedCount))
+                .append(",\"lowStock\":").append(String.valueOf(lowStockCount))
+                .append("}}");
+        reads.incrementAndGet();
+    }
+
+    // An item was added to the catalog
+    public static void itemAdded(int itemId, String name) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                return;
+            }
+            ensureCapacity(itemId);
+            setName(itemId, name);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // An inventory row was inserted or updated
+    public static void stockChanged(int itemId, int newStock, int newCapacity) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                return;
+            }
+            ensureCapacity(itemId);
+            setStock(itemId, newStock, newCapacity);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // An inventory row was deleted
+    public static void stockRemoved(int itemId) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded || itemId >= stock.length) {
+                return;
+            }
+            stock[itemId] = 0;
+            capacity[itemId] = 0;
+            inInventory.clear(itemId);
+            outOfStock.clear(itemId);
+            lowStock.clear(itemId);
+            overstocked.clear(itemId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public static JSONObject getStats() {
+        lock.readLock().lock();
+        try {
+            JSONObject stats = new JSONObject();
+            stats.put("enabled", enabled);
+            stats.put("loaded", loaded);
+            stats.put("tooSparse", tooSparse);
+            int items = inInventory.cardinality();
+            long bytes = estimatedBytes();
+            stats.put("items", items);
+            stats.put("slots", stock.length);
+            stats.put("estimatedBytes", bytes);
+            stats.put("bytesPerItem", items == 0 ? 0 : Math.round((double) bytes / items));
+            stats.put("outOfStock", outOfStock.cardinality());
+            stats.put("lowStock", lowStock.cardinality());
+            stats.put("overstocked", overstocked.cardinality());
+            stats.put("reads", reads.get());
+            stats.put("loads", loads);
+            stats.put("lastLoadMillis", lastLoadMillis);
+            return stats;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Load the columns from the database; runs under the database write lock so no write can slip in between
+    private static void ensureLoaded() throws SQLException {
+        if (loaded || tooSparse) {
+            return;
+        }
+        DatabaseManager.withWriteLock(conn -> {
+            lock.writeLock().lock();
+            try {
+                if (loaded) {
+                    return null;
+                }
+                long start = System.nanoTime();
+                try (Statement stmt = conn.createStatement()) {
+                    int maxId;
+                    try (ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(id), 0) FROM items")) {
+                        maxId = rs.next() ? rs.getInt(1) : 0;
+                    }
+                    if (maxId >= maxSlots) {
+                        tooSparse = true;
+                        System.err.println("Columnar inventory store disabled: item id " + maxId
+                                + " exceeds inventory.columnar_store.max_slots");
+                        return null;
+                    }
+                    int slots = maxId + 1;
+                    stock = new int[slots];
+                    capacity = new int[slots];
+                    names = new String[slots];
+                    nameBytes = 0;
+                    inInventory.clear();
+                    outOfStock.clear();
+                    lowStock.clear();
+                    overstocked.clear();
+                    try (ResultSet rs = stmt.executeQuery("SELECT id, name FROM items")) {
+                        while (rs.next()) {
+                            setName(rs.getInt(1), rs.getString(2));
+                        }
+                    }
+                    try (ResultSet rs = stmt.executeQuery("SELECT item, stock, capacity FROM inventory")) {
+                        while (rs.next()) {
+                            setStock(rs.getInt(1), rs.getInt(2), rs.getInt(3));
+                        }
+                    }
+                }
+                loads++;
+                lastLoadMillis = (System.nanoTime() - start) / 1_000_000;
+                loaded = true;
+                return null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    private static void ensureCapacity(int itemId) {
+        if (itemId < stock.length) {
+            return;
+        }
+        int slots = Math.max(itemId + 1, stock.length + (stock.length >> 1));
+        stock = Arrays.copyOf(stock, slots);
+        capacity = Arrays.copyOf(capacity, slots);
+        names = Arrays.copyOf(names, slots);
+    }
+
+    private static void setName(int itemId, String name) {
+        String escaped = JSONValue.escape(name).intern();
+        if (names[itemId] != null) {
+            nameBytes -= stringBytes(names[itemId]);
+        }
+        names[itemId] = escaped;
+        nameBytes += stringBytes(escaped);
+    }
+
+    // Same status rules as the out-of-stock, overstocked and low-stock queries in InventoryService
+    private static void setStock(int itemId, int newStock, int newCapacity) {
+        stock[itemId] = newStock;
+        capacity[itemId] = newCapacity;
+        inInventory.set(itemId);
+        outOfStock.set(itemId, newStock == 0);
+        overstocked.set(itemId, newStock > newCapacity);
+        lowStock.set(itemId, newCapacity != 0 && (double) newStock / newCapacity < InventoryStatistics.LOW_STOCK_RATIO);
+    }
+
+    private static BitSet bitmap(View view) {
+        switch (view) {
+            case OUT_OF_STOCK: return outOfStock;
+            case LOW_STOCK: return lowStock;
+            case OVERSTOCKED: return overstocked;
+            default: return inInventory;
+        }
+    }
+
+    private static int[] columns(List<String> fields) {
+        int[] columns = new int[fields.size()];
+        for (int i = 0; i < columns.length; i++) {
+            switch (fields.get(i)) {
+                case "id": columns[i] = ID; break;
+                case "name": columns[i] = NAME; break;
+                case "stock": columns[i] = STOCK; break;
+                default: columns[i] = CAPACITY; break;
+            }
+        }
+        return columns;
+    }
+
+    private static void appendRows(StringBuilder json, BitSet rows, int[] columns) {
+        json.append('[');
+        for (int itemId = rows.nextSetBit(0); itemId >= 0; itemId = rows.nextSetBit(itemId + 1)) {
+            if (json.charAt(json.length() - 1) != '[') {
+                json.append(',');
+            }
+            appendRow(json, itemId, columns);
+        }
+        json.append(']');
+    }
+
+    // Write the rows of a bitmap as a JSON array, chunk by chunk; returns the number of rows written
+    private static int writeRows(Appendable out, StringBuilder chunk, BitSet rows, int[] columns) throws IOException {
+        out.append('[');
+        int written = 0;
+        int next = 0;
+        while (next >= 0) {
+            chunk.setLength(0);
+            lock.readLock().lock();
+            try {
+                int itemId = rows.nextSetBit(next);
+                for (int n = 0; itemId >= 0 && n < DASHBOARD_CHUNK; n++) {
+                    if (written++ > 0) {
+                        chunk.append(',');
+                    }
+                    appendRow(chunk, itemId, columns);
+                    itemId = rows.nextSetBit(itemId + 1);
+                }
+                next = itemId;
+            } finally {
+                lock.readLock().unlock();
+            }
+            out.append(chunk);
+        }
+        out.append(']');
+        return written;
+    }
+
+    private static void appendRow(StringBuilder json, int itemId, int[] columns) {
+        json.append('{');
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            switch (columns[i]) {
+                case ID: json.append("\"id\":").append(itemId); break;
+                case NAME: json.append("\"name\":\"").append(names[itemId]).append('"'); break;
+                case STOCK: json.append("\"stock\":").append(stock[itemId]); break;
+                default: json.append("\"capacity\":").append(capacity[itemId]); break;
+            }
+        }
+        json.append('}');
+    }
+
+    // Columns and bitmaps plus the name strings (compressed references, compact Latin-1 strings assumed)
+    private static long estimatedBytes() {
+        long arrays = 3L * (16 + 4L * stock.length);
+        long bitmaps = (inInventory.size() + outOfStock.size() + lowStock.size() + overstocked.size()) / 8;
+        return arrays + bitmaps + nameBytes;
+    }
+
+    private static long stringBytes(String value) {
+        // String object (24) + byte[] header (16) + contents, padded to 8 bytes
+        return 24 + ((16 + value.length() + 7) / 8) * 8;
+    }
+}
@@ -0,0 +1,437 @@
+package com.topbloc.codechallenge.service;
+
+import com.topbloc.codechallenge.config.Settings;
+import com.topbloc.codechallenge.db.DatabaseManager;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Distributor x item price matrix for bulk restock what-if pricing (GET /distributors/restock-costs).
+ *
+ * Each distributor is one float column indexed by item ID holding its unit cost, NaN where the item is not
+ * in its catalog. A parallel int column holds each item's restock need (capacity - stock, 0 when full or not
+ * in inventory). Pricing "restock everything to capacity" at every distributor is then one pass over two
+ * primitive arrays per distributor instead of an offerings query per item, and the cheapest mix is one
+ * running-minimum pass per column (NaN never compares lower, so "not offered" needs no branch).
+ *
+ * The matrix is loaded from distributor_prices and inventory on first use and then kept current by the
+ * DistributorService and InventoryService write paths after each commit, under the database write lock.
+ * /reset, snapshot restores and replicated batches mark it stale and it is reloaded on the next read.
+ * When the item IDs and distributors would need more than pricing.matrix.max_cells cells the matrix is not
+ * loaded and DistributorService prices the restock in SQL instead, until the data is replaced again.
+ *
+ * Totals are accumulated in double and rounded to cents.
+ */
+public class PriceMatrix {
+    private static final long maxCells = Settings.getLong("pricing.matrix.max_cells", 32_000_000L);
+
+    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private static int slots;
+    private static int columns;
+    private static int[] distributorIds = new int[0];
+    private static String[] distributorNames = new String[0];
+    private static float[][] prices = new float[0][];
+    private static int[] need = new int[0];
+    private static volatile boolean loaded;
+    private static volatile boolean tooLarge;
+    private static long loads;
+    private static long lastLoadMillis;
+    private static long computations;
+    private static long lastComputeMicros;
+
+    static {
+        DatabaseManager.onDataReplaced(PriceMatrix::invalidate, "items", "inventory", "distributors", "distributor_prices", "distributor_tombstones");
+    }
+
+    public static void invalidate() {
+        loaded = false;
+        // The data was replaced; the next load checks the size again
+        tooLarge = false;
+    }
+
+    // Loads the matrix first, so the request that finds it too large already falls back to SQL
+    public static boolean isEnabled() {
+        try {
+            ensureLoaded();
+        } catch (SQLException e) {
+            System.err.println("Error loading price matrix: " + e.getMessage());
+            return false;
+        }
+        return !tooLarge;
+    }
+
+    // Cost of restocking every inventory item to capacity at each distributor and with the cheapest offer per
+    // item; with a baseline distributor, savings are reported over the items the baseline and the other side both price
+    public static JSONObject getRestockCosts(Integer baselineId) throws SQLException {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            int baseline = baselineId == null ? -1 : column(baselineId);
+            if (baselineId != null && baseline < 0) {
+                JSONObject error = new JSONObject();
+                error.put("error", "Distributor with ID " + baselineId + " does not exist");
+                return error;
+            }
+            long start = System.nanoTime();
+
+            int items = 0;
+            long units = 0;
+            for (int i = 0; i < slots; i++) {
+                int q = need[i];
+                if (q > 0) {
+                    items++;
+                    units += q;
+                }
+            }
+
+            double[] totals = new double[columns];
+            int[] unpriced = new int[columns];
+            double[] savings = new double[columns];
+            float[] best = new float[slots];
+            int[] bestColumn = new int[slots];
+            Arrays.fill(best, Float.POSITIVE_INFINITY);
+            for (int c = 0; c < columns; c++) {
+                float[] column = prices[c];
+                double total = 0;
+                int missing = 0;
+                for (int i = 0; i < slots; i++) {
+                    int q = need[i];
+                    float p = column[i];
+                    if (q > 0) {
+                        if (p == p) {
+                            total += (double) p * q;
+                        } else {
+                            missing++;
+                        }
+                    }
+                    if (p < best[i]) {
+                        best[i] = p;
+                        bestColumn[i] = c;
+                    }
+                }
+                totals[c] = total;
+                unpriced[c] = missing;
+                if (baseline >= 0) {
+                    savings[c] = savings(prices[baseline], column);
+                }
+            }
+
+            double bestTotal = 0;
+            int bestUnpriced = 0;
+            for (int i = 0; i < slots; i++) {
+                int q = need[i];
+                if (q > 0) {
+                    if (best[i] == Float.POSITIVE_INFINITY) {
+                        bestUnpriced++;
+                    } else {
+                        bestTotal += (double) best[i] * q;
+                    }
+                }
+            }
+            double bestSavings = baseline >= 0 ? savingsOfBest(prices[baseline], best) : 0;
+            long micros = (System.nanoTime() - start) / 1_000;
+
+            JSONArray bestPerItem = new JSONArray();
+            for (int i = 0; i < slots; i++) {
+                int q = need[i];
+                float p = best[i];
+                if (q == 0 || p == Float.POSITIVE_INFINITY) {
+                    continue;
+                }
+                JSONObject row = new JSONObject();
+                row.put("itemId", i);
+                row.put("distributorId", distributorIds[bestColumn[i]]);
+                row.put("unitCost", toDouble(p));
+                row.put("quantity", q);
+                row.put("totalCost", cents((double) p * q));
+                bestPerItem.add(row);
+            }
+
+            JSONArray distributors = new JSONArray();
+            for (int c = 0; c < columns; c++) {
+                JSONObject row = new JSONObject();
+                row.put("distributorId", distributorIds[c]);
+                row.put("name", distributorNames[c]);
+                row.put("totalCost", cents(totals[c]));
+                row.put("pricedItems", items - unpriced[c]);
+                row.put("unpricedItems", unpriced[c]);
+                if (baseline >= 0) {
+                    row.put("savingsVsBaseline", cents(savings[c]));
+                }
+                distributors.add(row);
+            }
+            JSONObject cheapest = new JSONObject();
+            cheapest.put("totalCost", cents(bestTotal));
+            cheapest.put("unpricedItems", bestUnpriced);
+            if (baseline >= 0) {
+                cheapest.put("savingsVsBaseline", cents(bestSavings));
+            }
+            cheapest.put("items", bestPerItem);
+
+            JSONObject result = new JSONObject();
+            result.put("items", items);
+            result.put("units", units);
+            if (baseline >= 0) {
+                result.put("baselineDistributorId", baselineId);
+            }
+            result.put("distributors", distributors);
+            result.put("cheapestPerItem", cheapest);
+            // Time of the pricing passes, without building the response
+            result.put("computeMicros", micros);
+
+            synchronized (PriceMatrix.class) {
+                computations++;
+                lastComputeMicros = micros;
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Baseline cost minus column cost over the needed items both price
+    private static double savings(float[] baseline, float[] column) {
+        double savings = 0;
+        for (int i = 0; i < slots; i++) {
+            float difference = baseline[i] - column[i];
+            if (need[i] > 0 && difference == difference) {
+                savings += (double) difference * need[i];
+            }
+        }
+        return savings;
+    }
+
+    private static double savingsOfBest(float[] baseline, float[] best) {
+        double savings = 0;
+        for (int i = 0; i < slots; i++) {
+            float difference = baseline[i] - best[i];
+            // Infinity - Infinity and NaN - x are NaN: items without an offer on either side are skipped
+            if (need[i] > 0 && difference == difference && best[i] != Float.POSITIVE_INFINITY) {
+                savings += (double) difference * need[i];
+            }
+        }
+        return savings;
+    }
+
+    // A distributor was created (with an empty catalog)
+    public static void distributorAdded(int distributorId, String name) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                return;
+            }
+            addColumn(distributorId, name);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // A distributor and its catalog were deleted
+    public static void distributorRemoved(int distributorId) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                return;
+            }
+            int c = column(distributorId);
+            if (c < 0) {
+                return;
+            }
+            System.arraycopy(distributorIds, c + 1, distributorIds, c, columns - c - 1);
+            System.arraycopy(distributorNames, c + 1, distributorNames, c, columns - c - 1);
+            System.arraycopy(prices, c + 1, prices, c, columns - c - 1);
+            columns--;
+            prices[columns] = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // A catalog price was added or updated
+    public static void priceChanged(int distributorId, int itemId, double cost) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                return;
+            }
+            int c = column(distributorId);
+            if (c < 0) {
+                c = addColumn(distributorId, null);
+            }
+            ensureSlots(itemId + 1);
+            prices[c][itemId] = (float) cost;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // An inventory row was inserted or updated
+    public static void stockChanged(int itemId, int stock, int capacity) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                return;
+            }
+            ensureSlots(itemId + 1);
+            need[itemId] = Math.max(capacity - stock, 0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // An inventory row was deleted
+    public static void stockRemoved(int itemId) {
+        lock.writeLock().lock();
+        try {
+            if (loaded && itemId < slots) {
+                need[itemId] = 0;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public static JSONObject getStats() {
+        lock.readLock().lock();
+        try {
+            JSONObject stats = new JSONObject();
+            stats.put("loaded", loaded);
+            stats.put("tooLarge", tooLarge);
+            stats.put("distributors", columns);
+            stats.put("itemSlots", slots);
+            stats.put("estimatedBytes", 4L * slots * (columns + 1));
+            stats.put("loads", loads);
+            stats.put("lastLoadMillis", lastLoadMillis);
+            synchronized (PriceMatrix.class) {
+                stats.put("computations", computations);
+                stats.put("lastComputeMicros", lastComputeMicros);
+            }
+            return stats;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Load the matrix; runs under the database write lock so no write can slip in between
+    private static void ensureLoaded() throws SQLException {
+        if (loaded || tooLarge) {
+            return;
+        }
+        DatabaseManager.withWriteLock(conn -> {
+            lock.writeLock().lock();
+            try {
+                if (loaded) {
+                    return null;
+                }
+                long start = System.nanoTime();
+                try (Statement stmt = conn.createStatement()) {
+                    int distributorCount;
+                    int maxItemId;
+                    try (ResultSet rs = stmt.executeQuery("SELECT (SELECT COUNT(*) FROM active_distributors), " +
+                            "(SELECT COALESCE(MAX(id), 0) FROM items)")) {
+                        rs.next();
+                        distributorCount = rs.getInt(1);
+                        maxItemId = rs.getInt(2);
+                    }
+                    if ((long) (maxItemId + 1) * (distributorCount + 1) > maxCells) {
+                        tooLarge = true;
+                        System.err.println("Price matrix disabled: " + (maxItemId + 1) + " item slots x "
+                                + (distributorCount + 1) + " columns exceeds pricing.matrix.max_cells");
+                        return null;
+                    }
+                    slots = maxItemId + 1;
+                    columns = 0;
+                    distributorIds = new int[Math.max(distributorCount, 4)];
+                    distributorNames = new String[distributorIds.length];
+                    prices = new float[distributorIds.length][];
+                    need = new int[slots];
+                    try (ResultSet rs = stmt.executeQuery("SELECT id, name FROM active_distributors ORDER BY id")) {
+                        while (rs.next()) {
+                            addColumn(rs.getInt(1), rs.getString(2));
+                        }
+                    }
+                    try (ResultSet rs = stmt.executeQuery("SELECT distributor, item, cost FROM active_distributor_prices")) {
+                        while (rs.next()) {
+                            int c = column(rs.getInt(1));
+                            int itemId = rs.getInt(2);
+                            if (c >= 0 && itemId < slots) {
+                                prices[c][itemId] = (float) rs.getDouble(3);
+                            }
+                        }
+                    }
+                    try (ResultSet rs = stmt.executeQuery("SELECT item, stock, capacity FROM inventory")) {
+                        while (rs.next()) {
+                            int itemId = rs.getInt(1);
+                            if (itemId < slots) {
+                                need[itemId] = Math.max(rs.getInt(3) - rs.getInt(2), 0);
+                            }
+                        }
+                    }
+                }
+                loads++;
+                lastLoadMillis = (System.nanoTime() - start) / 1_000_000;
+                loaded = true;
+                return null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    // Column of a distributor, or -1; columns are kept in distributor ID order
+    private static int column(int distributorId) {
+        int c = Arrays.binarySearch(distributorIds, 0, columns, distributorId);
+        return c >= 0 ? c : -1;
+    }
+
+    private static int addColumn(int distributorId, String name) {
+        int c = -Arrays.binarySearch(distributorIds, 0, columns, distributorId) - 1;
+        if (c < 0) {
+            return column(distributorId);
+        }
+        if (columns == distributorIds.length) {
+            int grown = Math.max(4, columns * 2);
+            distributorIds = Arrays.copyOf(distributorIds, grown);
+            distributorNames = Arrays.copyOf(distributorNames, grown);
+            prices = Arrays.copyOf(prices, grown);
+        }
+        System.arraycopy(distributorIds, c, distributorIds, c + 1, columns - c);
+        System.arraycopy(distributorNames, c, distributorNames, c + 1, columns - c);
+        System.arraycopy(prices, c, prices, c + 1, columns - c);
+        float[] column = new float[slots];
+        Arrays.fill(column, Float.NaN);
+        distributorIds[c] = distributorId;
+        distributorNames[c] = name;
+        prices[c] = column;
+        columns++;
+        return c;
+    }
+
+    private static void ensureSlots(int required) {
+        if (required <= slots) {
+            return;
+        }
+        int grown = Math.max(required, slots + (slots >> 1));
+        for (int c = 0; c < columns; c++) {
+            prices[c] = Arrays.copyOf(prices[c], grown);
+            Arrays.fill(prices[c], slots, grown, Float.NaN);
+        }
+        need = Arrays.copyOf(need, grown);
+        slots = grown;
+    }
+
+    // Shortest decimal that rounds to the float, so 0.81f is reported as 0.81
+    private static double toDouble(float value) {
+        return Double.parseDouble(Float.toString(value));
+    }
+
+    private static double cents(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
@@ -0,0 +1,273 @@
+package com.topbloc.codechallenge.service;
+
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Filter and sort language of the list endpoints ("filter=", "sort=" and "limit=" query parameters).
+ *
+ * - filter=<field>:<op>:<value>, repeatable; all clauses must match. Numeric fields take eq, ne, lt, lte,
+ *   gt and gte, text fields take eq and prefix (case-sensitive).
+ * - sort=<field>,-<field>,... ("-" sorts descending); the endpoint's default order breaks ties
+ * - limit=<n> returns at most n rows (1 to MAX_LIMIT)
+ *
+ * Each endpoint registers the fields it allows with the SQL expression behind them, so requests can only
+ * combine whitelisted expressions and operators and every value is a bound parameter. A prefix compiles to
+ * a range (name >= 'Lic' AND name < 'Lid') that the index on the column can seek, which LIKE cannot.
+ *
+ * Compiled WHERE / ORDER BY / LIMIT clauses are cached by filter shape (fields, operators, sort and whether
+ * a limit is set, without the values), so repeated queries only bind new values. The cache keeps the
+ * MAX_PLANS most recently used shapes. Plans are SQL text rather than prepared statements: reads share the
+ * database connection across request threads, and a PreparedStatement cannot be used by two at once.
+ */
+public class RowFilter {
+    public enum Type { INTEGER, REAL, TEXT }
+
+    public static final int MAX_LIMIT = 10000;
+    private static final int MAX_CLAUSES = 16;
+    private static final int MAX_PLANS = 256;
+
+    private final String name;
+    private final String defaultOrder;
+    private final Map<String, String> expressions = new LinkedHashMap<>();
+    private final Map<String, Type> types = new LinkedHashMap<>();
+    // Least recently used plan first (guarded by itself)
+    private final Map<String, Plan> plans = new LinkedHashMap<String, Plan>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Plan> eldest) {
+            if (size() > MAX_PLANS) {
+                planEvictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+    private final AtomicLong planHits = new AtomicLong();
+    private final AtomicLong planMisses = new AtomicLong();
+    private final AtomicLong planEvictions = new AtomicLong();
+
+    // name identifies the endpoint in metrics; defaultOrder is the ORDER BY used without (or after) sort=
+    public RowFilter(String name, String defaultOrder) {
+        this.name = name;
+        this.defaultOrder = defaultOrder;
+    }
+
+    public RowFilter field(String name, String expression, Type type) {
+        expressions.put(name, expression);
+        types.put(name, type);
+        return this;
+    }
+
+    // A compiled filter: SQL clauses from the plan cache plus this request's values
+    public static class Query {
+        private final Plan plan;
+        private final List<Object> params;
+        private final List<String> fields;
+
+        private Query(Plan plan, List<Object> params, List<String> fields) {
+            this.plan = plan;
+            this.params = params;
+            this.fields = fields;
+        }
+
+        // Condition to AND into the WHERE clause, or null if there is none
+        public String where() {
+            return plan.where;
+        }
+
+        // ORDER BY (and LIMIT) clause, without the keyword
+        public String orderBy() {
+            return plan.orderBy;
+        }
+
+        public List<Object> params() {
+            return params;
+        }
+
+        // Whether the filter or sort refers to the field (e.g. to decide on a join)
+        public boolean uses(String field) {
+            return fields.contains(field);
+        }
+
+        // Shape and values, for request coalescing keys
+        @Override
+        public String toString() {
+            return plan.shape + params;
+        }
+    }
+
+    private static class Plan {
+        final String shape;
+        final String where;
+        final String orderBy;
+
+        Plan(String shape, String where, String orderBy) {
+            this.shape = shape;
+            this.where = where;
+            this.orderBy = orderBy;
+        }
+    }
+
+    // Parse the filter clauses, sort and limit of a request; throws IllegalArgumentException on invalid input
+    public Query parse(List<String> filters, String sort, String limit) {
+        if (filters.size() > MAX_CLAUSES) {
+            throw new IllegalArgumentException("At most " + MAX_CLAUSES + " filter clauses are allowed");
+        }
+        StringBuilder shape = new StringBuilder();
+        List<Object> params = new ArrayList<>();
+        List<String> fields = new ArrayList<>();
+
+        for (String filter : filters) {
+            String[] parts = filter.split(":", 3);
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Filter '" + filter + "' must have the form field:op:value");
+            }
+            String field = requireField(parts[0]);
+            String op = parts[1];
+            params.addAll(bind(field, op, parts[2]));
+            fields.add(field);
+            shape.append(field).append(':').append(op).append(',');
+        }
+
+        List<String> sortFields = new ArrayList<>();
+        if (sort != null && !sort.trim().isEmpty()) {
+            for (String key : sort.split(",")) {
+                String field = key.trim();
+                boolean descending = field.startsWith("-");
+                field = requireField(descending ? field.substring(1) : field);
+                if (sortFields.contains(field) || sortFields.contains("-" + field)) {
+                    throw new IllegalArgumentException("Sort field '" + field + "' is listed twice");
+                }
+                sortFields.add(descending ? "-" + field : field);
+                fields.add(field);
+            }
+        }
+        shape.append("|sort:").append(String.join(",", sortFields));
+
+        if (limit != null) {
+            int rows;
+            try {
+                rows = Integer.parseInt(limit.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("limit must be a number");
+            }
+            if (rows < 1 || rows > MAX_LIMIT) {
+                throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+            }
+            params.add(rows);
+            shape.append("|limit");
+        }
+
+        String key = shape.toString();
+        Plan plan;
+        synchronized (plans) {
+            plan = plans.get(key);
+        }
+        if (plan != null) {
+            planHits.incrementAndGet();
+        } else {
+            planMisses.incrementAndGet();
+            plan = compile(key, filters, sortFields, limit != null);
+            synchronized (plans) {
+                plans.put(key, plan);
+            }
+        }
+        return new Query(plan, params, fields);
+    }
+
+    private Plan compile(String shape, List<String> filters, List<String> sortFields, boolean limited) {
+        List<String> conditions = new ArrayList<>();
+        for (String filter : filters) {
+            String[] parts = filter.split(":", 3);
+            String expression = expressions.get(parts[0]);
+            switch (parts[1]) {
+                case "eq": conditions.add(expression + " = ?"); break;
+                case "ne": conditions.add(expression + " <> ?"); break;
+                case "lt": conditions.add(expression + " < ?"); break;
+                case "lte": conditions.add(expression + " <= ?"); break;
+                case "gt": conditions.add(expression + " > ?"); break;
+                case "gte": conditions.add(expression + " >= ?"); break;
+                case "prefix": conditions.add(expression + " >= ? AND " + expression + " < ?"); break;
+                default: throw new IllegalStateException("Unhandled operator " + parts[1]);
+            }
+        }
+
+        List<String> order = new ArrayList<>();
+        for (String field : sortFields) {
+            order.add(field.startsWith("-") ? expressions.get(field.substring(1)) + " DESC" : expressions.get(field));
+        }
+        order.add(defaultOrder);
+
+        return new Plan(shape,
+                conditions.isEmpty() ? null : String.join(" AND ", conditions),
+                String.join(", ", order) + (limited ? " LIMIT ?" : ""));
+    }
+
+    private String requireField(String field) {
+        if (!expressions.containsKey(field)) {
+            throw new IllegalArgumentException("Unknown filter field '" + field + "'. Allowed fields: "
+                    + String.join(", ", expressions.keySet()));
+        }
+        return field;
+    }
+
+    // Check the operator against the field type and convert the value to the parameters it binds
+    private List<Object> bind(String field, String op, String value) {
+        List<Object> params = new ArrayList<>();
+        Type type = types.get(field);
+        if (type == Type.TEXT) {
+            if (op.equals("eq")) {
+                params.add(value);
+            } else if (op.equals("prefix")) {
+                if (value.isEmpty()) {
+                    throw new IllegalArgumentException("Prefix of '" + field + "' must not be empty");
+                }
+                params.add(value);
+                params.add(prefixUpperBound(value));
+            } else {
+                throw new IllegalArgumentException("Text field '" + field + "' supports eq and prefix");
+            }
+            return params;
+        }
+
+        switch (op) {
+            case "eq": case "ne": case "lt": case "lte": case "gt": case "gte":
+                break;
+            default:
+                throw new IllegalArgumentException("Numeric field '" + field + "' supports eq, ne, lt, lte, gt and gte");
+        }
+        try {
+            params.add(type == Type.INTEGER ? (Object) Long.parseLong(value.trim()) : (Object) Double.parseDouble(value.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Value of '" + field + "' must be a number");
+        }
+        return params;
+    }
+
+    // Smallest string greater than every string starting with prefix (last code point + 1)
+    private static String prefixUpperBound(String prefix) {
+        int last = prefix.codePointBefore(prefix.length());
+        int next = last == 0xD7FF ? 0xE000 : last + 1;
+        if (next > Character.MAX_CODE_POINT) {
+            throw new IllegalArgumentException("Unsupported prefix");
+        }
+        return prefix.substring(0, prefix.length() - Character.charCount(last)) + new String(Character.toChars(next));
+    }
+
+    public JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        stats.put("name", name);
+        synchronized (plans) {
+            stats.put("cachedPlans", plans.size());
+        }
+        stats.put("planHits", planHits.get());
+        stats.put("planMisses", planMisses.get());
+        stats.put("planEvictions", planEvictions.get());
+        return stats;
+    }
+}
@@ -0,0 +1,157 @@
+package com.topbloc.codechallenge.service;
+
+import com.topbloc.codechallenge.db.DatabaseManager;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Time series of inventory stock levels.
+ *
+ * Every stock write is appended to stock_history and folded into the stock_rollups table, which keeps the
+ * min, max and last stock of each item per minute, hour and day bucket (UTC aligned). Both happen in the
+ * caller's transaction, so history never disagrees with the inventory table, and the statements carry the
+ * timestamp as a parameter so read mirrors and replicas record identical history.
+ *
+ * Range queries read raw samples for short ranges and the coarsest useful rollup otherwise, so the number
+ * of rows read is bounded by the number of buckets rather than the number of writes:
+ * - up to 1 hour: raw samples
+ * - up to 1 day: minute buckets
+ * - up to 60 days: hour buckets
+ * - longer: day buckets
+ * The step can also be chosen explicitly with step=raw|minute|hour|day.
+ *
+ * Raw ranges return at most MAX_RAW_SAMPLES samples. A longer range is marked "truncated" with a "nextFrom"
+ * timestamp; requesting from=nextFrom returns the following samples.
+ */
+public class StockHistoryService {
+    public static final String RAW = "raw";
+
+    private static final long MINUTE = 60_000L;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+    private static final int MAX_RAW_SAMPLES = 10_000;
+
+    private static final Map<String, Long> steps = new LinkedHashMap<>();
+
+    static {
+        steps.put("minute", MINUTE);
+        steps.put("hour", HOUR);
+        steps.put("day", DAY);
+    }
+
+    // Append a stock sample and update its rollups; must run inside a DatabaseManager transaction
+    public static void record(int itemId, int stock, int capacity) throws SQLException {
+        long ts = System.currentTimeMillis();
+        DatabaseManager.executeUpdate("INSERT INTO stock_history (item, ts, stock, capacity) VALUES (?, ?, ?, ?)",
+                itemId, ts, stock, capacity);
+        for (long step : steps.values()) {
+            DatabaseManager.executeUpdate("INSERT INTO stock_rollups "
+                    + "(item, step, bucket, min_stock, max_stock, last_stock, samples) VALUES (?, ?, ?, ?, ?, ?, 1) "
+                    + "ON CONFLICT (item, step, bucket) DO UPDATE SET "
+                    + "min_stock = min(min_stock, excluded.min_stock), "
+                    + "max_stock = max(max_stock, excluded.max_stock), "
+                    + "last_stock = excluded.last_stock, "
+                    + "samples = samples + 1",
+                    itemId, step, ts - Math.floorMod(ts, step), stock, stock, stock);
+        }
+    }
+
+    // Get the stock history of an item between from and to (epoch millis, inclusive) at the given step,
+    // or at an automatically chosen step when step is null
+    public static JSONObject getHistory(int itemId, long from, long to, String step) {
+        String resolvedStep = step != null ? step : defaultStep(to - from);
+
+        try {
+            if (DatabaseManager.queryRowForJson("SELECT id FROM items WHERE id = ?", itemId) == null) {
+                JSONObject error = new JSONObject();
+                error.put("error", "Item with ID " + itemId + " does not exist");
+                return error;
+            }
+
+            JSONArray points;
+            Long nextFrom = null;
+            if (RAW.equals(resolvedStep)) {
+                points = DatabaseManager.queryForJson("SELECT ts, stock, capacity FROM stock_history "
+                        + "WHERE item = ? AND ts BETWEEN ? AND ? ORDER BY ts LIMIT ?", itemId, from, to, MAX_RAW_SAMPLES + 1);
+                if (points.size() > MAX_RAW_SAMPLES) {
+                    nextFrom = truncate(points);
+                }
+            } else {
+                long stepMillis = steps.get(resolvedStep);
+                // Include the bucket that contains "from"
+                long firstBucket = from - Math.floorMod(from, stepMillis);
+                points = DatabaseManager.queryForJson("SELECT bucket AS ts, min_stock AS min, max_stock AS max, "
+                        + "last_stock AS last, samples FROM stock_rollups "
+                        + "WHERE item = ? AND step = ? AND bucket BETWEEN ? AND ? ORDER BY bucket",
+                        itemId, stepMillis, firstBucket, to);
+            }
+
+            JSONObject result = new JSONObject();
+            result.put("itemId", itemId);
+            result.put("from", from);
+            result.put("to", to);
+            result.put("step", resolvedStep);
+            result.put("points", points);
+            result.put("truncated", nextFrom != null);
+            if (nextFrom != null) {
+                result.put("nextFrom", nextFrom);
+            }
+            return result;
+        } catch (SQLException e) {
+            System.err.println("Error getting stock history: " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    // Cut MAX_RAW_SAMPLES + 1 samples back to a page that ends on a millisecond boundary, so the next page
+    // (from the returned timestamp on) neither repeats nor skips samples; returns that timestamp
+    private static long truncate(JSONArray points) {
+        long nextFrom = ((Number) ((JSONObject) points.get(MAX_RAW_SAMPLES)).get("ts")).longValue();
+        int end = MAX_RAW_SAMPLES;
+        while (end > 0 && ((Number) ((JSONObject) points.get(end - 1)).get("ts")).longValue() == nextFrom) {
+            end--;
+        }
+        if (end == 0) {
+            // A whole page within one millisecond: return it and continue after it
+            end = MAX_RAW_SAMPLES;
+            nextFrom++;
+        }
+        points.subList(end, points.size()).clear();
+        return nextFrom;
+    }
+
+    public static boolean isValidStep(String step) {
+        return RAW.equals(step) || steps.containsKey(step);
+    }
+
+    // Accept epoch milliseconds or an ISO-8601 instant such as 2024-05-01T00:00:00Z
+    public static long parseTimestamp(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            try {
+                return Instant.parse(value).toEpochMilli();
+            } catch (DateTimeParseException parseError) {
+                throw new IllegalArgumentException("Invalid timestamp: " + value);
+            }
+        }
+    }
+
+    private static String defaultStep(long rangeMillis) {
+        if (rangeMillis <= HOUR) {
+            return RAW;
+        } else if (rangeMillis <= DAY) {
+            return "minute";
+        } else if (rangeMillis <= 60 * DAY) {
+            return "hour";
+        }
+        return "day";
+    }
+}